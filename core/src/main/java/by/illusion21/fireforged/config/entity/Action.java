@@ -1,5 +1,22 @@
 package by.illusion21.fireforged.config.entity;
 
 public enum Action {
-    REJECT, DROP, ACCEPT
+    REJECT, DROP, ACCEPT, TARPIT,
+    ALLOW_STATUS_ONLY, // Let through, but only to ping the server list: logging in is dropped
+    DENY_STATUS;       // Let through, but only to log in: server list pings are dropped
+
+    /**
+     * @return true if the connection is let through, to every protocol phase or only some.
+     */
+    public boolean admits() {
+        return this == ACCEPT || this == ALLOW_STATUS_ONLY || this == DENY_STATUS;
+    }
+
+    public boolean allowsStatus() {
+        return this == ACCEPT || this == ALLOW_STATUS_ONLY;
+    }
+
+    public boolean allowsLogin() {
+        return this == ACCEPT || this == DENY_STATUS;
+    }
 }
@@ -0,0 +1,80 @@
+package by.illusion21.fireforged.config.entity;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+// a CIDR range compiled once into raw network bytes and per-byte masks
+public final class CidrBlock {
+    private final byte[] network; // already masked
+    private final byte[] mask;
+    private final int prefixLength;
+
+    private CidrBlock(byte[] network, byte[] mask, int prefixLength) {
+        this.network = network;
+        this.mask = mask;
+        this.prefixLength = prefixLength;
+    }
+
+    /**
+     * Compiles "address/prefix". A bare address is taken as a single host (/32 or /128).
+     *
+     * @param cidr The CIDR string, e.g. "10.0.0.0/8" or "2001:db8::/32".
+     * @return The compiled block.
+     * @throws IllegalArgumentException if the address or the prefix length is invalid.
+     */
+    public static CidrBlock parse(String cidr) {
+        String trimmed = cidr.trim();
+        int slash = trimmed.indexOf('/');
+        String addressPart = slash < 0 ? trimmed : trimmed.substring(0, slash);
+
+        byte[] address;
+        try {
+            address = InetAddress.getByName(addressPart).getAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Invalid CIDR address: " + cidr, e);
+        }
+
+        int maxPrefix = address.length * 8;
+        int prefixLength;
+        try {
+            prefixLength = slash < 0 ? maxPrefix : Integer.parseInt(trimmed.substring(slash + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid CIDR prefix: " + cidr, e);
+        }
+        if (prefixLength < 0 || prefixLength > maxPrefix) {
+            throw new IllegalArgumentException("CIDR prefix out of range: " + cidr);
+        }
+
+        byte[] mask = new byte[address.length];
+        for (int i = 0; i < mask.length; i++) {
+            int bits = Math.min(8, Math.max(0, prefixLength - i * 8));
+            mask[i] = (byte) (0xFF << (8 - bits));
+            address[i] &= mask[i];
+        }
+        return new CidrBlock(address, mask, prefixLength);
+    }
+
+    /**
+     * @param address Raw address bytes, 4 for IPv4 or 16 for IPv6.
+     * @return true if the address lies inside this block. IPv4 never matches an IPv6 block and vice versa.
+     */
+    public boolean matches(byte[] address) {
+        if (address.length != network.length) {
+            return false;
+        }
+        for (int i = 0; i < network.length; i++) {
+            if ((address[i] & mask[i]) != network[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getPrefixLength() {
+        return prefixLength;
+    }
+
+    public boolean isIpv6() {
+        return network.length == 16;
+    }
+}
@@ -6,6 +6,7 @@ public class Rule {
     private final Action action;
     private final int priority;
     private final int prefixLength; // prefix length for sorting
+    private final CidrBlock cidrBlock; // compiled once, used for matching
 
     public Rule(String cidr, Action action, int priority) {
         this.cidr = cidr;
@@ -16,6 +17,7 @@ public class Rule {
             throw new IllegalArgumentException("Invalid CIDR: " + cidr);
         }
         this.prefixLength = Integer.parseInt(parts[1]);
+        this.cidrBlock = CidrBlock.parse(cidr);
     }
 
     // Getters
@@ -23,5 +25,6 @@ public class Rule {
     public Action getAction() { return action; }
     public int getPriority() { return priority; }
     public int getPrefixLength() { return prefixLength; }
+    public CidrBlock getCidrBlock() { return cidrBlock; }
 }
 
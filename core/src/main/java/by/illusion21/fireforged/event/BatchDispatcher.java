@@ -0,0 +1,90 @@
+package by.illusion21.fireforged.event;
+
+import by.illusion21.fireforged.metrics.FirewallMetrics;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/// Moves [FirewallEvent]s from the event loops to the batch listeners.
+/// Producers do a lock-free enqueue and only wake the consumer when the queue goes from empty to not empty;
+/// the consumer drains whatever piled up meanwhile into one batch and parks until woken when there is nothing,
+/// so an idle server, or one whose batch listeners all unregistered, costs no wakeups at all.
+final class BatchDispatcher implements Runnable {
+    private static final int MAX_PENDING = 65536; // Bounded so a stuck listener cannot eat the heap
+    private static final int MAX_BATCH = 1024;
+
+    private final Logger logger;
+    private final ConcurrentLinkedQueue<FirewallEvent> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger(); // Offered and not yet taken, counted before the enqueue
+    private volatile Thread thread;
+
+    BatchDispatcher(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Starts the consumer thread if it is not running yet. Called under the registry lock.
+     */
+    void start() {
+        if (thread != null) {
+            return;
+        }
+        Thread consumer = new Thread(this, "fireforged-listeners");
+        consumer.setDaemon(true);
+        thread = consumer;
+        consumer.start();
+    }
+
+    /**
+     * @return false if the queue is full and the event was dropped.
+     */
+    boolean offer(FirewallEvent event) {
+        int count = pending.incrementAndGet();
+        if (count > MAX_PENDING) {
+            pending.decrementAndGet();
+            FirewallMetrics.increment(FirewallMetrics.Counter.LISTENER_EVENTS_DROPPED);
+            return false;
+        }
+        queue.offer(event);
+        Thread consumer = thread;
+        if (count == 1 && consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    @Override
+    public void run() {
+        ArrayList<FirewallEvent> batch = new ArrayList<>(MAX_BATCH);
+        List<FirewallEvent> view = Collections.unmodifiableList(batch);
+        while (true) {
+            FirewallEvent event;
+            while (batch.size() < MAX_BATCH && (event = queue.poll()) != null) {
+                batch.add(event);
+            }
+            if (batch.isEmpty()) {
+                if (pending.get() != 0) {
+                    Thread.onSpinWait(); // Counted but not enqueued yet, its producer saw a non-empty queue and will not wake us
+                } else {
+                    LockSupport.park(this);
+                }
+                continue;
+            }
+            pending.addAndGet(-batch.size());
+
+            for (FirewallBatchListener listener : FirewallListeners.batchListeners()) {
+                try {
+                    listener.onEvents(view);
+                } catch (Throwable t) {
+                    logger.error("Firewall batch listener {} failed on {} events", listener.getClass().getName(), batch.size(), t);
+                }
+            }
+            batch.clear();
+        }
+    }
+}
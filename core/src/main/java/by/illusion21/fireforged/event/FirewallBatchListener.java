@@ -0,0 +1,19 @@
+package by.illusion21.fireforged.event;
+
+import java.util.List;
+
+/// Asynchronous listener. Events are queued by the event loops and handed over in bulk on the
+/// dedicated `fireforged-listeners` thread, so implementations may take their time (database
+/// writes, http calls) without slowing down connections. Events arrive at most a few
+/// milliseconds late and in order per channel; under sustained overload the oldest undelivered
+/// events are kept and new ones are dropped.
+///
+/// Register through [FirewallListeners#register(FirewallBatchListener)].
+public interface FirewallBatchListener {
+
+    /**
+     * @param events The events queued since the previous call, oldest first. Never empty, only valid
+     *               for the duration of the call.
+     */
+    void onEvents(List<FirewallEvent> events);
+}
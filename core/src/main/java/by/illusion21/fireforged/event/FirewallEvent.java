@@ -0,0 +1,75 @@
+package by.illusion21.fireforged.event;
+
+import by.illusion21.fireforged.config.entity.Action;
+import io.netty.channel.Channel;
+
+import java.net.SocketAddress;
+
+/// Snapshot of one firewall notification as delivered to a [FirewallBatchListener].
+/// Only created when a batch listener is registered.
+public final class FirewallEvent {
+
+    public enum Type {
+        ADDRESS_RESOLVED,
+        VERDICT
+    }
+
+    private final Type type;
+    private final Channel channel;
+    private final SocketAddress realAddress;
+    private final boolean proxyProtocolUsed;
+    private final Action action;
+    private final long timestampMillis;
+
+    FirewallEvent(Type type, Channel channel, SocketAddress realAddress, boolean proxyProtocolUsed, Action action) {
+        this.type = type;
+        this.channel = channel;
+        this.realAddress = realAddress;
+        this.proxyProtocolUsed = proxyProtocolUsed;
+        this.action = action;
+        this.timestampMillis = System.currentTimeMillis();
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return The connection's channel. It may well be closed by the time the event is delivered.
+     */
+    public Channel getChannel() {
+        return channel;
+    }
+
+    public SocketAddress getRealAddress() {
+        return realAddress;
+    }
+
+    /**
+     * @return True if the address came from a PROXY header. Only meaningful for {@link Type#ADDRESS_RESOLVED}.
+     */
+    public boolean isProxyProtocolUsed() {
+        return proxyProtocolUsed;
+    }
+
+    /**
+     * @return The verdict for {@link Type#VERDICT}, null otherwise.
+     */
+    public Action getAction() {
+        return action;
+    }
+
+    /**
+     * @return Wall clock time the event happened at, not when it was delivered.
+     */
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    @Override
+    public String toString() {
+        return type == Type.VERDICT
+                ? "FirewallEvent{VERDICT " + realAddress + " " + action + "}"
+                : "FirewallEvent{ADDRESS_RESOLVED " + realAddress + (proxyProtocolUsed ? " (proxy)" : "") + "}";
+    }
+}
@@ -0,0 +1,35 @@
+package by.illusion21.fireforged.event;
+
+import by.illusion21.fireforged.config.entity.Action;
+import io.netty.channel.Channel;
+
+import java.net.SocketAddress;
+
+/// Inline listener, called on the channel's event loop in the middle of the firewall's own work.
+/// Implementations must be quick and must never block: whatever they do, every connection on
+/// that event loop waits for it. Anything heavier belongs in a [FirewallBatchListener].
+///
+/// Register through [FirewallListeners#register(FirewallListener)].
+public interface FirewallListener {
+
+    /**
+     * Called once the real client address of a connection is known.
+     *
+     * @param channel           The connection's channel.
+     * @param realAddress       The client address, parsed from the PROXY header or the socket address.
+     * @param proxyProtocolUsed True if the address came from a PROXY header.
+     */
+    default void onAddressResolved(Channel channel, SocketAddress realAddress, boolean proxyProtocolUsed) {
+    }
+
+    /**
+     * Called once the firewall decided on a connection. The channel is already being closed
+     * for anything that does not {@link Action#admits()}.
+     *
+     * @param channel     The connection's channel.
+     * @param realAddress The address the rules were matched against.
+     * @param action      The verdict.
+     */
+    default void onVerdict(Channel channel, SocketAddress realAddress, Action action) {
+    }
+}
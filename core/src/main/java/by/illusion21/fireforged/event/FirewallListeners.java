@@ -0,0 +1,122 @@
+package by.illusion21.fireforged.event;
+
+import by.illusion21.fireforged.config.entity.Action;
+import io.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.SocketAddress;
+import java.util.Arrays;
+
+/// Registry other mods use to hear about resolved client addresses and firewall verdicts.
+/// Listeners live in copy-on-write arrays: registering is rare and takes a lock, firing is a
+/// single volatile read and a loop, and with nobody registered nothing is allocated at all.
+///
+/// Two delivery modes:
+/// - [FirewallListener]: inline on the event loop, before the connection moves on
+/// - [FirewallBatchListener]: queued and delivered in bulk on a dedicated thread
+public final class FirewallListeners {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FirewallListeners.class);
+
+    private static final FirewallListener[] NO_INLINE = new FirewallListener[0];
+    private static final FirewallBatchListener[] NO_BATCH = new FirewallBatchListener[0];
+
+    private static volatile FirewallListener[] inlineListeners = NO_INLINE;
+    private static volatile FirewallBatchListener[] batchListeners = NO_BATCH;
+    private static final BatchDispatcher DISPATCHER = new BatchDispatcher(LOGGER);
+
+    private FirewallListeners() {
+    }
+
+    public static synchronized void register(FirewallListener listener) {
+        inlineListeners = append(inlineListeners, listener);
+    }
+
+    public static synchronized void register(FirewallBatchListener listener) {
+        batchListeners = append(batchListeners, listener);
+        DISPATCHER.start();
+    }
+
+    /**
+     * @return true if the listener was registered.
+     */
+    public static synchronized boolean unregister(FirewallListener listener) {
+        FirewallListener[] updated = remove(inlineListeners, listener, NO_INLINE);
+        boolean removed = updated != inlineListeners;
+        inlineListeners = updated;
+        return removed;
+    }
+
+    /**
+     * @return true if the listener was registered. Events already queued may still be delivered to it.
+     */
+    public static synchronized boolean unregister(FirewallBatchListener listener) {
+        FirewallBatchListener[] updated = remove(batchListeners, listener, NO_BATCH);
+        boolean removed = updated != batchListeners;
+        batchListeners = updated;
+        return removed;
+    }
+
+    public static boolean hasListeners() {
+        return inlineListeners.length != 0 || batchListeners.length != 0;
+    }
+
+    static FirewallBatchListener[] batchListeners() {
+        return batchListeners;
+    }
+
+    /**
+     * Called on the event loop once the real client address is known.
+     */
+    public static void fireAddressResolved(Channel channel, SocketAddress realAddress, boolean proxyProtocolUsed) {
+        for (FirewallListener listener : inlineListeners) {
+            try {
+                listener.onAddressResolved(channel, realAddress, proxyProtocolUsed);
+            } catch (Exception e) {
+                LOGGER.error("Firewall listener {} failed on resolved address {}", listener.getClass().getName(), realAddress, e);
+            }
+        }
+        if (batchListeners.length != 0) {
+            DISPATCHER.offer(new FirewallEvent(FirewallEvent.Type.ADDRESS_RESOLVED, channel, realAddress, proxyProtocolUsed, null));
+        }
+    }
+
+    /**
+     * Called on the event loop once the firewall decided on a connection.
+     */
+    public static void fireVerdict(Channel channel, SocketAddress realAddress, Action action) {
+        for (FirewallListener listener : inlineListeners) {
+            try {
+                listener.onVerdict(channel, realAddress, action);
+            } catch (Exception e) {
+                LOGGER.error("Firewall listener {} failed on verdict {} for {}", listener.getClass().getName(), action, realAddress, e);
+            }
+        }
+        if (batchListeners.length != 0) {
+            DISPATCHER.offer(new FirewallEvent(FirewallEvent.Type.VERDICT, channel, realAddress, false, action));
+        }
+    }
+
+    private static <T> T[] append(T[] listeners, T listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null");
+        }
+        T[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = listener;
+        return updated;
+    }
+
+    private static <T> T[] remove(T[] listeners, T listener, T[] empty) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                if (listeners.length == 1) {
+                    return empty;
+                }
+                T[] updated = Arrays.copyOf(listeners, listeners.length - 1);
+                System.arraycopy(listeners, i + 1, updated, i, listeners.length - i - 1);
+                return updated;
+            }
+        }
+        return listeners;
+    }
+}
@@ -2,15 +2,15 @@ package by.illusion21.fireforged.event;
 
 
 import io.netty.channel.Channel;
-import net.minecraftforge.eventbus.api.Event;
 
 import java.net.SocketAddress;
 
 /**
- * Fired by ProxyHandler when the real client address has been determined
+ * Fired down the pipeline as a user event by ProxyHandler when the real client address has been determined
  * (either parsed from PROXY protocol or using the original address if disabled).
+ * Other mods should register a {@link FirewallListener} instead of looking for this.
  */
-public class RealIpResolvedEvent extends Event {
+public class RealIpResolvedEvent {
     private final Channel channel;
     private final SocketAddress realAddress;
     private final boolean proxyProtocolUsed; // Flag to indicate if the address came from PROXY header
@@ -43,4 +43,4 @@ public class RealIpResolvedEvent extends Event {
     public boolean isProxyProtocolUsed() {
         return proxyProtocolUsed;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,70 @@
+package by.illusion21.fireforged.firewall.limit;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+/// Folds a client address into a single long key, aggregated to a prefix, so per-source tables
+/// can be keyed on primitives.
+/// - IPv4: the masked address, tagged with all ones in the upper 32 bits (ff00::/8 is multicast,
+///   never a client source, so the tag cannot collide with an IPv6 key)
+/// - IPv6: the upper 64 bits, masked; prefixes longer than /64 are not supported since attackers
+///   get at least a /64 anyway
+public final class AddressKeys {
+    private static final long IPV4_TAG = 0xFFFF_FFFF_0000_0000L;
+    public static final long NO_KEY = IPV4_TAG | 0xFFFF_FFFFL; // 255.255.255.255, the broadcast address never opens a tcp connection
+
+    private AddressKeys() {
+    }
+
+    /**
+     * @param address    The resolved client address.
+     * @param ipv4Prefix Prefix length IPv4 addresses are aggregated at, 0..32.
+     * @param ipv6Prefix Prefix length IPv6 addresses are aggregated at, 0..64.
+     * @return The key, or {@link #NO_KEY} if the address is not a resolved ip socket address.
+     */
+    public static long of(SocketAddress address, int ipv4Prefix, int ipv6Prefix) {
+        if (!(address instanceof InetSocketAddress inetSocketAddress) || inetSocketAddress.getAddress() == null) {
+            return NO_KEY;
+        }
+        return of(inetSocketAddress.getAddress(), ipv4Prefix, ipv6Prefix);
+    }
+
+    public static long of(InetAddress address, int ipv4Prefix, int ipv6Prefix) {
+        if (address instanceof Inet4Address) {
+            // Inet4Address.hashCode() is the address itself, which spares the byte[] copy getAddress() makes
+            long ipv4 = address.hashCode() & 0xFFFF_FFFFL;
+            return IPV4_TAG | (ipv4 & (0xFFFF_FFFFL << (32 - ipv4Prefix)) & 0xFFFF_FFFFL);
+        }
+        byte[] bytes = address.getAddress();
+        long upper = 0;
+        for (int i = 0; i < 8; i++) {
+            upper = (upper << 8) | (bytes[i] & 0xFF);
+        }
+        return ipv6Prefix == 0 ? 0 : upper & (-1L << (64 - ipv6Prefix));
+    }
+
+    /**
+     * @return The key as text, e.g. 192.0.2.1, 192.0.2.0/24 or 2001:db8:0:1::/64.
+     */
+    public static String toString(long key, int ipv4Prefix, int ipv6Prefix) {
+        if ((key & IPV4_TAG) == IPV4_TAG) { // ffff:ffff::/32 is multicast, never the upper half of an IPv6 key
+            String address = ((key >>> 24) & 0xFF) + "." + ((key >>> 16) & 0xFF) + "." + ((key >>> 8) & 0xFF) + "." + (key & 0xFF);
+            return ipv4Prefix == 32 ? address : address + "/" + ipv4Prefix;
+        }
+        return String.format("%x:%x:%x:%x::/%d", (key >>> 48) & 0xFFFF, (key >>> 32) & 0xFFFF, (key >>> 16) & 0xFFFF, key & 0xFFFF, ipv6Prefix);
+    }
+
+    /**
+     * Spreads a key over table slots, keys from one subnet only differ in a few bits.
+     */
+    static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        key *= 0xC4CEB9FE1A85EC53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
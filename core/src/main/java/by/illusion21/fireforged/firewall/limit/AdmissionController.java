@@ -0,0 +1,252 @@
+package by.illusion21.fireforged.firewall.limit;
+
+import by.illusion21.fireforged.firewall.utils.FirewallTimer;
+import by.illusion21.fireforged.metrics.FirewallMetrics;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import org.slf4j.Logger;
+
+import java.net.SocketAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/// Global load shedding for when the event loops cannot keep up, whoever the connections come from.
+///
+/// Every [#SAMPLE_MILLIS] the timer thread queues a no-op on each watched event loop and measures how long
+/// it waited, and reads how many connections still have a FirewallHandler attached (no verdict yet).
+/// Crossing either threshold steps the level up, one level at a time:
+/// - [Level#SHEDDING]: connections the rules accept are turned away unless their address is one of the
+///   [KnownAddresses], so players who were already here can still get back in
+/// - [Level#PAUSED]: the listeners stop accepting altogether and the kernel backlog absorbs the flood,
+///   for at most [#MAX_PAUSE_SAMPLES] at a time so a stuck count can never lock the server out
+///
+/// Stepping down needs both readings below half their threshold, for [#RECOVER_SAMPLES] in a row
+/// when leaving SHEDDING, so the level does not flap around the threshold.
+public final class AdmissionController {
+
+    public enum Level {
+        NORMAL,
+        SHEDDING,
+        PAUSED
+    }
+
+    private static final long SAMPLE_MILLIS = 100;
+    private static final int ESCALATE_SAMPLES = 10;  // Overloaded for 1s while shedding before accepting stops
+    private static final int MAX_PAUSE_SAMPLES = 20; // Accepting is never paused for more than 2s in one go
+    private static final int RECOVER_SAMPLES = 50;   // Calm for 5s before shedding stops
+
+    private static final LongAdder UNDECIDED = new LongAdder();
+    private static final Map<EventExecutor, Probe> PROBES = new ConcurrentHashMap<>();
+    private static final Set<Channel> LISTENERS = ConcurrentHashMap.newKeySet();
+
+    private static volatile Level level = Level.NORMAL;
+    private static volatile boolean enabled = false;
+    private static volatile long maxLagNanos = 0; // 0 = lag is not a trigger
+    private static volatile long maxUndecided = 0; // 0 = the undecided count is not a trigger
+    private static Logger logger;
+    private static boolean sampling = false; // Guarded by the class lock
+
+    // Only touched by the sampler
+    private static int levelSamples = 0;
+    private static int calmSamples = 0;
+
+    private AdmissionController() {
+    }
+
+    /**
+     * Starts or stops the controller, safe to call again on every server start.
+     *
+     * @param maxLagMillis Event loop lag that counts as overloaded, 0 to ignore lag.
+     * @param maxUndecided Undecided connections that count as overloaded, 0 to ignore them.
+     * @param logger       Logger for level changes.
+     */
+    public static synchronized void configure(int maxLagMillis, int maxUndecided, Logger logger) {
+        AdmissionController.maxLagNanos = TimeUnit.MILLISECONDS.toNanos(maxLagMillis);
+        AdmissionController.maxUndecided = maxUndecided;
+        AdmissionController.logger = logger;
+        enabled = maxLagMillis > 0 || maxUndecided > 0;
+        if (enabled && !sampling) {
+            sampling = true;
+            FirewallTimer.schedule(timeout -> sample(), SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Adds the event loops of a listener's child group to the lag probes.
+     */
+    public static void watchEventLoops(EventLoopGroup group) {
+        for (EventExecutor loop : group) {
+            PROBES.computeIfAbsent(loop, Probe::new);
+        }
+    }
+
+    /**
+     * Adds a server channel to the ones paused at {@link Level#PAUSED}, until it closes.
+     */
+    public static void watchListener(Channel serverChannel) {
+        if (LISTENERS.add(serverChannel)) {
+            serverChannel.closeFuture().addListener(future -> LISTENERS.remove(serverChannel));
+            if (level == Level.PAUSED) {
+                serverChannel.config().setAutoRead(false);
+            }
+        }
+    }
+
+    public static Level level() {
+        return level;
+    }
+
+    /**
+     * A connection started waiting for its verdict, paired with one {@link #decisionSettled()}.
+     */
+    public static void decisionPending() {
+        UNDECIDED.increment();
+    }
+
+    public static void decisionSettled() {
+        UNDECIDED.decrement();
+    }
+
+    /**
+     * @return true if the server is overloaded and the address is not a known one.
+     */
+    public static boolean shouldShed(SocketAddress address) {
+        return level != Level.NORMAL && AddressKeys.of(address, 32, 64) != AddressKeys.NO_KEY && !KnownAddresses.contains(address);
+    }
+
+    /**
+     * @return true if the controller is on, which needs {@link KnownAddresses} to be recorded.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Runs on the timer thread, reschedules itself while enabled.
+     */
+    private static void sample() {
+        synchronized (AdmissionController.class) {
+            if (!enabled) {
+                sampling = false;
+                changeLevel(Level.NORMAL, 0, 0);
+                return;
+            }
+        }
+
+        long now = System.nanoTime();
+        long lagNanos = 0;
+        for (Iterator<Probe> probes = PROBES.values().iterator(); probes.hasNext(); ) {
+            Probe probe = probes.next();
+            try {
+                lagNanos = Math.max(lagNanos, probe.lag(now));
+            } catch (RejectedExecutionException e) {
+                probes.remove(); // The loop shut down with its server
+            }
+        }
+        long undecided = UNDECIDED.sum();
+        FirewallMetrics.set(FirewallMetrics.Gauge.UNDECIDED_CHANNELS, undecided);
+        FirewallMetrics.set(FirewallMetrics.Gauge.EVENT_LOOP_LAG_MILLIS, TimeUnit.NANOSECONDS.toMillis(lagNanos));
+
+        long maxLag = maxLagNanos;
+        long maxCount = maxUndecided;
+        boolean overloaded = (maxLag > 0 && lagNanos >= maxLag) || (maxCount > 0 && undecided >= maxCount);
+        boolean calm = (maxLag == 0 || lagNanos * 2 < maxLag) && (maxCount == 0 || undecided * 2 < maxCount);
+        calmSamples = calm ? calmSamples + 1 : 0;
+        levelSamples++;
+
+        switch (level) {
+            case NORMAL -> {
+                if (overloaded) {
+                    changeLevel(Level.SHEDDING, lagNanos, undecided);
+                }
+            }
+            case SHEDDING -> {
+                if (!overloaded) {
+                    levelSamples = 0; // Only sustained overload escalates
+                }
+                if (levelSamples >= ESCALATE_SAMPLES) {
+                    changeLevel(Level.PAUSED, lagNanos, undecided);
+                } else if (calmSamples >= RECOVER_SAMPLES) {
+                    changeLevel(Level.NORMAL, lagNanos, undecided);
+                }
+            }
+            case PAUSED -> {
+                if (calm || levelSamples >= MAX_PAUSE_SAMPLES) {
+                    changeLevel(Level.SHEDDING, lagNanos, undecided);
+                }
+            }
+        }
+
+        FirewallTimer.schedule(timeout -> sample(), SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static void changeLevel(Level next, long lagNanos, long undecided) {
+        Level previous = level;
+        if (previous == next) {
+            return;
+        }
+        level = next;
+        levelSamples = 0;
+        calmSamples = 0;
+        FirewallMetrics.set(FirewallMetrics.Gauge.ADMISSION_LEVEL, next.ordinal());
+
+        if (next == Level.PAUSED || previous == Level.PAUSED) {
+            boolean accept = next != Level.PAUSED;
+            for (Channel listener : LISTENERS) {
+                listener.config().setAutoRead(accept);
+            }
+            if (!accept) {
+                FirewallMetrics.increment(FirewallMetrics.Counter.ADMISSION_PAUSES);
+            }
+        }
+
+        // Pausing and resuming alternate every few seconds under a long flood, only the edges of an incident are worth a warning
+        long lagMillis = TimeUnit.NANOSECONDS.toMillis(lagNanos);
+        if (next == Level.SHEDDING && previous == Level.NORMAL) {
+            logger.warn("Server overloaded (event loop lag {}ms, {} undecided connections), only admitting known addresses", lagMillis, undecided);
+        } else if (next == Level.NORMAL) {
+            logger.info("Server load back to normal (event loop lag {}ms, {} undecided connections), admitting everyone again", lagMillis, undecided);
+        } else {
+            logger.debug("Admission level {} -> {} (event loop lag {}ms, {} undecided connections)", previous, next, lagMillis, undecided);
+        }
+    }
+
+    /**
+     * Measures one event loop: at most one probe task is queued on it at a time.
+     */
+    private static final class Probe implements Runnable {
+        private final EventExecutor loop;
+        private volatile boolean queued = false;
+        private volatile long queuedAt;
+        private volatile long lastLagNanos = 0;
+
+        private Probe(EventExecutor loop) {
+            this.loop = loop;
+        }
+
+        /**
+         * @return The lag of the last probe, or how long the current one has been waiting if that is longer.
+         */
+        private long lag(long now) {
+            if (queued) {
+                return Math.max(lastLagNanos, now - queuedAt);
+            }
+            queuedAt = now;
+            queued = true;
+            loop.execute(this);
+            return lastLagNanos;
+        }
+
+        @Override
+        public void run() {
+            lastLagNanos = System.nanoTime() - queuedAt;
+            queued = false;
+        }
+    }
+}
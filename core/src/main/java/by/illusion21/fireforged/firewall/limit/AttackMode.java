@@ -0,0 +1,115 @@
+package by.illusion21.fireforged.firewall.limit;
+
+import by.illusion21.fireforged.firewall.utils.FirewallTimer;
+import by.illusion21.fireforged.firewall.utils.RuleManager;
+import by.illusion21.fireforged.metrics.FirewallMetrics;
+import org.slf4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+
+/// Switches the rule engine to its attack mode policy while connections arrive far faster than usual.
+///
+/// Once a second the accept rate is compared with its baseline, an EWMA with a time constant of
+/// [#BASELINE_SECONDS] that only learns outside attack mode, so a long attack never becomes the norm.
+/// Attack mode starts after [#ENTER_SECONDS] seconds in a row above `factor x baseline` (and the minimum rate),
+/// and ends once the rate stayed below that for the configured calm time.
+/// A switch is a single write of the [RuleManager]'s policy snapshot, lookups never check a mode flag.
+public final class AttackMode {
+    private static final long SAMPLE_MILLIS = 1000;
+    private static final int ENTER_SECONDS = 3;
+    private static final double BASELINE_SECONDS = 300;
+    private static final double ALPHA = 1 - Math.exp(-1 / BASELINE_SECONDS);
+
+    private static volatile RuleManager ruleManager = null; // null = off
+    private static volatile double factor = 5;
+    private static volatile int minRate = 50;
+    private static volatile int calmSeconds = 60;
+    private static Logger logger;
+    private static boolean sampling = false; // Guarded by the class lock
+
+    // Only touched by the sampler
+    private static double baseline = 0;
+    private static long lastAccepted = 0;
+    private static long lastSampleNanos = 0;
+    private static int overSeconds = 0;
+    private static int calmCount = 0;
+
+    private AttackMode() {
+    }
+
+    /**
+     * Starts watching the accept rate for the rule manager, or stops if it has no attack policy.
+     * Safe to call again on every server start.
+     *
+     * @param ruleManager The rule manager to switch, may be null.
+     * @param factor      How many times the baseline rate counts as an attack.
+     * @param minRate     Connections per second below which it is never an attack.
+     * @param calmSeconds Seconds below the threshold before attack mode ends.
+     * @param logger      Logger for every switch.
+     */
+    public static synchronized void configure(RuleManager ruleManager, double factor, int minRate, int calmSeconds, Logger logger) {
+        AttackMode.factor = factor;
+        AttackMode.minRate = minRate;
+        AttackMode.calmSeconds = calmSeconds;
+        AttackMode.logger = logger;
+        AttackMode.ruleManager = ruleManager != null && ruleManager.hasAttackPolicy() ? ruleManager : null;
+        if (AttackMode.ruleManager != null && !sampling) {
+            sampling = true;
+            FirewallTimer.schedule(timeout -> sample(), SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Runs on the timer thread, reschedules itself while configured.
+     */
+    private static void sample() {
+        RuleManager rules;
+        synchronized (AttackMode.class) {
+            rules = ruleManager;
+            if (rules == null) {
+                sampling = false;
+                FirewallMetrics.set(FirewallMetrics.Gauge.ATTACK_MODE, 0);
+                return;
+            }
+        }
+
+        long now = System.nanoTime();
+        long accepted = FirewallMetrics.get(FirewallMetrics.Counter.CONNECTIONS_ACCEPTED);
+        if (lastSampleNanos != 0) {
+            double rate = (accepted - lastAccepted) * (double) TimeUnit.SECONDS.toNanos(1) / (now - lastSampleNanos);
+            evaluate(rules, rate);
+        }
+        lastAccepted = accepted;
+        lastSampleNanos = now;
+
+        FirewallTimer.schedule(timeout -> sample(), SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static void evaluate(RuleManager rules, double rate) {
+        double threshold = Math.max(baseline * factor, minRate);
+        if (!rules.isAttackMode()) {
+            if (rate > threshold) {
+                calmCount = 0;
+                if (++overSeconds >= ENTER_SECONDS && rules.setAttackMode(true)) {
+                    logger.warn("Connection rate {}/s is over {}/s (baseline {}/s), switching to the attack mode rules",
+                            Math.round(rate), Math.round(threshold), Math.round(baseline));
+                }
+            } else {
+                overSeconds = 0;
+                baseline += ALPHA * (rate - baseline);
+            }
+        } else if (rate <= threshold) {
+            overSeconds = 0;
+            if (++calmCount >= calmSeconds && rules.setAttackMode(false)) {
+                logger.info("Connection rate {}/s stayed under {}/s for {}s, switching back to the normal rules",
+                        Math.round(rate), Math.round(threshold), calmSeconds);
+            }
+        } else {
+            calmCount = 0;
+        }
+
+        FirewallMetrics.set(FirewallMetrics.Gauge.ATTACK_MODE, rules.isAttackMode() ? 1 : 0);
+        FirewallMetrics.set(FirewallMetrics.Gauge.ACCEPT_RATE, Math.round(rate));
+        FirewallMetrics.set(FirewallMetrics.Gauge.ACCEPT_RATE_BASELINE, Math.round(baseline));
+    }
+}
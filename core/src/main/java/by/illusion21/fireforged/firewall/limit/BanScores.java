@@ -0,0 +1,188 @@
+package by.illusion21.fireforged.firewall.limit;
+
+import by.illusion21.fireforged.metrics.FirewallMetrics;
+
+import java.net.SocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/// Misbehaviour scores per address that decay exponentially, and the temporary bans they lead to.
+///
+/// Each offence adds its points to the address' score; once the score reaches the threshold the address
+/// is banned for a while and its score starts over. An address that keeps offending while banned gets
+/// banned again as soon as it crosses the threshold once more, so persistent hammering stays banned.
+///
+/// Score and time of last update share one long per slot (tick in the upper half, fixed point score in the lower),
+/// so an update is a single compare-and-set and decay is applied lazily on the next update. Slots sit in a fixed
+/// size set-associative table like [ConnectionRateLimiter]'s, claimed by compare-and-set on the key: nothing locks
+/// and nothing allocates, whoever floods the table. Under races two offences may land on a slot being handed to
+/// another address, which only makes a score slightly off.
+public final class BanScores {
+
+    public enum Offence {
+        INVALID_PROXY_HEADER(20), // A PROXY header that does not parse, no real client sends garbage there
+        INVALID_HANDSHAKE(20),    // A first frame that is not a handshake, same
+        PIPELINE_EXCEPTION(10),   // Something the firewall's handlers could not cope with
+        DENIED(5),                // A connection the firewall turned away
+        STATUS_PROBE(1);          // A server list ping, a player's client only sends a few a minute
+
+        private final int points;
+
+        Offence(int points) {
+            this.points = points;
+        }
+
+        public int getPoints() {
+            return points;
+        }
+    }
+
+    static final int WAYS = 4;
+    private static final int SCALE = 256; // Fixed point, so decay does not round small scores straight to 0
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(100); // 32 bit ticks wrap after 13 years
+    private static final long EPOCH = System.nanoTime();
+    private static final long EMPTY = AddressKeys.NO_KEY; // Never the key of a real address
+
+    private final AtomicLongArray keys;
+    private final AtomicLongArray states;
+    private final AtomicLongArray bannedUntil; // System.nanoTime() deadline, 0 = not banned
+    private final int setMask;
+    private final long threshold;
+    private final double decayPerTick;
+    private final long banNanos;
+
+    /**
+     * @param threshold       Score at which an address gets banned.
+     * @param halfLifeSeconds Time for a score to halve.
+     * @param banSeconds      How long a ban lasts.
+     * @param capacity        Number of tracked addresses, rounded up to a power of two.
+     */
+    public BanScores(int threshold, int halfLifeSeconds, int banSeconds, int capacity) {
+        if (threshold < 1 || halfLifeSeconds < 1 || banSeconds < 1) {
+            throw new IllegalArgumentException("Threshold, half-life and ban time must be positive");
+        }
+        int sets = Integer.highestOneBit(Math.max(1, (capacity + WAYS - 1) / WAYS - 1) << 1);
+        this.setMask = sets - 1;
+        this.keys = new AtomicLongArray(sets * WAYS);
+        this.states = new AtomicLongArray(sets * WAYS);
+        this.bannedUntil = new AtomicLongArray(sets * WAYS);
+        for (int i = 0; i < sets * WAYS; i++) {
+            keys.set(i, EMPTY);
+        }
+        this.threshold = (long) threshold * SCALE;
+        this.decayPerTick = Math.log(2) / (TimeUnit.SECONDS.toNanos(halfLifeSeconds) / (double) TICK_NANOS);
+        this.banNanos = TimeUnit.SECONDS.toNanos(banSeconds);
+    }
+
+    /**
+     * Adds the offence's points to the address' score.
+     *
+     * @return true if this offence got the address banned.
+     */
+    public boolean offend(SocketAddress address, Offence offence) {
+        long key = AddressKeys.of(address, 32, 64);
+        if (key == AddressKeys.NO_KEY) {
+            return false;
+        }
+        long nanos = System.nanoTime();
+        int now = tick(nanos);
+        int slot = claim(key, now);
+        if (slot < 0) {
+            return false; // Every slot of the set holds a ban, nothing to gain from tracking one more address
+        }
+        while (true) {
+            long state = states.get(slot);
+            long score = Math.min(Integer.MAX_VALUE, decayedScore(state, now) + (long) offence.getPoints() * SCALE);
+            boolean ban = score >= threshold;
+            if (states.compareAndSet(slot, state, pack(now, ban ? 0 : score))) {
+                if (ban) {
+                    bannedUntil.set(slot, (nanos + banNanos) | 1); // Never 0
+                    FirewallMetrics.increment(FirewallMetrics.Counter.AUTO_BANS);
+                }
+                return ban;
+            }
+        }
+    }
+
+    /**
+     * @return true if the address is serving a ban.
+     */
+    public boolean isBanned(SocketAddress address) {
+        long key = AddressKeys.of(address, 32, 64);
+        if (key == AddressKeys.NO_KEY) {
+            return false;
+        }
+        int slot = find(key);
+        return slot >= 0 && isBanned(slot, System.nanoTime());
+    }
+
+    private boolean isBanned(int slot, long nanos) {
+        long until = bannedUntil.get(slot);
+        return until != 0 && until - nanos > 0;
+    }
+
+    private int find(long key) {
+        int base = (AddressKeys.hash(key) & setMask) * WAYS;
+        for (int slot = base; slot < base + WAYS; slot++) {
+            if (keys.get(slot) == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The key's slot, taking the empty or lowest scoring unbanned slot of its set if it has none, or -1.
+     */
+    private int claim(long key, int now) {
+        int base = (AddressKeys.hash(key) & setMask) * WAYS;
+        long nanos = System.nanoTime();
+        for (int attempt = 0; attempt < WAYS; attempt++) {
+            int victim = -1;
+            long victimKey = EMPTY;
+            long victimScore = Long.MAX_VALUE;
+            for (int slot = base; slot < base + WAYS; slot++) {
+                long slotKey = keys.get(slot);
+                if (slotKey == key) {
+                    return slot;
+                }
+                if (victimScore == Long.MIN_VALUE || isBanned(slot, nanos)) {
+                    continue; // Already have an empty slot, or this one must not be evicted
+                }
+                long score = slotKey == EMPTY ? Long.MIN_VALUE : decayedScore(states.get(slot), now);
+                if (score < victimScore) {
+                    victim = slot;
+                    victimKey = slotKey;
+                    victimScore = score;
+                }
+            }
+            if (victim < 0) {
+                return -1;
+            }
+            if (keys.compareAndSet(victim, victimKey, key)) {
+                states.set(victim, pack(now, 0));
+                bannedUntil.set(victim, 0);
+                return victim;
+            }
+            // Someone else took the slot first, look again
+        }
+        return -1;
+    }
+
+    private long decayedScore(long state, int now) {
+        long score = state & 0xFFFF_FFFFL;
+        if (score == 0) {
+            return 0;
+        }
+        long elapsed = (now - (int) (state >>> 32)) & 0xFFFF_FFFFL;
+        return (long) (score * Math.exp(-decayPerTick * elapsed));
+    }
+
+    private static long pack(int tick, long score) {
+        return ((long) tick << 32) | score;
+    }
+
+    private static int tick(long nanos) {
+        return (int) ((nanos - EPOCH) / TICK_NANOS);
+    }
+}
@@ -0,0 +1,102 @@
+package by.illusion21.fireforged.firewall.limit;
+
+import by.illusion21.fireforged.metrics.FirewallMetrics;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+
+import java.net.SocketAddress;
+
+/// Caps how many connections one address and one subnet may hold open at the same time.
+/// A connection takes its slots when the firewall accepts it and gives them back when its channel closes.
+/// Addresses are counted per IPv4 /32 and IPv6 /64 (one host), subnets at the configured prefixes.
+public final class ConnectionCaps {
+    private final int perAddress;
+    private final int perSubnet;
+    private final int subnetIpv4Prefix;
+    private final int subnetIpv6Prefix;
+    private final LiveCountTable addressCounts;
+    private final LiveCountTable subnetCounts;
+
+    /**
+     * @param perAddress       Most open connections per address, 0 for no cap.
+     * @param perSubnet        Most open connections per subnet, 0 for no cap.
+     * @param subnetIpv4Prefix IPv4 subnet prefix length, 0..32.
+     * @param subnetIpv6Prefix IPv6 subnet prefix length, 0..64.
+     * @param capacity         Number of distinct addresses (and subnets) that can be tracked at once.
+     */
+    public ConnectionCaps(int perAddress, int perSubnet, int subnetIpv4Prefix, int subnetIpv6Prefix, int capacity) {
+        this.perAddress = perAddress;
+        this.perSubnet = perSubnet;
+        this.subnetIpv4Prefix = subnetIpv4Prefix;
+        this.subnetIpv6Prefix = subnetIpv6Prefix;
+        this.addressCounts = perAddress > 0 ? new LiveCountTable(capacity) : null;
+        this.subnetCounts = perSubnet > 0 ? new LiveCountTable(capacity) : null;
+    }
+
+    /**
+     * Takes a slot for the channel if the source is below its caps. Must be called at most once per channel.
+     *
+     * @return true if admitted; the slot is released automatically when the channel closes.
+     */
+    public boolean tryAdmit(Channel channel, SocketAddress address) {
+        long addressKey = AddressKeys.NO_KEY;
+        if (addressCounts != null && (addressKey = AddressKeys.of(address, 32, 64)) != AddressKeys.NO_KEY) {
+            int count = addressCounts.incrementBelow(addressKey, perAddress);
+            if (count == 0) {
+                return false;
+            }
+            addressKey = tracked(count, addressKey);
+        }
+
+        long subnetKey = AddressKeys.NO_KEY;
+        if (subnetCounts != null && (subnetKey = AddressKeys.of(address, subnetIpv4Prefix, subnetIpv6Prefix)) != AddressKeys.NO_KEY) {
+            int count = subnetCounts.incrementBelow(subnetKey, perSubnet);
+            if (count == 0) {
+                if (addressKey != AddressKeys.NO_KEY) {
+                    addressCounts.decrement(addressKey); // Give back the address slot taken above
+                }
+                return false;
+            }
+            subnetKey = tracked(count, subnetKey);
+        }
+
+        if (addressKey != AddressKeys.NO_KEY || subnetKey != AddressKeys.NO_KEY) {
+            channel.closeFuture().addListener(new Slot(addressKey, subnetKey));
+        }
+        return true;
+    }
+
+    /**
+     * A full table admits the connection without tracking it: failing open beats refusing everyone during a flood.
+     *
+     * @return The key to release on close, or NO_KEY if nothing was taken.
+     */
+    private static long tracked(int count, long key) {
+        if (count == LiveCountTable.FULL) {
+            FirewallMetrics.increment(FirewallMetrics.Counter.CONNECTION_CAP_TABLE_FULL);
+            return AddressKeys.NO_KEY;
+        }
+        return key;
+    }
+
+    private final class Slot implements ChannelFutureListener {
+        private final long addressKey;
+        private final long subnetKey;
+
+        private Slot(long addressKey, long subnetKey) {
+            this.addressKey = addressKey;
+            this.subnetKey = subnetKey;
+        }
+
+        @Override
+        public void operationComplete(ChannelFuture future) {
+            if (addressKey != AddressKeys.NO_KEY) {
+                addressCounts.decrement(addressKey);
+            }
+            if (subnetKey != AddressKeys.NO_KEY) {
+                subnetCounts.decrement(subnetKey);
+            }
+        }
+    }
+}
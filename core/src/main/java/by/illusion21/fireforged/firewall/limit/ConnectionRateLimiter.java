@@ -0,0 +1,99 @@
+package by.illusion21.fireforged.firewall.limit;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/// Per-source connection rate limit, a token bucket per [AddressKeys] key.
+///
+/// Each bucket is kept as a single long, its theoretical arrival time (GCRA): a connection is allowed
+/// if, after adding one emission interval, the bucket is no more than `burst` intervals ahead of now.
+/// A bucket whose arrival time is in the past is full, which is the same as having no entry at all,
+/// so idle sources never need an explicit eviction pass.
+///
+/// Buckets live in a fixed size set-associative table: a key may only sit in one of [#WAYS] slots of
+/// its set, and a new key takes the empty or longest idle slot. Memory is 16 bytes per slot whatever the
+/// number of distinct sources; a flood from more sources than slots only costs them fresh buckets.
+/// Sets are guarded by striped locks, held for a few array reads, and a check allocates nothing.
+public final class ConnectionRateLimiter {
+    static final int WAYS = 8;
+    private static final int STRIPES = 64;
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final long[] keys;
+    private final long[] arrivalTimes;
+    private final Object[] locks = new Object[STRIPES];
+    private final int setMask;
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final int ipv4Prefix;
+    private final int ipv6Prefix;
+
+    /**
+     * @param perSecond  Sustained connections per second allowed from one source.
+     * @param burst      Connections a source may open at once before the rate applies.
+     * @param ipv4Prefix Prefix length IPv4 sources are aggregated at.
+     * @param ipv6Prefix Prefix length IPv6 sources are aggregated at, at most 64.
+     * @param capacity   Number of tracked sources, rounded up to a power of two.
+     */
+    public ConnectionRateLimiter(double perSecond, int burst, int ipv4Prefix, int ipv6Prefix, int capacity) {
+        if (perSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate must be positive and burst at least 1");
+        }
+        int sets = Integer.highestOneBit(Math.max(STRIPES, (capacity + WAYS - 1) / WAYS - 1) << 1);
+        this.setMask = sets - 1;
+        this.keys = new long[sets * WAYS];
+        this.arrivalTimes = new long[sets * WAYS];
+        Arrays.fill(this.arrivalTimes, EMPTY);
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond));
+        this.toleranceNanos = intervalNanos * burst;
+        this.ipv4Prefix = ipv4Prefix;
+        this.ipv6Prefix = ipv6Prefix;
+    }
+
+    public int getIpv4Prefix() {
+        return ipv4Prefix;
+    }
+
+    public int getIpv6Prefix() {
+        return ipv6Prefix;
+    }
+
+    /**
+     * Takes a token for one new connection from the source.
+     *
+     * @param key The source key, from {@link AddressKeys#of} with this limiter's prefixes.
+     * @return true if the connection is within the limit.
+     */
+    public boolean tryAcquire(long key) {
+        long now = System.nanoTime();
+        int set = AddressKeys.hash(key) & setMask;
+        int base = set * WAYS;
+        synchronized (locks[set & (STRIPES - 1)]) {
+            int victim = base;
+            long victimTime = Long.MAX_VALUE;
+            for (int slot = base; slot < base + WAYS; slot++) {
+                long arrival = arrivalTimes[slot];
+                if (arrival != EMPTY && keys[slot] == key) {
+                    long next = Math.max(arrival, now) + intervalNanos;
+                    if (next - now > toleranceNanos) {
+                        return false;
+                    }
+                    arrivalTimes[slot] = next;
+                    return true;
+                }
+                // Empty slots first, then whichever source has been quiet the longest
+                long age = arrival == EMPTY ? Long.MIN_VALUE : arrival - now;
+                if (age < victimTime) {
+                    victimTime = age;
+                    victim = slot;
+                }
+            }
+            keys[victim] = key;
+            arrivalTimes[victim] = now + intervalNanos;
+            return true;
+        }
+    }
+}
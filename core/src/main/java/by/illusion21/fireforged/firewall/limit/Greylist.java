@@ -0,0 +1,99 @@
+package by.illusion21.fireforged.firewall.limit;
+
+import by.illusion21.fireforged.firewall.utils.RuleManager;
+import by.illusion21.fireforged.metrics.FirewallMetrics;
+
+import java.net.SocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/// Greylisting for logins: the first login of an address that is not a known player is turned away,
+/// unless the address pinged the server list shortly before (a vanilla client does whenever the multiplayer
+/// screen opens) or it comes back within the retry window, like a player pressing reconnect.
+/// Join bots mostly go straight for login and move on to the next target once refused.
+///
+/// Both kinds of evidence sit in [TimeBucketedSet]s and are recorded whatever the mode, so greylisting
+/// switched on in the middle of an attack already knows who pinged before. The mode can change at runtime.
+/// The tables are sized once, a flood that fills them must not lock players out: a login whose retry
+/// cannot be remembered is let in rather than turned away for good.
+public final class Greylist {
+
+    public enum Mode {
+        OFF,
+        ALWAYS,
+        ATTACK_MODE // Only while the rule manager is in attack mode
+    }
+
+    private static volatile Mode mode = Mode.OFF;
+    private static volatile RuleManager ruleManager = null;
+    private static volatile TimeBucketedSet pinged = null;
+    private static volatile TimeBucketedSet attempted = null;
+
+    private Greylist() {
+    }
+
+    /**
+     * Sets the mode and windows, safe to call again on every server start.
+     *
+     * @param mode         When logins are greylisted.
+     * @param pingSeconds  How long a server list ping vouches for its address.
+     * @param retrySeconds How long after a turned away login a retry is let through.
+     * @param capacity     Addresses each table remembers per time slice, a slice being a seventh of its window.
+     * @param ruleManager  The rule manager whose attack mode {@link Mode#ATTACK_MODE} follows.
+     */
+    public static void configure(Mode mode, int pingSeconds, int retrySeconds, int capacity, RuleManager ruleManager) {
+        Greylist.pinged = new TimeBucketedSet(TimeUnit.SECONDS.toMillis(pingSeconds), capacity);
+        Greylist.attempted = new TimeBucketedSet(TimeUnit.SECONDS.toMillis(retrySeconds), capacity);
+        Greylist.ruleManager = ruleManager;
+        Greylist.mode = mode;
+    }
+
+    public static void setMode(Mode mode) {
+        Greylist.mode = mode;
+    }
+
+    public static Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return true if logins are greylisted right now.
+     */
+    public static boolean isActive() {
+        Mode current = mode;
+        RuleManager rules = ruleManager;
+        return current == Mode.ALWAYS || (current == Mode.ATTACK_MODE && rules != null && rules.isAttackMode());
+    }
+
+    /**
+     * Remembers an address that completed a server list ping.
+     */
+    public static void recordPing(SocketAddress address) {
+        TimeBucketedSet table = pinged;
+        long key = AddressKeys.of(address, 32, 64);
+        if (table != null && key != AddressKeys.NO_KEY && !table.add(key)) {
+            FirewallMetrics.increment(FirewallMetrics.Counter.GREYLIST_TABLE_FULL);
+        }
+    }
+
+    /**
+     * @return false if the login must be turned away, the address is then remembered so a retry gets in.
+     *         A login whose address cannot be remembered is admitted, it could never retry its way in.
+     */
+    public static boolean admitLogin(SocketAddress address) {
+        TimeBucketedSet pingTable = pinged;
+        TimeBucketedSet retryTable = attempted;
+        if (pingTable == null || !isActive()) {
+            return true;
+        }
+        long key = AddressKeys.of(address, 32, 64);
+        if (key == AddressKeys.NO_KEY || KnownAddresses.isKnownPlayer(key) || pingTable.contains(key) || retryTable.contains(key)) {
+            return true;
+        }
+        if (!retryTable.add(key)) {
+            FirewallMetrics.increment(FirewallMetrics.Counter.GREYLIST_TABLE_FULL);
+            return true;
+        }
+        FirewallMetrics.increment(FirewallMetrics.Counter.GREYLISTED);
+        return false;
+    }
+}
@@ -0,0 +1,219 @@
+package by.illusion21.fireforged.firewall.limit;
+
+import by.illusion21.fireforged.firewall.utils.FirewallTimer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/// Addresses (per IPv4 address and IPv6 /64) very likely to be players, in two tiers:
+/// - admitted by the firewall within the last minutes, only recorded when something consults them
+/// - logged in within the last days, kept across restarts in a small binary file
+///
+/// Whoever got in before trouble started is very likely a player, so load shedding lets both tiers through
+/// while turning strangers away. Attack mode only trusts the login tier: a flood is admitted for a few seconds
+/// before attack mode starts, and would otherwise vouch for itself.
+///
+/// The file is a header (magic, version, entry count) followed by one big-endian (key, last login millis)
+/// pair per address, read and written in one go: a full table is 1 MB and loads in milliseconds.
+public final class KnownAddresses {
+    private static final int CAPACITY = 65536;
+    private static final int PLAYER_CAPACITY = 65536;
+    private static final int FILE_MAGIC = 0x46464B41; // "FFKA"
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_BYTES = 12;
+    private static final int ENTRY_BYTES = 16;
+    private static final long SAVE_MINUTES = 10; // Besides on server stop, so a crash loses little
+
+    private static final RecentAddresses ADDRESSES = new RecentAddresses(CAPACITY);
+    private static final RecentAddresses PLAYERS = new RecentAddresses(PLAYER_CAPACITY);
+    // The timer only schedules saves: its one thread also runs every deadline and sampler, a slow disk must not hold them up
+    private static final ExecutorService SAVER = Executors.newSingleThreadExecutor(new DefaultThreadFactory("fireforged-known-players", true));
+    private static volatile boolean recording = false;
+    private static volatile long maxAgeMillis = TimeUnit.HOURS.toMillis(1);
+    private static volatile long playerMaxAgeMillis = 0; // 0 = logins are not tracked
+    private static Path playersFile = null; // Guarded by the class lock, as are the two below
+    private static Logger logger;
+    private static boolean saving = false;
+
+    private KnownAddresses() {
+    }
+
+    /**
+     * @param recording Whether admitted addresses are recorded at all.
+     * @param minutes   How long an address stays known after it was last admitted.
+     */
+    public static void configure(boolean recording, int minutes) {
+        KnownAddresses.recording = recording;
+        KnownAddresses.maxAgeMillis = TimeUnit.MINUTES.toMillis(minutes);
+    }
+
+    /**
+     * Turns on the login tier, loads it from the file the first time and saves it there periodically.
+     *
+     * @param days   How long an address stays known after its last login, 0 turns the tier off.
+     * @param file   Where the tier is kept across restarts.
+     * @param logger Logger for loading and saving.
+     */
+    public static synchronized void configurePlayers(int days, Path file, Logger logger) {
+        KnownAddresses.logger = logger;
+        KnownAddresses.playerMaxAgeMillis = TimeUnit.DAYS.toMillis(days);
+        if (days == 0) {
+            playersFile = null;
+            return;
+        }
+        if (!file.equals(playersFile)) {
+            playersFile = file;
+            loadPlayers(file);
+        }
+        if (!saving) {
+            saving = true;
+            schedulePeriodicSave();
+        }
+    }
+
+    /**
+     * Remembers an admitted address.
+     */
+    public static void record(SocketAddress address) {
+        if (!recording) {
+            return;
+        }
+        long key = AddressKeys.of(address, 32, 64);
+        if (key != AddressKeys.NO_KEY) {
+            ADDRESSES.record(key);
+        }
+    }
+
+    /**
+     * Remembers the address of a player that completed login.
+     */
+    public static void recordLogin(SocketAddress address) {
+        if (playerMaxAgeMillis == 0) {
+            return;
+        }
+        long key = AddressKeys.of(address, 32, 64);
+        if (key != AddressKeys.NO_KEY) {
+            PLAYERS.record(key);
+        }
+    }
+
+    /**
+     * @return true if the address was admitted within the configured minutes, or logged in within the configured days.
+     */
+    public static boolean contains(SocketAddress address) {
+        long key = AddressKeys.of(address, 32, 64);
+        if (key == AddressKeys.NO_KEY) {
+            return false;
+        }
+        return (recording && ADDRESSES.contains(key, maxAgeMillis)) || isKnownPlayer(key);
+    }
+
+    /**
+     * @return true if the address logged in within the configured days.
+     */
+    public static boolean isKnownPlayer(SocketAddress address) {
+        long key = AddressKeys.of(address, 32, 64);
+        return key != AddressKeys.NO_KEY && isKnownPlayer(key);
+    }
+
+    /**
+     * @return true if the key logged in within the configured days, however recently it was admitted.
+     */
+    static boolean isKnownPlayer(long key) {
+        long playerMaxAge = playerMaxAgeMillis;
+        return playerMaxAge > 0 && PLAYERS.contains(key, playerMaxAge);
+    }
+
+    /**
+     * Writes the login tier to its file, if it is on. Expired entries are left out.
+     */
+    public static synchronized void savePlayers() {
+        Path file = playersFile;
+        if (file == null) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + PLAYER_CAPACITY * ENTRY_BYTES);
+        buffer.position(HEADER_BYTES);
+        PLAYERS.forEach(playerMaxAgeMillis, (key, seenAtMillis) -> {
+            if (buffer.remaining() >= ENTRY_BYTES) { // The table never holds more than its capacity, this is only a guard
+                buffer.putLong(key).putLong(seenAtMillis);
+            }
+        });
+        int count = (buffer.position() - HEADER_BYTES) / ENTRY_BYTES;
+        buffer.putInt(0, FILE_MAGIC).putInt(4, FILE_VERSION).putInt(8, count);
+        buffer.flip();
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.debug("Saved {} known player addresses to {}", count, file);
+        } catch (IOException e) {
+            logger.error("Failed to save known player addresses to {}", file, e);
+        }
+    }
+
+    private static void schedulePeriodicSave() {
+        FirewallTimer.schedule(timeout -> SAVER.execute(KnownAddresses::periodicSave), SAVE_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Runs on the saver thread, reschedules itself while the login tier is on.
+     */
+    private static void periodicSave() {
+        savePlayers();
+        synchronized (KnownAddresses.class) {
+            if (playersFile == null) {
+                saving = false;
+                return;
+            }
+        }
+        schedulePeriodicSave();
+    }
+
+    private static void loadPlayers(Path file) {
+        if (!Files.exists(file)) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (buffer.getInt() != FILE_MAGIC || buffer.getInt() != FILE_VERSION) {
+                logger.warn("{} is not a known player address file of this version, starting empty", file);
+                return;
+            }
+            int count = buffer.getInt();
+            long oldest = System.currentTimeMillis() - playerMaxAgeMillis;
+            int loaded = 0;
+            for (int i = 0; i < count; i++) {
+                long key = buffer.getLong();
+                long seenAtMillis = buffer.getLong();
+                if (seenAtMillis >= oldest) {
+                    PLAYERS.record(key, seenAtMillis);
+                    loaded++;
+                }
+            }
+            logger.info("Loaded {} known player addresses from {} in {}ms", loaded, file,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException | BufferUnderflowException e) {
+            logger.error("Failed to load known player addresses from {}, starting empty", file, e);
+        }
+    }
+}
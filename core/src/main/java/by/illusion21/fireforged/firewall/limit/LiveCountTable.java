@@ -0,0 +1,106 @@
+package by.illusion21.fireforged.firewall.limit;
+
+/// Exact live counts per key, for things that must not be forgotten while they exist (open connections).
+/// Split into lock-striped segments, each a linear probing table of primitive keys and counts;
+/// an entry is removed with backward shifting as soon as its count drops to zero, so the table only ever
+/// holds sources with a connection open right now. Segments are fixed size: when one is full the key
+/// is not tracked and the caller is told so, rather than growing without bound under a flood.
+final class LiveCountTable {
+    static final int FULL = -1;
+
+    private static final int SEGMENTS = 64;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    LiveCountTable(int capacity) {
+        int perSegment = Integer.highestOneBit(Math.max(16, capacity / SEGMENTS * 4 / 3 - 1) << 1);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    /**
+     * Increments the key's count unless it already reached the limit.
+     *
+     * @return The new count, 0 if the limit was reached (nothing changed), or {@link #FULL} if the key could not be tracked.
+     */
+    int incrementBelow(long key, int limit) {
+        int hash = AddressKeys.hash(key);
+        return segments[hash & (SEGMENTS - 1)].incrementBelow(key, hash >>> 6, limit);
+    }
+
+    void decrement(long key) {
+        int hash = AddressKeys.hash(key);
+        segments[hash & (SEGMENTS - 1)].decrement(key, hash >>> 6);
+    }
+
+    private static final class Segment {
+        private final long[] keys;
+        private final int[] counts; // 0 marks an empty slot
+        private final int mask;
+        private final int maxSize;
+        private int size;
+
+        Segment(int capacity) {
+            this.keys = new long[capacity];
+            this.counts = new int[capacity];
+            this.mask = capacity - 1;
+            this.maxSize = capacity * 3 / 4;
+        }
+
+        synchronized int incrementBelow(long key, int hash, int limit) {
+            int slot = hash & mask;
+            while (counts[slot] != 0) {
+                if (keys[slot] == key) {
+                    if (counts[slot] >= limit) {
+                        return 0;
+                    }
+                    return ++counts[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (size >= maxSize) {
+                return FULL;
+            }
+            size++;
+            keys[slot] = key;
+            counts[slot] = 1;
+            return 1;
+        }
+
+        synchronized void decrement(long key, int hash) {
+            int slot = hash & mask;
+            while (counts[slot] != 0) {
+                if (keys[slot] == key) {
+                    if (--counts[slot] == 0) {
+                        size--;
+                        shiftBack(slot);
+                    }
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        /**
+         * Refills the hole at {@code gap} with later entries of the same probe chain, so lookups never stop early.
+         */
+        private void shiftBack(int gap) {
+            int slot = gap;
+            while (true) {
+                slot = (slot + 1) & mask;
+                if (counts[slot] == 0) {
+                    return;
+                }
+                int home = (AddressKeys.hash(keys[slot]) >>> 6) & mask;
+                // Move the entry only if its home is not between the gap and its current slot (cyclically)
+                if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                    keys[gap] = keys[slot];
+                    counts[gap] = counts[slot];
+                    counts[slot] = 0;
+                    gap = slot;
+                }
+            }
+        }
+    }
+}
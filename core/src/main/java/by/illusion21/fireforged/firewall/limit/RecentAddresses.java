@@ -0,0 +1,103 @@
+package by.illusion21.fireforged.firewall.limit;
+
+import java.util.Arrays;
+
+/// Addresses seen recently, a lossy time-stamped set of [AddressKeys] keys.
+///
+/// Laid out like [ConnectionRateLimiter]: a key may only sit in one of [#WAYS] slots of its set and a new
+/// key takes the empty or stalest one, so memory stays at 16 bytes per slot however many sources show up.
+/// A flood of new addresses can push old ones out, it can never make the set grow.
+public final class RecentAddresses {
+    static final int WAYS = 4;
+    private static final int STRIPES = 64;
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final long[] keys;
+    private final long[] seenAt; // Wall clock millis
+    private final Object[] locks = new Object[STRIPES];
+    private final int setMask;
+
+    /**
+     * @param capacity Number of addresses kept, rounded up to a power of two.
+     */
+    public RecentAddresses(int capacity) {
+        int sets = Integer.highestOneBit(Math.max(STRIPES, (capacity + WAYS - 1) / WAYS - 1) << 1);
+        this.setMask = sets - 1;
+        this.keys = new long[sets * WAYS];
+        this.seenAt = new long[sets * WAYS];
+        Arrays.fill(this.seenAt, EMPTY);
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Marks the key as seen now.
+     */
+    public void record(long key) {
+        record(key, System.currentTimeMillis());
+    }
+
+    /**
+     * Marks the key as seen at the given time, unless it was already seen later.
+     */
+    public void record(long key, long seenAtMillis) {
+        int hash = AddressKeys.hash(key);
+        int set = hash & setMask;
+        int base = set * WAYS;
+        synchronized (locks[set & (STRIPES - 1)]) {
+            // Many keys land within the same millisecond in a flood, ties go to a slot of the key's own choosing
+            int victim = base + (hash >>> 30);
+            for (int slot = base; slot < base + WAYS; slot++) {
+                if (seenAt[slot] != EMPTY && keys[slot] == key) {
+                    seenAt[slot] = Math.max(seenAt[slot], seenAtMillis);
+                    return;
+                }
+                if (seenAt[slot] < seenAt[victim]) { // EMPTY is the smallest long, so empty slots go first
+                    victim = slot;
+                }
+            }
+            keys[victim] = key;
+            seenAt[victim] = seenAtMillis;
+        }
+    }
+
+    /**
+     * @return true if the key was recorded within the last maxAgeMillis.
+     */
+    public boolean contains(long key, long maxAgeMillis) {
+        long oldest = System.currentTimeMillis() - maxAgeMillis;
+        int set = AddressKeys.hash(key) & setMask;
+        int base = set * WAYS;
+        synchronized (locks[set & (STRIPES - 1)]) {
+            for (int slot = base; slot < base + WAYS; slot++) {
+                if (seenAt[slot] != EMPTY && keys[slot] == key) {
+                    return seenAt[slot] >= oldest;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Visits every key recorded within the last maxAgeMillis, one lock stripe at a time.
+     */
+    public void forEach(long maxAgeMillis, Visitor visitor) {
+        long oldest = System.currentTimeMillis() - maxAgeMillis;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            synchronized (locks[stripe]) {
+                for (int set = stripe; set <= setMask; set += STRIPES) {
+                    for (int slot = set * WAYS; slot < (set + 1) * WAYS; slot++) {
+                        if (seenAt[slot] != EMPTY && seenAt[slot] >= oldest) {
+                            visitor.visit(keys[slot], seenAt[slot]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public interface Visitor {
+        void visit(long key, long seenAtMillis);
+    }
+}
@@ -0,0 +1,87 @@
+package by.illusion21.fireforged.firewall.limit;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/// A set of [AddressKeys] keys that forgets them after a while, without keeping a timestamp per key.
+///
+/// Keys go into the bucket of the current time slice. Each of the [#BUCKETS] buckets is a small open addressing
+/// set that gets wiped when its slice comes round again, so a key stays for between `window` and
+/// `window + window / (BUCKETS - 1)` and expiry costs nothing until a bucket is reused.
+/// Memory is fixed at construction: once a bucket is full, further keys of that slice are refused and [#add] says so,
+/// the caller decides what an unrecorded key means.
+final class TimeBucketedSet {
+    static final int BUCKETS = 8;
+    private static final long EMPTY = AddressKeys.NO_KEY; // Never the key of a real address
+
+    private final long sliceNanos;
+    private final long[][] buckets;
+    private final long[] slices; // The slice each bucket currently holds
+    private final int[] sizes;
+    private final int mask;
+    private final int maxSize;
+
+    /**
+     * @param windowMillis How long a key is kept at least.
+     * @param capacity     Keys each time slice can hold.
+     */
+    TimeBucketedSet(long windowMillis, int capacity) {
+        this.sliceNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(windowMillis) / (BUCKETS - 1));
+        int size = Integer.highestOneBit(Math.max(1, capacity) * 2 - 1) << 1; // At most half full, so probing stays short
+        this.mask = size - 1;
+        this.maxSize = size / 2;
+        this.buckets = new long[BUCKETS][size];
+        this.slices = new long[BUCKETS];
+        this.sizes = new int[BUCKETS];
+        for (long[] bucket : buckets) {
+            Arrays.fill(bucket, EMPTY);
+        }
+        Arrays.fill(slices, Long.MIN_VALUE);
+    }
+
+    /**
+     * @return false if the key could not be recorded, the current slice's bucket being full.
+     */
+    synchronized boolean add(long key) {
+        long slice = Math.floorDiv(System.nanoTime(), sliceNanos);
+        int bucket = (int) Math.floorMod(slice, (long) BUCKETS);
+        long[] keys = buckets[bucket];
+        if (slices[bucket] != slice) {
+            Arrays.fill(keys, EMPTY);
+            sizes[bucket] = 0;
+            slices[bucket] = slice;
+        }
+        int slot = slot(keys, key);
+        if (keys[slot] == key) {
+            return true;
+        }
+        if (sizes[bucket] >= maxSize) {
+            return false;
+        }
+        keys[slot] = key;
+        sizes[bucket]++;
+        return true;
+    }
+
+    synchronized boolean contains(long key) {
+        long slice = Math.floorDiv(System.nanoTime(), sliceNanos);
+        for (int age = 0; age < BUCKETS; age++) {
+            int bucket = (int) Math.floorMod(slice - age, (long) BUCKETS);
+            if (slices[bucket] == slice - age && buckets[bucket][slot(buckets[bucket], key)] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The key's slot, or the empty slot it would go in.
+     */
+    private int slot(long[] keys, long key) {
+        int slot = AddressKeys.hash(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,66 @@
+package by.illusion21.fireforged.firewall.utils;
+
+import by.illusion21.fireforged.config.entity.CidrBlock;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Objects;
+
+public class CidrMatcher {
+
+    private final CidrBlock[] blocks;
+
+    /**
+     * Compiles a comma separated CIDR list, e.g. "127.0.0.1, 10.0.0.0/8, ::1".
+     * Empty segments and segments starting with '#' are ignored, the same way RuleManager treats them.
+     *
+     * @param cidrList The list to compile.
+     * @throws IllegalArgumentException if any segment is not a valid CIDR.
+     */
+    public CidrMatcher(String cidrList) {
+        Objects.requireNonNull(cidrList, "CIDR list cannot be null");
+        this.blocks = Arrays.stream(cidrList.split(","))
+                .map(String::trim)
+                .filter(segment -> !segment.isEmpty() && !segment.startsWith("#"))
+                .map(CidrBlock::parse)
+                .toArray(CidrBlock[]::new);
+    }
+
+    /**
+     * @return true if nothing was configured.
+     */
+    public boolean isEmpty() {
+        return blocks.length == 0;
+    }
+
+    public int size() {
+        return blocks.length;
+    }
+
+    /**
+     * @param address Raw address bytes, 4 for IPv4 or 16 for IPv6.
+     * @return true if any block contains the address.
+     */
+    public boolean matches(byte[] address) {
+        for (CidrBlock block : blocks) {
+            if (block.matches(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param socketAddress The address to check. Anything that is not a resolved InetSocketAddress never matches.
+     * @return true if any block contains the address.
+     */
+    public boolean matches(SocketAddress socketAddress) {
+        if (!(socketAddress instanceof InetSocketAddress inetSocketAddress)) {
+            return false;
+        }
+        InetAddress inetAddress = inetSocketAddress.getAddress();
+        return inetAddress != null && matches(inetAddress.getAddress());
+    }
+}
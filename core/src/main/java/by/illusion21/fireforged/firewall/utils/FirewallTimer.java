@@ -0,0 +1,27 @@
+package by.illusion21.fireforged.firewall.utils;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/// One timing wheel shared by every channel for coarse per-connection deadlines.
+/// Scheduling and cancelling are O(1) and cost no event loop task, which matters when
+/// thousands of half-open connections each carry a deadline.
+/// Tasks run on the timer thread, hop to the channel's event loop before touching it.
+public final class FirewallTimer {
+    private static final long TICK_MILLIS = 100; // Deadlines are in seconds, 100ms precision is plenty
+    private static final int TICKS_PER_WHEEL = 512;
+
+    private static final HashedWheelTimer TIMER = new HashedWheelTimer(
+            new DefaultThreadFactory("fireforged-timer", true), TICK_MILLIS, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+
+    private FirewallTimer() {
+    }
+
+    public static Timeout schedule(TimerTask task, long delay, TimeUnit unit) {
+        return TIMER.newTimeout(task, delay, unit);
+    }
+}
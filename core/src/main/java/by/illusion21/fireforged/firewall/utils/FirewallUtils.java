@@ -15,11 +15,12 @@ public class FirewallUtils {
      * Closes the connection based on the specified firewall action.
      * REJECT sets SO_LINGER to 0 before closing for an RST packet.
      * DROP closes immediately.
-     * ACCEPT is not a valid action here and throws an exception.
+     * TARPIT holds the connection open, idle, until the tarpit deadline closes it.
+     * ACCEPT and the other admitting actions are not valid here and throw an exception.
      *
      * @param ctx    The channel handler context.
      * @param action The firewall action determining how to close.
-     * @throws UnsupportedOperationException if action is ACCEPT.
+     * @throws UnsupportedOperationException if action admits the connection.
      */
     public static void closeConnection(ChannelHandlerContext ctx, Action action) {
         if (ctx.channel().isActive()) {
@@ -29,8 +30,9 @@ public class FirewallUtils {
                     ctx.channel().close();
                 }
                 case DROP -> ctx.channel().close();
-                case ACCEPT -> // wtf, ACCEPT action should have not invoked closeConnection
-                        throw new UnsupportedOperationException("ACCEPT action cannot be used to close a connection.");
+                case TARPIT -> Tarpit.trap(ctx.channel());
+                case ACCEPT, ALLOW_STATUS_ONLY, DENY_STATUS -> // wtf, ACCEPT action should have not invoked closeConnection
+                        throw new UnsupportedOperationException(action + " action cannot be used to close a connection.");
             }
         }
     }
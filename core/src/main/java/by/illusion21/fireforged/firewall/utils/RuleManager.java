@@ -4,11 +4,11 @@ package by.illusion21.fireforged.firewall.utils;
 import by.illusion21.fireforged.config.entity.Action;
 import by.illusion21.fireforged.config.entity.FirewallRules;
 import by.illusion21.fireforged.config.entity.Rule;
+import by.illusion21.fireforged.firewall.limit.KnownAddresses;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Arrays;
-import java.util.List;
 import java.util.Objects;
 import java.net.SocketAddress;
 import java.net.InetSocketAddress;
@@ -16,6 +16,11 @@ import java.net.InetSocketAddress;
 public class RuleManager {
 
     private final FirewallRules firewallRules;
+    private final FirewallRules attackRules; // null = no attack mode policy
+    private final Policy normalPolicy;
+    private final Policy attackPolicy;
+    // The one field read per lookup; switching to attack mode is a single write of it
+    private volatile Policy activePolicy;
 
     /**
      * Constructs a RuleManager and initializes firewall rules from a configuration string.
@@ -27,7 +32,28 @@ public class RuleManager {
      * @throws IllegalArgumentException if the config string is malformed or contains invalid rule data.
      */
     public RuleManager(String rulesConfig) {
-        this.firewallRules = new FirewallRules();
+        this(rulesConfig, null, false);
+    }
+
+    /**
+     * Constructs a RuleManager with a second, stricter policy that {@link #setAttackMode(boolean)} switches to.
+     * Both are compiled up front, so switching never parses or sorts anything.
+     *
+     * @param rulesConfig       The normal rules, as for {@link #RuleManager(String)}.
+     * @param attackRulesConfig The attack mode rules in the same syntax, null or blank for no attack mode.
+     * @param acceptKnown       Whether known player addresses are accepted in attack mode before any rule, see {@link KnownAddresses#isKnownPlayer(SocketAddress)}.
+     * @throws IllegalArgumentException if either config string is malformed or contains invalid rule data.
+     */
+    public RuleManager(String rulesConfig, String attackRulesConfig, boolean acceptKnown) {
+        this.firewallRules = parseRules(rulesConfig);
+        this.attackRules = attackRulesConfig == null || attackRulesConfig.isBlank() ? null : parseRules(attackRulesConfig);
+        this.normalPolicy = new Policy(firewallRules, false);
+        this.attackPolicy = attackRules == null ? null : new Policy(attackRules, acceptKnown);
+        this.activePolicy = normalPolicy;
+    }
+
+    private static FirewallRules parseRules(String rulesConfig) {
+        FirewallRules firewallRules = new FirewallRules();
         Objects.requireNonNull(rulesConfig, "Rules configuration string cannot be null");
 
         Arrays.stream(rulesConfig.split(","))
@@ -47,6 +73,32 @@ public class RuleManager {
                     throw new IllegalArgumentException("Invalid rule data in segment: '" + trimmedSegment + "'", e);
                 }
             });
+        return firewallRules;
+    }
+
+    /**
+     * @return true if an attack mode policy is configured.
+     */
+    public boolean hasAttackPolicy() {
+        return attackPolicy != null;
+    }
+
+    /**
+     * Switches every following lookup to the attack mode policy or back. Does nothing without one.
+     *
+     * @return true if the mode changed.
+     */
+    public boolean setAttackMode(boolean attackMode) {
+        Policy next = attackMode && attackPolicy != null ? attackPolicy : normalPolicy;
+        if (activePolicy == next) {
+            return false;
+        }
+        activePolicy = next;
+        return true;
+    }
+
+    public boolean isAttackMode() {
+        return activePolicy == attackPolicy && attackPolicy != null;
     }
 
 
@@ -62,24 +114,35 @@ public class RuleManager {
      */
     public Action getActionForIp(String ipAddress) throws UnknownHostException {
         InetAddress targetIp = InetAddress.getByName(ipAddress);
-        byte[] targetIpBytes = targetIp.getAddress();
+        return getActionForIp(targetIp.getAddress());
+    }
 
-        List<Rule> sortedRules = firewallRules.getSortedRules();
+    /**
+     * Determines the appropriate firewall action for raw address bytes.
+     *
+     * @param targetIpBytes The address, 4 bytes for IPv4 or 16 for IPv6.
+     * @return The Action (ACCEPT, REJECT, DROP) determined by the matching rule.
+     * @throws IllegalStateException if no matching rule is found.
+     */
+    public Action getActionForIp(byte[] targetIpBytes) {
+        return activePolicy.match(targetIpBytes);
+    }
 
+    private static Action match(Rule[] sortedRules, byte[] targetIpBytes) {
         for (Rule rule : sortedRules) {
-            if (matches(targetIpBytes, rule)) {
+            if (rule.getCidrBlock().matches(targetIpBytes)) {
                 return rule.getAction();
             }
         }
 
         // This should ideally not be reached if default rules (0.0.0.0/0 or ::/0) exist
-        throw new IllegalStateException("No matching firewall rule found for IP: " + ipAddress + ". Check configuration for default rules.");
+        throw new IllegalStateException("No matching firewall rule found for IP: " + Arrays.toString(targetIpBytes) + ". Check configuration for default rules.");
     }
 
 
     /**
      * Determines the appropriate firewall action for a given SocketAddress.
-     * Extracts the IP address from the SocketAddress and delegates to the String version.
+     * Extracts the raw IP address from the SocketAddress and delegates to the byte[] version.
      *
      * @param socketAddress The SocketAddress to check.
      * @return The Action (ACCEPT, REJECT, DROP) determined by the matching rule.
@@ -100,60 +163,38 @@ public class RuleManager {
             throw new UnknownHostException("Could not resolve host in SocketAddress: " + socketAddress);
         }
 
-        return getActionForIp(inetAddress.getHostAddress());
+        Policy policy = activePolicy;
+        // Only players who logged in: admitted addresses would include a flood's first seconds, before attack mode started
+        if (policy.acceptKnown && KnownAddresses.isKnownPlayer(socketAddress)) {
+            return Action.ACCEPT;
+        }
+        return policy.match(inetAddress.getAddress());
+    }
+
+    public FirewallRules getFirewallRules() {
+        return firewallRules;
     }
 
     /**
-     * Checks if a target IP address matches a rule's CIDR block.
-     * Handles both IPv4 and IPv6.
-     *
-     * @param targetIpBytes The byte array representation of the IP to check.
-     * @param rule          The rule containing the CIDR to match against.
-     * @return true if the IP matches the rule's CIDR, false otherwise.
+     * @return The attack mode rules, or null if there are none.
      */
-    private boolean matches(byte[] targetIpBytes, Rule rule) {
-        String cidr = rule.getCidr();
-        int prefixLength = rule.getPrefixLength();
-
-        String[] parts = cidr.split("/");
-        if (parts.length != 2) {
-            System.err.println("Warning: Skipping rule with malformed CIDR in matching logic: " + cidr);
-            return false;
-        }
-
-        InetAddress ruleNetworkAddress;
-        try {
-            ruleNetworkAddress = InetAddress.getByName(parts[0]);
-        } catch (UnknownHostException e) {
-            System.err.println("Warning: Skipping rule with unresolvable network address: " + parts[0]);
-            return false;
-        }
-
-        byte[] ruleNetworkBytes = ruleNetworkAddress.getAddress();
-
-        if (targetIpBytes.length != ruleNetworkBytes.length) {
-            return false;
-        }
+    public FirewallRules getAttackRules() {
+        return attackRules;
+    }
 
-        int fullBytes = prefixLength / 8;
-        int remainingBits = prefixLength % 8;
+    // A rule set sorted once into an array, matched without copying anything
+    private static final class Policy {
+        private final Rule[] rules;
+        private final boolean acceptKnown;
 
-        for (int i = 0; i < fullBytes; i++) {
-            if (targetIpBytes[i] != ruleNetworkBytes[i]) {
-                return false;
-            }
+        private Policy(FirewallRules rules, boolean acceptKnown) {
+            this.rules = rules.getSortedRules().toArray(new Rule[0]);
+            this.acceptKnown = acceptKnown;
         }
 
-        if (remainingBits > 0) {
-            int mask = (0xFF << (8 - remainingBits)) & 0xFF;
-            return (targetIpBytes[fullBytes] & mask) == (ruleNetworkBytes[fullBytes] & mask);
+        private Action match(byte[] targetIpBytes) {
+            return RuleManager.match(rules, targetIpBytes);
         }
-
-        return true;
-    }
-
-    public FirewallRules getFirewallRules() {
-        return firewallRules;
     }
 
     // --- 测试用例 ---
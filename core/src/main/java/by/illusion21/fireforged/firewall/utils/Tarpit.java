@@ -0,0 +1,96 @@
+package by.illusion21.fireforged.firewall.utils;
+
+import by.illusion21.fireforged.metrics.FirewallMetrics;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.Timeout;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/// Holds denied connections open instead of closing them, so bots wait instead of reconnecting in a tight loop.
+/// A trapped channel stops reading (the kernel window fills and the peer's sends stall), loses every handler
+/// but one shared sink, and is closed without a word once its timing wheel deadline passes.
+///
+/// Cost per trapped socket is one file descriptor, the bare Netty channel and pipeline (about 1-2 KB),
+/// one wheel entry (~100 bytes) and at most the shrunk receive buffer in the kernel. All of it goes as soon as
+/// the channel closes, whichever side closes it first.
+/// The number of trapped sockets is capped globally; past the cap connections are simply dropped.
+public final class Tarpit {
+    private static final int RECEIVE_BUFFER_BYTES = 1024; // Shrinks the window we advertise, the kernel may round it up
+
+    private static final AtomicInteger HELD = new AtomicInteger();
+    private static volatile int maxSockets = 1024;
+    private static volatile long holdMillis = TimeUnit.SECONDS.toMillis(60);
+
+    private static final ChannelHandler SINK = new Sink();
+
+    private Tarpit() {
+    }
+
+    /**
+     * @param maxSockets  Most sockets held at once, 0 turns TARPIT into DROP.
+     * @param holdSeconds How long each socket is held before it is closed.
+     */
+    public static void configure(int maxSockets, int holdSeconds) {
+        Tarpit.maxSockets = maxSockets;
+        Tarpit.holdMillis = TimeUnit.SECONDS.toMillis(holdSeconds);
+    }
+
+    /**
+     * @return The number of sockets currently held.
+     */
+    public static int held() {
+        return HELD.get();
+    }
+
+    /**
+     * Traps the channel, or closes it if the tarpit is full. Must run on the channel's event loop.
+     */
+    public static void trap(Channel channel) {
+        if (HELD.incrementAndGet() > maxSockets) {
+            HELD.decrementAndGet();
+            FirewallMetrics.increment(FirewallMetrics.Counter.TARPIT_OVERFLOWS);
+            channel.close();
+            return;
+        }
+        FirewallMetrics.increment(FirewallMetrics.Counter.TARPIT_TRAPPED);
+        Timeout deadline = FirewallTimer.schedule(timeout -> channel.close(), holdMillis, TimeUnit.MILLISECONDS);
+        channel.closeFuture().addListener((ChannelFutureListener) future -> {
+            HELD.decrementAndGet();
+            deadline.cancel(); // The wheel entry would otherwise keep the dead channel until the deadline
+        });
+
+        channel.config().setAutoRead(false);
+        channel.config().setOption(ChannelOption.SO_RCVBUF, RECEIVE_BUFFER_BYTES);
+
+        // Nothing of Minecraft or ours runs for this connection again
+        ChannelPipeline pipeline = channel.pipeline();
+        while (pipeline.first() != null) {
+            pipeline.removeFirst();
+        }
+        pipeline.addLast(SINK);
+    }
+
+    /**
+     * Swallows whatever was already read when the channel got trapped, and any error on it.
+     */
+    @ChannelHandler.Sharable
+    private static final class Sink extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ReferenceCountUtil.release(msg);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package by.illusion21.fireforged.handshake;
+
+import by.illusion21.fireforged.handshake.utils.HandshakeParseResult;
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/// Allow-lists for what a handshake may ask for, matched against the raw frame before the server decodes anything.
+/// - hosts: the address players type, `*.example.org` for any subdomain. Anything after the first NUL byte
+///   (Forge's `FML3` marker, BungeeCord forwarding) and a trailing dot are ignored, case too.
+///   Compiled into a perfect hash table: a lookup is one hash over the frame's bytes and one compare, no String.
+///   The table grows with the square of the list, which is meant for the handful of names a server goes by
+/// - versions: protocol versions or ranges logins may use. Server list pings are not filtered on version,
+///   that is how clients learn the server runs another one
+/// - intents: only status, login and transfer, whatever else a handshake asks for is garbage
+///
+/// Instances are immutable and shared by every event loop.
+public final class HandshakeFilter {
+    private static final byte EXACT = 1;
+    private static final byte WILDCARD = 2;
+    private static final int MAX_SEED_TRIES = 64; // Per table size, before the table doubles
+
+    private final byte[][] hosts; // Slot -> lower case host, null = empty
+    private final byte[] hostFlags;
+    private final int hostMask;
+    private final int hostSeed;
+    private final int[] versionLows;
+    private final int[] versionHighs;
+
+    /**
+     * @param hostsConfig    Comma separated host names, blank for any host.
+     * @param versionsConfig Comma separated protocol versions and `low-high` ranges, blank for any version.
+     * @throws IllegalArgumentException if a version or range does not parse.
+     */
+    public HandshakeFilter(String hostsConfig, String versionsConfig) {
+        Map<String, Byte> entries = new LinkedHashMap<>();
+        for (String segment : split(hostsConfig)) {
+            String host = stripTrailingDot(segment.toLowerCase(Locale.ROOT));
+            boolean wildcard = host.startsWith("*.");
+            String key = wildcard ? host.substring(2) : host;
+            entries.merge(key, wildcard ? WILDCARD : EXACT, (a, b) -> (byte) (a | b));
+        }
+
+        if (entries.isEmpty()) {
+            this.hosts = null;
+            this.hostFlags = null;
+            this.hostMask = 0;
+            this.hostSeed = 0;
+        } else {
+            // Look for a seed that gives every host a slot of its own, in a table at least twice the size
+            int size = Integer.highestOneBit(entries.size() * 2 - 1) << 1;
+            while (true) {
+                int seed = findSeed(entries.keySet(), size);
+                if (seed != 0) {
+                    this.hostMask = size - 1;
+                    this.hostSeed = seed;
+                    break;
+                }
+                size <<= 1;
+            }
+            this.hosts = new byte[size][];
+            this.hostFlags = new byte[size];
+            for (Map.Entry<String, Byte> entry : entries.entrySet()) {
+                byte[] bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                int slot = hash(bytes, hostSeed) & hostMask;
+                hosts[slot] = bytes;
+                hostFlags[slot] = entry.getValue();
+            }
+        }
+
+        List<int[]> ranges = new ArrayList<>();
+        for (String segment : split(versionsConfig)) {
+            int dash = segment.indexOf('-', 1); // Not the sign of a negative snapshot version
+            try {
+                int low = Integer.parseInt(dash < 0 ? segment : segment.substring(0, dash).trim());
+                int high = dash < 0 ? low : Integer.parseInt(segment.substring(dash + 1).trim());
+                ranges.add(new int[]{Math.min(low, high), Math.max(low, high)});
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid protocol version or range: '" + segment + "'", e);
+            }
+        }
+        this.versionLows = ranges.stream().mapToInt(range -> range[0]).toArray();
+        this.versionHighs = ranges.stream().mapToInt(range -> range[1]).toArray();
+    }
+
+    /**
+     * @return true if there is nothing to filter on, a null filter does the same job.
+     */
+    public boolean isEmpty() {
+        return hosts == null && versionLows.length == 0;
+    }
+
+    public int getHostCount() {
+        return hosts == null ? 0 : (int) Arrays.stream(hosts).filter(Objects::nonNull).count();
+    }
+
+    public int getVersionRangeCount() {
+        return versionLows.length;
+    }
+
+    /**
+     * @param handshake A successfully parsed handshake.
+     * @param buffer    The buffer it was parsed from, still holding the frame.
+     * @return true if the handshake passes every allow-list.
+     */
+    public boolean allows(HandshakeParseResult handshake, ByteBuf buffer) {
+        int intent = handshake.getIntent();
+        if (intent != HandshakeParseResult.INTENT_STATUS && intent != HandshakeParseResult.INTENT_LOGIN
+                && intent != HandshakeParseResult.INTENT_TRANSFER) {
+            return false;
+        }
+        if (intent != HandshakeParseResult.INTENT_STATUS && !allowsVersion(handshake.getProtocolVersion())) {
+            return false;
+        }
+        return allowsHost(buffer, handshake.getHostOffset(), handshake.getHostLength());
+    }
+
+    public boolean allowsVersion(int protocolVersion) {
+        if (versionLows.length == 0) {
+            return true;
+        }
+        for (int i = 0; i < versionLows.length; i++) {
+            if (protocolVersion >= versionLows[i] && protocolVersion <= versionHighs[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Matches the host straight from the frame's bytes: the whole name, then every parent domain against the wildcards.
+     */
+    public boolean allowsHost(ByteBuf buffer, int offset, int length) {
+        if (hosts == null) {
+            return true;
+        }
+        int end = buffer.indexOf(offset, offset + length, (byte) 0);
+        if (end < 0) {
+            end = offset + length;
+        }
+        if (end > offset && buffer.getByte(end - 1) == '.') {
+            end--;
+        }
+        if (lookup(buffer, offset, end, EXACT)) {
+            return true;
+        }
+        for (int i = offset; i < end; i++) {
+            if (buffer.getByte(i) == '.' && lookup(buffer, i + 1, end, WILDCARD)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean lookup(ByteBuf buffer, int start, int end, byte flag) {
+        int slot = hash(buffer, start, end, hostSeed) & hostMask;
+        byte[] candidate = hosts[slot];
+        if (candidate == null || (hostFlags[slot] & flag) == 0 || candidate.length != end - start) {
+            return false;
+        }
+        for (int i = 0; i < candidate.length; i++) {
+            if (lowerCase(buffer.getByte(start + i)) != candidate[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return A seed that maps every host to a distinct slot of a table this size, or 0 if none was found.
+     */
+    private static int findSeed(Iterable<String> keys, int size) {
+        boolean[] taken = new boolean[size];
+        for (int seed = 1; seed <= MAX_SEED_TRIES; seed++) {
+            Arrays.fill(taken, false);
+            boolean collision = false;
+            for (String key : keys) {
+                int slot = hash(key.getBytes(StandardCharsets.UTF_8), seed) & (size - 1);
+                if (taken[slot]) {
+                    collision = true;
+                    break;
+                }
+                taken[slot] = true;
+            }
+            if (!collision) {
+                return seed;
+            }
+        }
+        return 0;
+    }
+
+    // FNV-1a over lower cased bytes with a seeded basis, finished like MurmurHash3 so the low bits mix well
+    private static int hash(byte[] bytes, int seed) {
+        int h = 0x811C9DC5 ^ (seed * 0x9E3779B9);
+        for (byte b : bytes) {
+            h = (h ^ (b & 0xFF)) * 0x01000193;
+        }
+        return finish(h);
+    }
+
+    private static int hash(ByteBuf buffer, int start, int end, int seed) {
+        int h = 0x811C9DC5 ^ (seed * 0x9E3779B9);
+        for (int i = start; i < end; i++) {
+            h = (h ^ (lowerCase(buffer.getByte(i)) & 0xFF)) * 0x01000193;
+        }
+        return finish(h);
+    }
+
+    private static int finish(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+
+    private static byte lowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b | 0x20) : b;
+    }
+
+    private static String stripTrailingDot(String host) {
+        return host.endsWith(".") ? host.substring(0, host.length() - 1) : host;
+    }
+
+    private static List<String> split(String config) {
+        if (config == null) {
+            return List.of();
+        }
+        return Arrays.stream(config.split(","))
+                .map(String::trim)
+                .filter(segment -> !segment.isEmpty() && !segment.startsWith("#"))
+                .toList();
+    }
+}
@@ -0,0 +1,93 @@
+package by.illusion21.fireforged.handshake.utils;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+
+/// Reusable holder [HandshakeParser] writes the decoded handshake into.
+/// The host is kept as a position in the parsed buffer and only decoded by [#readHost(ByteBuf)], when asked.
+/// NOTE: Instances are NOT thread-safe, keep one per channel (or per caller).
+public final class HandshakeParseResult {
+
+    // Status codes returned by the parser
+    public static final int SUCCESS = 0;    // Handshake parsed successfully
+    public static final int INCOMPLETE = 1; // Need more data
+    public static final int LEGACY = 2;     // 0xFE 0x01, the server list ping of 1.4 to 1.6 clients
+    public static final int INVALID = 3;    // Not a handshake frame, or a malformed one
+    public static final int LEGACY_V0 = 4;  // A lone 0xFE, the server list ping of clients before 1.4
+
+    // Intents of the handshake
+    public static final int INTENT_STATUS = 1;
+    public static final int INTENT_LOGIN = 2;
+    public static final int INTENT_TRANSFER = 3; // 1.20.5+
+
+    private int protocolVersion;
+    private int hostOffset, hostLength;
+    private int port;
+    private int intent;
+    private int frameEnd; // Absolute index right after the handshake frame
+    private String failureReason; // Only constant strings are stored here, never built per call
+
+    public void reset() {
+        protocolVersion = 0;
+        hostOffset = hostLength = 0;
+        port = 0;
+        intent = 0;
+        frameEnd = 0;
+        failureReason = null;
+    }
+
+    int fail(int status, String reason) {
+        this.failureReason = reason;
+        return status;
+    }
+
+    void set(int protocolVersion, int hostOffset, int hostLength, int port, int intent, int frameEnd) {
+        this.protocolVersion = protocolVersion;
+        this.hostOffset = hostOffset;
+        this.hostLength = hostLength;
+        this.port = port;
+        this.intent = intent;
+        this.frameEnd = frameEnd;
+    }
+
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    /**
+     * Decodes the server address the client typed, as sent, including anything mods or proxies appended to it.
+     *
+     * @param buffer The buffer that was parsed, its bytes must not have been released or moved.
+     */
+    public String readHost(ByteBuf buffer) {
+        return buffer.toString(hostOffset, hostLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return Absolute index of the host's first byte in the parsed buffer, for matching without decoding it.
+     */
+    public int getHostOffset() {
+        return hostOffset;
+    }
+
+    public int getHostLength() {
+        return hostLength;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getIntent() {
+        return intent;
+    }
+
+    public int getFrameEnd() {
+        return frameEnd;
+    }
+
+    public String getFailureReason() {
+        return failureReason;
+    }
+}
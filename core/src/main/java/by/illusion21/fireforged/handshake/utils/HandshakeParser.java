@@ -0,0 +1,111 @@
+package by.illusion21.fireforged.handshake.utils;
+
+import io.netty.buffer.ByteBuf;
+
+import static by.illusion21.fireforged.handshake.utils.HandshakeParseResult.*;
+
+/// Parser for the first frame every modern client sends, read straight from the raw bytes:
+/// `[VarInt frame length] [VarInt packet id 0x00] [VarInt protocol version] [String host] [u16 port] [VarInt intent]`.
+/// The frame layout has not changed since 1.7, so one parser covers every supported version without
+/// touching the server's codecs.
+public class HandshakeParser {
+    public static final int MAX_FRAME_LENGTH = 4096; // Host names are capped at 255 chars, the rest is a few bytes
+    private static final byte LEGACY_PING = (byte) 0xFE;
+    private static final byte LEGACY_PING_PAYLOAD = 0x01;
+    private static final byte LEGACY_PING_HOST = (byte) 0xFA; // The MC|PingHost plugin message 1.6 clients append
+    private static final int HANDSHAKE_ID = 0x00;
+
+    /**
+     * Attempts to parse a handshake frame from the buffer into a caller-owned holder.
+     * The reader index is never moved, {@link HandshakeParseResult#getFrameEnd()} tells where the frame ends.
+     *
+     * @param buffer The buffer containing the first bytes of a connection.
+     * @param result The holder to write the handshake into, reset by this call.
+     * @return One of the {@link HandshakeParseResult} status codes.
+     */
+    public static int parse(ByteBuf buffer, HandshakeParseResult result) {
+        result.reset();
+        int start = buffer.readerIndex();
+        int end = buffer.writerIndex();
+        if (start == end) {
+            return INCOMPLETE;
+        }
+        int legacy = legacyPing(buffer, start, end);
+        if (legacy >= 0) {
+            return legacy;
+        }
+
+        // 1. Frame length, the whole frame must be there before anything else is looked at
+        long packed = VarInts.get(buffer, start, end);
+        if (packed == VarInts.INCOMPLETE) {
+            return INCOMPLETE;
+        }
+        if (packed == VarInts.TOO_LONG || VarInts.value(packed) < 1 || VarInts.value(packed) > MAX_FRAME_LENGTH) {
+            return result.fail(INVALID, "Bad frame length");
+        }
+        int position = start + VarInts.length(packed);
+        int frameEnd = position + VarInts.value(packed);
+        if (frameEnd > end) {
+            return INCOMPLETE;
+        }
+
+        // 2. Packet id
+        packed = VarInts.get(buffer, position, frameEnd);
+        if (packed < 0 || VarInts.value(packed) != HANDSHAKE_ID) {
+            return result.fail(INVALID, "Not a handshake");
+        }
+        position += VarInts.length(packed);
+
+        // 3. Protocol version
+        packed = VarInts.get(buffer, position, frameEnd);
+        if (packed < 0) {
+            return result.fail(INVALID, "Bad protocol version");
+        }
+        int protocolVersion = VarInts.value(packed);
+        position += VarInts.length(packed);
+
+        // 4. Host, a length prefixed UTF-8 string
+        packed = VarInts.get(buffer, position, frameEnd);
+        if (packed < 0 || VarInts.value(packed) < 0 || VarInts.value(packed) > frameEnd - position - VarInts.length(packed)) {
+            return result.fail(INVALID, "Bad host");
+        }
+        int hostOffset = position + VarInts.length(packed);
+        int hostLength = VarInts.value(packed);
+        position = hostOffset + hostLength;
+
+        // 5. Port and intent, which must end the frame exactly
+        if (frameEnd - position < 3) {
+            return result.fail(INVALID, "Truncated handshake");
+        }
+        int port = buffer.getUnsignedShort(position);
+        position += 2;
+        packed = VarInts.get(buffer, position, frameEnd);
+        if (packed < 0 || position + VarInts.length(packed) != frameEnd) {
+            return result.fail(INVALID, "Bad intent");
+        }
+
+        result.set(protocolVersion, hostOffset, hostLength, port, VarInts.value(packed), frameEnd);
+        return SUCCESS;
+    }
+
+    /**
+     * Tells a legacy ping the way the server's legacy query handler does: `FE`, `FE 01` or `FE 01 FA`.
+     * Any frame length of 126 mod 128 also starts with `FE`, a 254 byte handshake with `FE 01`, so a longer
+     * buffer is only a legacy ping if the plugin message follows.
+     *
+     * @return {@link HandshakeParseResult#LEGACY_V0} for a lone `FE`, {@link HandshakeParseResult#LEGACY} for the others,
+     *         -1 if it is no legacy ping.
+     */
+    private static int legacyPing(ByteBuf buffer, int start, int end) {
+        if (buffer.getByte(start) != LEGACY_PING) {
+            return -1;
+        }
+        if (end - start == 1) {
+            return LEGACY_V0;
+        }
+        if (buffer.getByte(start + 1) != LEGACY_PING_PAYLOAD) {
+            return -1;
+        }
+        return end - start == 2 || buffer.getByte(start + 2) == LEGACY_PING_HOST ? LEGACY : -1;
+    }
+}
@@ -0,0 +1,60 @@
+package by.illusion21.fireforged.handshake.utils;
+
+import io.netty.buffer.ByteBuf;
+
+/// Minecraft's VarInt: 7 bits per byte, least significant group first, high bit set on every byte but the last.
+/// Reads go by absolute index and never move the reader index, so a frame that is only partly there
+/// can be looked at again once more bytes arrived.
+public final class VarInts {
+    public static final long INCOMPLETE = -1; // The buffer ends inside the VarInt
+    public static final long TOO_LONG = -2;   // More than 5 bytes, not a VarInt
+    public static final int MAX_LENGTH = 5;
+
+    private VarInts() {
+    }
+
+    /**
+     * @param buffer The buffer to read from.
+     * @param index  Absolute index of the first byte.
+     * @param end    Absolute index the VarInt must end before.
+     * @return The value in the lower 32 bits and its length in bytes above them, see {@link #value} and {@link #length},
+     * or {@link #INCOMPLETE} / {@link #TOO_LONG}.
+     */
+    public static long get(ByteBuf buffer, int index, int end) {
+        int value = 0;
+        for (int i = 0; i < MAX_LENGTH; i++) {
+            if (index + i >= end) {
+                return INCOMPLETE;
+            }
+            byte b = buffer.getByte(index + i);
+            value |= (b & 0x7F) << (7 * i);
+            if (b >= 0) {
+                return ((long) (i + 1) << 32) | (value & 0xFFFF_FFFFL);
+            }
+        }
+        return TOO_LONG;
+    }
+
+    public static int value(long packed) {
+        return (int) packed;
+    }
+
+    public static int length(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    /**
+     * @return Bytes the value takes as a VarInt.
+     */
+    public static int size(int value) {
+        return value == 0 ? 1 : (31 - Integer.numberOfLeadingZeros(value)) / 7 + 1;
+    }
+
+    public static void write(ByteBuf buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer.writeByte(value);
+    }
+}
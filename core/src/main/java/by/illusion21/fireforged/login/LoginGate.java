@@ -0,0 +1,167 @@
+package by.illusion21.fireforged.login;
+
+import by.illusion21.fireforged.firewall.limit.AddressKeys;
+import by.illusion21.fireforged.firewall.limit.ConnectionRateLimiter;
+import by.illusion21.fireforged.handshake.utils.VarInts;
+import by.illusion21.fireforged.metrics.FirewallMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/// Checks on the login start packet, before the server sends its encryption request: past this point each
+/// login costs an RSA decryption and a call to the session servers, the most expensive work a client can cause.
+/// - banned name fragments, see [NamePatterns]
+/// - a rate limit on logins, taken from the address (IPv4 address, IPv6 /64) and optionally the name too,
+///   so one name from many addresses does not get through in bulk either. The name is not authenticated yet,
+///   so anyone can spend a player's allowance and keep them out, which is why it is opt-in
+/// - the whitelist, by name, which is all there is before the profile is authenticated. The names are a snapshot
+///   the server thread hands over whenever its lists change, the event loops never touch the server's lists
+///
+/// A refused login is sent a disconnect frame encoded once at configuration, then closed.
+public final class LoginGate {
+
+    public enum Verdict {
+        ADMIT,
+        BANNED_NAME,
+        RATE_LIMITED,
+        NOT_WHITELISTED
+    }
+
+    private static final int LOGIN_DISCONNECT_ID = 0x00; // The same from 1.7 to 1.21, nothing is compressed yet
+    private static final long NAME_TAG = 0x4000_0000_0000_0000L; // Name keys fall in 4000::/2, IPv6 space nobody is allocated
+
+    private static volatile NamePatterns bannedNames = new NamePatterns("");
+    private static volatile ConnectionRateLimiter rateLimiter = null; // null = no rate limit
+    private static volatile boolean limitNames = false;
+    private static volatile boolean whitelistByName = false;
+    private static volatile Set<String> whitelistedNames = Set.of(); // Lower case
+    private static volatile ByteBuf disconnectFrame = null;
+
+    private LoginGate() {
+    }
+
+    /**
+     * Sets the checks and encodes the disconnect frame, safe to call again on every server start.
+     *
+     * @param bannedNames     Comma separated name fragments, blank for none.
+     * @param perSecond       Logins per second one address or name may make, 0 disables.
+     * @param burst           Logins allowed back to back before the rate applies.
+     * @param capacity        Addresses and names tracked by the rate limit at once.
+     * @param limitNames      Whether names are rate limited too, not just addresses.
+     * @param whitelistByName Whether logins of names not on the whitelist are refused here already.
+     * @param message         Disconnect message of refused logins.
+     */
+    public static void configure(String bannedNames, double perSecond, int burst, int capacity, boolean limitNames,
+                                 boolean whitelistByName, String message) {
+        LoginGate.bannedNames = new NamePatterns(bannedNames);
+        LoginGate.rateLimiter = perSecond > 0 ? new ConnectionRateLimiter(perSecond, burst, 32, 64, capacity) : null;
+        LoginGate.limitNames = limitNames;
+        LoginGate.whitelistByName = whitelistByName;
+        LoginGate.disconnectFrame = encodeDisconnect(message);
+    }
+
+    /**
+     * Replaces the names let through while the whitelist is in force, to be called whenever the server's lists change.
+     *
+     * @param names Names on the whitelist and the ops list, in any case.
+     */
+    public static void setWhitelistedNames(Collection<String> names) {
+        LoginGate.whitelistedNames = names.stream().map(name -> name.toLowerCase(Locale.ROOT)).collect(Collectors.toUnmodifiableSet());
+    }
+
+    public static boolean isEnabled() {
+        return !bannedNames.isEmpty() || rateLimiter != null || whitelistByName;
+    }
+
+    public static int getBannedNameCount() {
+        return bannedNames.size();
+    }
+
+    /**
+     * @param name      The name the client asked to log in with.
+     * @param address   The client's real address.
+     * @param whitelist Whether the server has its whitelist in force.
+     * @return What to do with the login, counted in the metrics when refused.
+     */
+    public static Verdict check(String name, SocketAddress address, boolean whitelist) {
+        Verdict verdict = judge(name, address, whitelist);
+        if (verdict != Verdict.ADMIT) {
+            FirewallMetrics.increment(FirewallMetrics.Counter.LOGIN_GATED);
+        }
+        return verdict;
+    }
+
+    private static Verdict judge(String name, SocketAddress address, boolean whitelist) {
+        if (bannedNames.matches(name)) {
+            return Verdict.BANNED_NAME;
+        }
+        ConnectionRateLimiter limiter = rateLimiter;
+        if (limiter != null) {
+            long addressKey = AddressKeys.of(address, limiter.getIpv4Prefix(), limiter.getIpv6Prefix());
+            if ((addressKey != AddressKeys.NO_KEY && !limiter.tryAcquire(addressKey)) || (limitNames && !limiter.tryAcquire(nameKey(name)))) {
+                return Verdict.RATE_LIMITED;
+            }
+        }
+        if (whitelistByName && whitelist && !whitelistedNames.contains(name.toLowerCase(Locale.ROOT))) {
+            return Verdict.NOT_WHITELISTED;
+        }
+        return Verdict.ADMIT;
+    }
+
+    /**
+     * @return A duplicate of the encoded login disconnect frame, to be written past the server's encoders.
+     */
+    public static ByteBuf disconnectFrame() {
+        ByteBuf frame = disconnectFrame;
+        return frame != null ? frame.duplicate() : null;
+    }
+
+    // FNV-1a over the lower cased name, names compare case-insensitively on the server too
+    private static long nameKey(String name) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < name.length(); i++) {
+            h = (h ^ Character.toLowerCase(name.charAt(i))) * 0x100000001B3L;
+        }
+        return NAME_TAG | (h >>> 2);
+    }
+
+    /**
+     * The frame of a login disconnect packet: length, packet id and the message as a JSON text component.
+     */
+    private static ByteBuf encodeDisconnect(String message) {
+        byte[] json = ("{\"text\":\"" + escapeJson(message) + "\"}").getBytes(StandardCharsets.UTF_8);
+        int bodyLength = VarInts.size(LOGIN_DISCONNECT_ID) + VarInts.size(json.length) + json.length;
+        ByteBuf frame = Unpooled.buffer(VarInts.size(bodyLength) + bodyLength);
+        VarInts.write(frame, bodyLength);
+        VarInts.write(frame, LOGIN_DISCONNECT_ID);
+        VarInts.write(frame, json.length);
+        frame.writeBytes(json);
+        return Unpooled.unreleasableBuffer(frame);
+    }
+
+    private static String escapeJson(String text) {
+        StringBuilder builder = new StringBuilder(text.length() + 8);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"' -> builder.append("\\\"");
+                case '\\' -> builder.append("\\\\");
+                case '\n' -> builder.append("\\n");
+                default -> {
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+                }
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,127 @@
+package by.illusion21.fireforged.login;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+
+/// Banned fragments of player names, compiled into an Aho-Corasick automaton: whatever the number of
+/// fragments, a name is checked in one pass of one table lookup per character, ignoring case.
+///
+/// The failure links are folded into a full transition table over the characters the fragments use,
+/// every other character leads back to the root. Names are at most 16 characters and fragments
+/// a few dozen at most, so the table stays small. Immutable, shared by every thread.
+public final class NamePatterns {
+    private static final int ASCII = 128;
+
+    private final byte[] classes = new byte[ASCII]; // Character -> column, 0 = used by no fragment
+    private final int width;
+    private final int[] transitions; // State * width + column -> state
+    private final boolean[] matches; // State ends a fragment, itself or through its failure links
+    private final int fragmentCount;
+
+    /**
+     * @param config Comma separated fragments, blank for none. Non-ASCII fragments never match and are skipped.
+     */
+    public NamePatterns(String config) {
+        List<String> fragments = new ArrayList<>();
+        if (config != null) {
+            for (String segment : config.split(",")) {
+                String fragment = segment.trim().toLowerCase(Locale.ROOT);
+                if (!fragment.isEmpty() && fragment.chars().allMatch(c -> c < ASCII)) {
+                    fragments.add(fragment);
+                }
+            }
+        }
+        this.fragmentCount = fragments.size();
+
+        int columns = 1;
+        for (String fragment : fragments) {
+            for (int i = 0; i < fragment.length(); i++) {
+                char c = fragment.charAt(i);
+                if (classes[c] == 0) {
+                    classes[c] = (byte) columns++;
+                    if (Character.isLetter(c)) {
+                        classes[Character.toUpperCase(c)] = classes[c];
+                    }
+                }
+            }
+        }
+        this.width = columns;
+
+        // 1. Trie, -1 = no edge yet
+        int maxStates = 1 + fragments.stream().mapToInt(String::length).sum();
+        int[] table = new int[maxStates * width];
+        Arrays.fill(table, -1);
+        boolean[] ends = new boolean[maxStates];
+        int states = 1;
+        for (String fragment : fragments) {
+            int state = 0;
+            for (int i = 0; i < fragment.length(); i++) {
+                int edge = state * width + classes[fragment.charAt(i)];
+                if (table[edge] < 0) {
+                    table[edge] = states++;
+                }
+                state = table[edge];
+            }
+            ends[state] = true;
+        }
+
+        // 2. Breadth first, every missing edge takes the one of the failure state, which is already complete
+        int[] failure = new int[states];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int column = 0; column < width; column++) {
+            int next = table[column];
+            if (next < 0) {
+                table[column] = 0;
+            } else {
+                failure[next] = 0;
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            ends[state] |= ends[failure[state]];
+            for (int column = 0; column < width; column++) {
+                int edge = state * width + column;
+                int fallback = table[failure[state] * width + column];
+                if (table[edge] < 0) {
+                    table[edge] = fallback;
+                } else {
+                    failure[table[edge]] = fallback;
+                    queue.add(table[edge]);
+                }
+            }
+        }
+        this.transitions = Arrays.copyOf(table, states * width);
+        this.matches = Arrays.copyOf(ends, states);
+    }
+
+    public boolean isEmpty() {
+        return fragmentCount == 0;
+    }
+
+    public int size() {
+        return fragmentCount;
+    }
+
+    /**
+     * @return true if the name contains any of the fragments.
+     */
+    public boolean matches(CharSequence name) {
+        if (fragmentCount == 0) {
+            return false;
+        }
+        int state = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            state = transitions[state * width + (c < ASCII ? classes[c] : 0)];
+            if (matches[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,98 @@
+package by.illusion21.fireforged.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/// Process-wide counters, cheap enough to bump from event loop threads on every connection.
+/// Counters only ever grow; readers diff two [#snapshot()]s to get rates.
+/// Gauges hold the latest value of something sampled, and are read as they are.
+public final class FirewallMetrics {
+
+    public enum Counter {
+        CONNECTIONS_ACCEPTED,      // Every channel that reached our handlers, on any listener
+        PROXY_HEALTH_CHECKS,       // PROXY v2 LOCAL / v1 UNKNOWN headers, usually load balancer checks
+        PROXY_HEADER_TIMEOUTS,     // Closed by the decision deadline before a PROXY header arrived
+        DECISION_TIMEOUTS,         // Closed by the decision deadline with the address known but no verdict yet
+        LISTENER_EVENTS_DROPPED,   // Batch listener events dropped because the dispatch queue was full
+        TARPIT_TRAPPED,            // Connections held open by the TARPIT action
+        TARPIT_OVERFLOWS,          // TARPIT verdicts dropped instead because the tarpit was full
+        RATE_LIMITED,              // Accepted by the rules but over the per-source connection rate
+        CONNECTION_CAPPED,         // Accepted by the rules but over the per-address/subnet open connection cap
+        CONNECTION_CAP_TABLE_FULL, // Admitted without a cap because too many sources were being tracked
+        ADMISSION_SHED,            // Accepted by the rules but turned away unknown while the server was overloaded
+        ADMISSION_PAUSES,          // Times accepting new connections was paused altogether
+        AUTO_BANS,                 // Addresses banned because their misbehaviour score crossed the threshold
+        BANNED_REFUSED,            // Connections accepted by the rules but refused because their address is banned
+        GREYLISTED,                // Logins turned away until the address pings the server list or retries
+        GREYLIST_TABLE_FULL,       // Pings and logins greylisting could not remember, such logins were let in
+        STATUS_CACHE_HITS,         // Server list pings answered from the status cache, legacy ones included
+        STATUS_RATE_LIMITED,       // Server list pings dropped for being over the per-address status rate
+        HANDSHAKE_FILTERED,        // Handshakes that were malformed or asked for a host or version not allowed
+        LOGIN_GATED                // Logins refused before encryption for their name, rate or the whitelist
+    }
+
+    public enum Gauge {
+        ADMISSION_LEVEL,           // Ordinal of the admission controller's current level, 0 = normal
+        UNDECIDED_CHANNELS,        // Connections still waiting for a PROXY header or a verdict
+        EVENT_LOOP_LAG_MILLIS,     // Worst time a task waited for an event loop in the last sample
+        ATTACK_MODE,               // 1 while the attack mode rules are in force
+        ACCEPT_RATE,               // Connections accepted in the last second
+        ACCEPT_RATE_BASELINE       // Usual connections per second, learned outside attack mode
+    }
+
+    private static final LongAdder[] COUNTERS = new LongAdder[Counter.values().length];
+    private static final AtomicLongArray GAUGES = new AtomicLongArray(Gauge.values().length);
+
+    static {
+        for (int i = 0; i < COUNTERS.length; i++) {
+            COUNTERS[i] = new LongAdder();
+        }
+    }
+
+    private FirewallMetrics() {
+    }
+
+    public static void increment(Counter counter) {
+        COUNTERS[counter.ordinal()].increment();
+    }
+
+    public static void add(Counter counter, long value) {
+        COUNTERS[counter.ordinal()].add(value);
+    }
+
+    public static long get(Counter counter) {
+        return COUNTERS[counter.ordinal()].sum();
+    }
+
+    public static void set(Gauge gauge, long value) {
+        GAUGES.set(gauge.ordinal(), value);
+    }
+
+    public static long get(Gauge gauge) {
+        return GAUGES.get(gauge.ordinal());
+    }
+
+    /**
+     * @return The current value of every counter, in declaration order.
+     */
+    public static Map<Counter, Long> snapshot() {
+        Map<Counter, Long> snapshot = new EnumMap<>(Counter.class);
+        for (Counter counter : Counter.values()) {
+            snapshot.put(counter, get(counter));
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return The current value of every gauge, in declaration order.
+     */
+    public static Map<Gauge, Long> gauges() {
+        Map<Gauge, Long> gauges = new EnumMap<>(Gauge.class);
+        for (Gauge gauge : Gauge.values()) {
+            gauges.put(gauge, get(gauge));
+        }
+        return gauges;
+    }
+}
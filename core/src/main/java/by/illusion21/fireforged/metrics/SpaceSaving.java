@@ -0,0 +1,161 @@
+package by.illusion21.fireforged.metrics;
+
+import java.util.Arrays;
+
+/// Space-Saving summary: the heaviest keys of a weighted stream in a fixed number of counters.
+///
+/// A key that is not tracked replaces the lightest tracked one and inherits its count as error, so a key's
+/// true weight lies within `[count - error, count]`, and any key heavier than total / capacity is guaranteed
+/// to be tracked. Counters form a min-heap on count, found through a small open addressing index,
+/// so an offer is O(log capacity) and never allocates.
+///
+/// Methods are synchronized; [TopSources] gives each event loop thread its own summary, so the lock
+/// is only ever contended by a reader.
+final class SpaceSaving {
+    private static final long EMPTY = Long.MIN_VALUE; // 8000::/64 is not global unicast, so no address key is ever this
+
+    private final long[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private final long[] indexKeys; // Key -> heap position
+    private final int[] indexPositions;
+    private final int indexMask;
+    private int size = 0;
+
+    SpaceSaving(int capacity) {
+        this.keys = new long[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        int indexSize = Integer.highestOneBit(capacity * 2 - 1) << 1; // At most half full
+        this.indexKeys = new long[indexSize];
+        this.indexPositions = new int[indexSize];
+        this.indexMask = indexSize - 1;
+        Arrays.fill(indexKeys, EMPTY);
+    }
+
+    synchronized void offer(long key, long weight) {
+        int slot = indexSlot(key);
+        if (indexKeys[slot] == key) {
+            int position = indexPositions[slot];
+            counts[position] += weight;
+            siftDown(position);
+        } else if (size < keys.length) {
+            indexKeys[slot] = key;
+            indexPositions[slot] = size;
+            keys[size] = key;
+            counts[size] = weight;
+            errors[size] = 0;
+            siftUp(size++);
+        } else {
+            // Evict the lightest, the newcomer may have been it all along
+            removeFromIndex(keys[0]);
+            slot = indexSlot(key);
+            indexKeys[slot] = key;
+            indexPositions[slot] = 0;
+            errors[0] = counts[0];
+            counts[0] += weight;
+            keys[0] = key;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * @return The smallest tracked count once every counter is in use, 0 before: the most an untracked key can weigh.
+     */
+    synchronized long untrackedBound() {
+        return size < keys.length ? 0 : counts[0];
+    }
+
+    synchronized void forEach(Visitor visitor) {
+        for (int i = 0; i < size; i++) {
+            visitor.visit(keys[i], counts[i], errors[i]);
+        }
+    }
+
+    interface Visitor {
+        void visit(long key, long count, long error);
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (counts[parent] <= counts[position]) {
+                return;
+            }
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        while (true) {
+            int child = position * 2 + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && counts[child + 1] < counts[child]) {
+                child++;
+            }
+            if (counts[position] <= counts[child]) {
+                return;
+            }
+            swap(position, child);
+            position = child;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long key = keys[a];
+        long count = counts[a];
+        long error = errors[a];
+        keys[a] = keys[b];
+        counts[a] = counts[b];
+        errors[a] = errors[b];
+        keys[b] = key;
+        counts[b] = count;
+        errors[b] = error;
+        indexPositions[indexSlot(keys[a])] = a;
+        indexPositions[indexSlot(keys[b])] = b;
+    }
+
+    /**
+     * @return The key's index slot, or the empty slot it would go in.
+     */
+    private int indexSlot(long key) {
+        int slot = mix(key) & indexMask;
+        while (indexKeys[slot] != EMPTY && indexKeys[slot] != key) {
+            slot = (slot + 1) & indexMask;
+        }
+        return slot;
+    }
+
+    /**
+     * Linear probing removal with backward shift, so lookups never need tombstones.
+     */
+    private void removeFromIndex(long key) {
+        int hole = indexSlot(key);
+        int slot = hole;
+        while (true) {
+            slot = (slot + 1) & indexMask;
+            long moving = indexKeys[slot];
+            if (moving == EMPTY) {
+                break;
+            }
+            int home = mix(moving) & indexMask;
+            // Move the entry into the hole unless its home lies cyclically in (hole, slot]
+            if (((slot - home) & indexMask) >= ((slot - hole) & indexMask)) {
+                indexKeys[hole] = moving;
+                indexPositions[hole] = indexPositions[slot];
+                hole = slot;
+            }
+        }
+        indexKeys[hole] = EMPTY;
+    }
+
+    private static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -0,0 +1,141 @@
+package by.illusion21.fireforged.metrics;
+
+import by.illusion21.fireforged.firewall.limit.AddressKeys;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/// The sources connecting the most, and sending the most bytes, per address and per subnet.
+///
+/// Every thread that reports gets its own [SpaceSaving] summary per ranking, so event loops never contend
+/// with each other; a query merges them. Memory is fixed at [#CAPACITY] counters per ranking and thread,
+/// however many (spoofed) sources show up. Counts are estimates: each comes with the most it may be over by.
+public final class TopSources {
+
+    public enum Ranking {
+        ADDRESS_CONNECTIONS(32, 64),
+        SUBNET_CONNECTIONS(24, 48),
+        ADDRESS_BYTES(32, 64),
+        SUBNET_BYTES(24, 48);
+
+        private final int ipv4Prefix;
+        private final int ipv6Prefix;
+
+        Ranking(int ipv4Prefix, int ipv6Prefix) {
+            this.ipv4Prefix = ipv4Prefix;
+            this.ipv6Prefix = ipv6Prefix;
+        }
+    }
+
+    private static final int CAPACITY = 256; // Plenty to find a top 10 among; about 12 KB per ranking and thread
+
+    private static final List<SpaceSaving[]> SUMMARIES = new CopyOnWriteArrayList<>();
+    private static final FastThreadLocal<SpaceSaving[]> LOCAL = new FastThreadLocal<>() {
+        @Override
+        protected SpaceSaving[] initialValue() {
+            SpaceSaving[] summaries = new SpaceSaving[Ranking.values().length];
+            for (int i = 0; i < summaries.length; i++) {
+                summaries[i] = new SpaceSaving(CAPACITY);
+            }
+            SUMMARIES.add(summaries);
+            return summaries;
+        }
+    };
+
+    private TopSources() {
+    }
+
+    /**
+     * Counts one connection attempt from the address.
+     */
+    public static void connection(SocketAddress address) {
+        offer(address, 1, Ranking.ADDRESS_CONNECTIONS, Ranking.SUBNET_CONNECTIONS);
+    }
+
+    /**
+     * Counts bytes received from the address.
+     */
+    public static void bytes(SocketAddress address, long bytes) {
+        offer(address, bytes, Ranking.ADDRESS_BYTES, Ranking.SUBNET_BYTES);
+    }
+
+    private static void offer(SocketAddress address, long weight, Ranking byAddress, Ranking bySubnet) {
+        long addressKey = AddressKeys.of(address, byAddress.ipv4Prefix, byAddress.ipv6Prefix);
+        if (addressKey == AddressKeys.NO_KEY) {
+            return;
+        }
+        SpaceSaving[] summaries = LOCAL.get();
+        summaries[byAddress.ordinal()].offer(addressKey, weight);
+        summaries[bySubnet.ordinal()].offer(AddressKeys.of(address, bySubnet.ipv4Prefix, bySubnet.ipv6Prefix), weight);
+    }
+
+    /**
+     * @param limit Most sources returned.
+     * @return The heaviest sources of the ranking since startup, heaviest first.
+     */
+    public static List<Source> top(Ranking ranking, int limit) {
+        // Merged per key: count, error, and the untracked bounds of the summaries that do track it
+        Map<Long, long[]> merged = new HashMap<>();
+        long totalBound = 0;
+        for (SpaceSaving[] summaries : SUMMARIES) {
+            SpaceSaving summary = summaries[ranking.ordinal()];
+            long bound = summary.untrackedBound();
+            totalBound += bound;
+            summary.forEach((key, count, error) -> {
+                long[] entry = merged.computeIfAbsent(key, k -> new long[3]);
+                entry[0] += count;
+                entry[1] += error;
+                entry[2] += bound;
+            });
+        }
+
+        List<Source> sources = new ArrayList<>(merged.size());
+        for (Map.Entry<Long, long[]> entry : merged.entrySet()) {
+            // A summary not tracking the key may still have seen it, up to its own bound
+            long missing = totalBound - entry.getValue()[2];
+            sources.add(new Source(AddressKeys.toString(entry.getKey(), ranking.ipv4Prefix, ranking.ipv6Prefix),
+                    entry.getValue()[0] + missing, entry.getValue()[1] + missing));
+        }
+        sources.sort(Comparator.comparingLong(Source::getCount).reversed());
+        return sources.size() > limit ? new ArrayList<>(sources.subList(0, limit)) : sources;
+    }
+
+    public static final class Source {
+        private final String address;
+        private final long count;
+        private final long error;
+
+        private Source(String address, long count, long error) {
+            this.address = address;
+            this.count = count;
+            this.error = error;
+        }
+
+        /**
+         * @return The address or subnet as text.
+         */
+        public String getAddress() {
+            return address;
+        }
+
+        /**
+         * @return The estimated connections or bytes, never below the true value.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return How much {@link #getCount()} may be over the true value.
+         */
+        public long getError() {
+            return error;
+        }
+    }
+}
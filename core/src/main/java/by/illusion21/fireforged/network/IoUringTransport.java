@@ -0,0 +1,64 @@
+package by.illusion21.fireforged.network;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.ThreadFactory;
+
+/// Netty's io_uring transport, looked up reflectively.
+/// Minecraft ships Netty 4.1, where io_uring lives in the separate incubator artifact
+/// (`io.netty.incubator:netty-incubator-transport-native-io_uring`) that is not on the classpath
+/// unless the server owner adds it, so nothing here may be linked directly.
+final class IoUringTransport {
+    private static final String PACKAGE = "io.netty.incubator.channel.uring.";
+
+    private static final Throwable UNAVAILABILITY_CAUSE;
+    private static final Constructor<? extends EventLoopGroup> GROUP_CONSTRUCTOR;
+    private static final Class<? extends ServerChannel> SERVER_CHANNEL_CLASS;
+
+    static {
+        Throwable cause = null;
+        Constructor<? extends EventLoopGroup> groupConstructor = null;
+        Class<? extends ServerChannel> serverChannelClass = null;
+        try {
+            Class<?> ioUring = Class.forName(PACKAGE + "IOUring");
+            if ((Boolean) ioUring.getMethod("isAvailable").invoke(null)) {
+                groupConstructor = Class.forName(PACKAGE + "IOUringEventLoopGroup")
+                        .asSubclass(EventLoopGroup.class)
+                        .getConstructor(int.class, ThreadFactory.class);
+                serverChannelClass = Class.forName(PACKAGE + "IOUringServerSocketChannel").asSubclass(ServerChannel.class);
+            } else {
+                // Kernel too old, io_uring disabled by sysctl/seccomp, or the native library does not match
+                cause = (Throwable) ioUring.getMethod("unavailabilityCause").invoke(null);
+            }
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+            cause = e;
+        }
+        UNAVAILABILITY_CAUSE = cause;
+        GROUP_CONSTRUCTOR = groupConstructor;
+        SERVER_CHANNEL_CLASS = serverChannelClass;
+    }
+
+    private IoUringTransport() {
+    }
+
+    static boolean isAvailable() {
+        return SERVER_CHANNEL_CLASS != null;
+    }
+
+    /**
+     * @return Why io_uring cannot be used, null if it can.
+     */
+    static Throwable unavailabilityCause() {
+        return UNAVAILABILITY_CAUSE;
+    }
+
+    static EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) throws ReflectiveOperationException {
+        return GROUP_CONSTRUCTOR.newInstance(threads, threadFactory);
+    }
+
+    static Class<? extends ServerChannel> serverChannelClass() {
+        return SERVER_CHANNEL_CLASS;
+    }
+}
@@ -0,0 +1,207 @@
+package by.illusion21.fireforged.network;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.bootstrap.ServerBootstrapConfig;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/// Extra server sockets bound next to Minecraft's own listener.
+/// Every listener is a clone of Minecraft's [ServerBootstrap], so accepted channels go through
+/// the very same child initializer (and therefore the same PROXY and firewall handlers).
+public final class ServerListeners {
+    private static EventLoopGroup ioUringGroup; // Created on first use, lives as long as the process like Minecraft's groups
+
+    private ServerListeners() {
+    }
+
+    /**
+     * Moves Minecraft's listener and all of its connections to the io_uring transport, when it can be loaded.
+     * The bootstrap's group cannot be replaced, so a copy with the same child handler, options and address is built.
+     *
+     * @param bootstrap Minecraft's bootstrap, not bound yet.
+     * @return The io_uring bootstrap to bind instead, or the given one unchanged if io_uring is unavailable.
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized ServerBootstrap useIoUring(ServerBootstrap bootstrap, Logger logger) {
+        if (!IoUringTransport.isAvailable()) {
+            Throwable cause = IoUringTransport.unavailabilityCause();
+            logger.warn("io_uring transport unavailable, staying on {}: {}",
+                    isEpoll(bootstrap.config().group()) ? "epoll" : "nio",
+                    cause instanceof ClassNotFoundException ? "netty-incubator-transport-native-io_uring is not on the classpath" : cause);
+            return bootstrap;
+        }
+        try {
+            if (ioUringGroup == null) {
+                ioUringGroup = IoUringTransport.newEventLoopGroup(0, new DefaultThreadFactory("fireforged-io-uring", true));
+            }
+        } catch (ReflectiveOperationException e) {
+            logger.warn("Failed to start io_uring event loops, staying on the default transport", e);
+            return bootstrap;
+        }
+
+        ServerBootstrapConfig config = bootstrap.config();
+        ServerBootstrap ioUring = new ServerBootstrap()
+                .group(ioUringGroup)
+                .channel(IoUringTransport.serverChannelClass())
+                .childHandler(config.childHandler())
+                .localAddress(config.localAddress());
+        if (config.handler() != null) {
+            ioUring.handler(config.handler());
+        }
+        for (Map.Entry<ChannelOption<?>, Object> option : config.options().entrySet()) {
+            ioUring.option((ChannelOption<Object>) option.getKey(), option.getValue());
+        }
+        for (Map.Entry<ChannelOption<?>, Object> option : config.childOptions().entrySet()) {
+            ioUring.childOption((ChannelOption<Object>) option.getKey(), option.getValue());
+        }
+        for (Map.Entry<AttributeKey<?>, Object> attr : config.childAttrs().entrySet()) {
+            ioUring.childAttr((AttributeKey<Object>) attr.getKey(), attr.getValue());
+        }
+        logger.info("Using io_uring channel type");
+        return ioUring;
+    }
+
+    /**
+     * Sets kernel accept tuning on Minecraft's own listener, before it binds; extra acceptors inherit it.
+     * With TCP_DEFER_ACCEPT the kernel only hands over a connection once its first bytes arrived, so
+     * port scanners and connect-and-idle bots never become channels. Real clients and proxies always talk first.
+     *
+     * @param bootstrap          Minecraft's bootstrap, not bound yet.
+     * @param deferAcceptSeconds How long the kernel holds data-less connections back, 0 to leave it off.
+     * @param fastOpenQueue      TCP_FASTOPEN pending request queue length, 0 to leave it off.
+     */
+    public static void applyAcceptOptions(ServerBootstrap bootstrap, int deferAcceptSeconds, int fastOpenQueue, Logger logger) {
+        if (deferAcceptSeconds <= 0 && fastOpenQueue <= 0) {
+            return;
+        }
+        if (!isEpoll(bootstrap.config().group())) {
+            logger.warn("TCP_DEFER_ACCEPT / TCP_FASTOPEN need the epoll transport (Linux, use-native-transport=true), ignoring them");
+            return;
+        }
+        if (deferAcceptSeconds > 0) {
+            bootstrap.option(EpollChannelOption.TCP_DEFER_ACCEPT, deferAcceptSeconds);
+        }
+        if (fastOpenQueue > 0) {
+            bootstrap.option(ChannelOption.TCP_FASTOPEN, fastOpenQueue);
+        }
+        logger.info("Listener accept options: TCP_DEFER_ACCEPT={}s TCP_FASTOPEN={}", deferAcceptSeconds, fastOpenQueue);
+    }
+
+    /**
+     * Turns on SO_REUSEPORT for Minecraft's own listener so more acceptors can share its port.
+     * Must be called before it binds; a socket without the option blocks everyone else from the port.
+     *
+     * @param bootstrap Minecraft's bootstrap, not bound yet.
+     * @param acceptors The number of acceptors wanted, including Minecraft's own.
+     * @return The number of acceptors to run, capped to the event loop count; 1 if SO_REUSEPORT is unavailable.
+     */
+    public static int enableReusePort(ServerBootstrap bootstrap, int acceptors, Logger logger) {
+        EventLoopGroup group = bootstrap.config().group();
+        if (!isEpoll(group)) {
+            logger.warn("SO_REUSEPORT acceptors need the epoll transport (Linux, use-native-transport=true), using a single acceptor");
+            return 1;
+        }
+        int eventLoops = 0;
+        for (Object ignored : group) {
+            eventLoops++;
+        }
+        // Two acceptors on one event loop only add a wakeup, they cannot accept in parallel
+        int usable = Math.min(acceptors, eventLoops);
+        if (usable > 1) {
+            bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+        return usable;
+    }
+
+    /**
+     * Binds extra acceptors on the port Minecraft's own listener already holds with SO_REUSEPORT,
+     * so the kernel spreads incoming connections across them. Each registers on the next event loop of
+     * Minecraft's group, so accepts run on that many threads instead of one.
+     *
+     * @param template Minecraft's bootstrap, after {@link #enableReusePort} and its own bind.
+     * @param extra    The number of acceptors to add.
+     * @return The bind futures, one per extra acceptor.
+     */
+    public static List<ChannelFuture> bindReusePortAcceptors(ServerBootstrap template, int extra, Logger logger) {
+        List<ChannelFuture> acceptors = new ArrayList<>(extra);
+        for (int i = 0; i < extra; i++) {
+            acceptors.add(template.clone().bind());
+        }
+        logger.info("Binding {} more SO_REUSEPORT acceptors on {}", extra, template.config().localAddress());
+        return acceptors;
+    }
+
+    /**
+     * Binds a unix domain socket listener for proxies running on the same host.
+     * Needs the epoll transport, i.e. Linux with use-native-transport left on.
+     *
+     * @param template Minecraft's bootstrap, already configured with its group and child handler.
+     * @param path     Filesystem path of the socket. A stale socket left there by a previous run is removed.
+     * @return The bind future, or null if the listener cannot be used in this environment.
+     */
+    public static ChannelFuture bindDomainSocket(ServerBootstrap template, String path, Logger logger) {
+        EventLoopGroup group = template.config().group();
+        if (!isEpoll(group)) {
+            logger.warn("Unix socket listener at {} needs the epoll transport (Linux, use-native-transport=true), not binding it", path);
+            return null;
+        }
+        try {
+            removeStaleSocket(Path.of(path));
+        } catch (IOException e) {
+            logger.warn("Cannot remove stale unix socket {}, not binding it: {}", path, e.getMessage());
+            return null;
+        }
+
+        ServerBootstrap bootstrap = template.clone()
+                .channel(EpollServerDomainSocketChannel.class)
+                .localAddress(new DomainSocketAddress(path))
+                // TCP only, the template may carry them
+                .option(EpollChannelOption.SO_REUSEPORT, null)
+                .option(EpollChannelOption.TCP_DEFER_ACCEPT, null)
+                .option(ChannelOption.TCP_FASTOPEN, null);
+        logger.info("Binding unix socket listener at {}, connections on it must start with a PROXY header", path);
+        return bootstrap.bind();
+    }
+
+    /**
+     * EpollEventLoopGroup is deprecated in Netty 4.2, which core compiles against, for a MultiThreadIoEventLoopGroup
+     * with an EpollIoHandler. Minecraft ships Netty 4.1 though, where the group it creates is still this class.
+     */
+    @SuppressWarnings("deprecation")
+    private static boolean isEpoll(EventLoopGroup group) {
+        return Epoll.isAvailable() && group instanceof EpollEventLoopGroup;
+    }
+
+    /**
+     * A socket file outlives the process that bound it, so a crash leaves one behind and the next bind
+     * fails with EADDRINUSE. Only sockets are removed, never a regular file or directory someone misconfigured.
+     */
+    private static void removeStaleSocket(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (!attributes.isOther()) {
+            throw new IOException("not a socket");
+        }
+        Files.delete(path);
+    }
+}
@@ -2,74 +2,52 @@ package by.illusion21.fireforged.proxyprotocol;
 
 
 import by.illusion21.fireforged.proxyprotocol.utils.ProxyParseResult;
+import by.illusion21.fireforged.proxyprotocol.utils.ProxyTlvs;
+import by.illusion21.fireforged.proxyprotocol.utils.ProxyV1Parser;
 import by.illusion21.fireforged.proxyprotocol.utils.ProxyV2Parser;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.FastThreadLocal;
 import org.slf4j.Logger;
 
 import java.net.SocketAddress;
+import java.net.UnknownHostException;
 import java.util.Objects;
 
-/// Handles the logic for parsing the HAProxy PROXY protocol header (v2).
+/// Handles the logic for parsing the HAProxy PROXY protocol header (v1 text or v2 binary,
+/// told apart by the first byte).
 /// This class is Minecraft-independent and manages the state for a single connection's
 /// proxy header parsing attempt.
+/// The outcome of [#processData] is a status code; the real address, remaining data and
+/// failure reason are then read from this processor, so no result object is built per call.
 /// NOTE: This class is stateful and designed for single use per connection attempt.
 public class ProxyProtocolProcessor {
 
-    public static class ProcessingResult {
-        public enum Status {
-            SUCCESS,
-            FAILURE,
-            INCOMPLETE
+    // Status codes returned by processData
+    public static final int SUCCESS = 0;
+    public static final int FAILURE = 1;
+    public static final int INCOMPLETE = 2;
+    public static final int LOCAL = 3; // Proxy's own connection (health check), real address is the socket's
+
+    // The parser writes into a holder recycled per event loop thread instead of allocating per parse
+    private static final FastThreadLocal<ProxyParseResult> PARSE_RESULT = new FastThreadLocal<>() {
+        @Override
+        protected ProxyParseResult initialValue() {
+            return new ProxyParseResult();
         }
-
-        private final Status status;
-        private final SocketAddress realAddress;
-        private final ByteBuf remainingData;
-        private final String failureReason;
-
-        private ProcessingResult(Status status, SocketAddress realAddress, ByteBuf remainingData, String failureReason) {
-            this.status = status;
-            this.realAddress = realAddress;
-            this.remainingData = remainingData;
-            this.failureReason = failureReason;
-        }
-
-        public static ProcessingResult success(SocketAddress realAddress, ByteBuf remainingData) {
-            return new ProcessingResult(Status.SUCCESS, Objects.requireNonNull(realAddress), remainingData, null);
-        }
-
-        public static ProcessingResult failure(String reason) {
-            return new ProcessingResult(Status.FAILURE, null, null, reason);
-        }
-
-        public static ProcessingResult incomplete() {
-            return new ProcessingResult(Status.INCOMPLETE, null, null, null);
-        }
-
-        public Status getStatus() {
-            return status;
-        }
-
-        public SocketAddress getRealAddress() {
-            return realAddress;
-        }
-
-        public ByteBuf getRemainingData() {
-            return remainingData;
-        }
-
-        public String getFailureReason() {
-            return failureReason;
-        }
-    }
+    };
 
     private final Logger logger;
     private final SocketAddress originalRemoteAddress; // For logging context
     private ByteBuf accumulator;
     private boolean processingComplete = false;
 
+    private SocketAddress realAddress;
+    private ByteBuf remainingData;
+    private ProxyTlvs tlvs;
+    private String failureReason;
+
     public ProxyProtocolProcessor(Logger logger, SocketAddress originalRemoteAddress) {
         this.logger = Objects.requireNonNull(logger, "Logger cannot be null");
         this.originalRemoteAddress = Objects.requireNonNull(originalRemoteAddress, "Original remote address cannot be null");
@@ -78,71 +56,139 @@ public class ProxyProtocolProcessor {
 
     /**
      * Processes incoming data, attempting to parse the PROXY protocol header.
+     * When the whole header arrives in the first read, the data buffer is parsed in place
+     * and handed back as {@link #getRemainingData()} without copying; only a header that is
+     * split across reads is accumulated.
      *
-     * @param allocator The ByteBufAllocator to create the initial buffer if needed.
+     * @param allocator The ByteBufAllocator to create the accumulation buffer if needed.
      * @param data      The incoming data buffer. The caller *must release* this buffer
-     *                  after calling this method, unless it's incorporated into the
-     *                  ProcessingResult's remainingData.
-     * @return A ProcessingResult indicating the outcome.
+     *                  after calling this method, unless it is returned as {@link #getRemainingData()}.
+     * @return One of {@link #SUCCESS}, {@link #LOCAL}, {@link #FAILURE} or {@link #INCOMPLETE}.
      */
-    public ProcessingResult processData(ByteBufAllocator allocator, ByteBuf data) {
+    public int processData(ByteBufAllocator allocator, ByteBuf data) {
         if (processingComplete) {
             logger.warn("processData called after processing was already complete for {}", originalRemoteAddress);
-            return ProcessingResult.failure("Processing already complete");
+            return fail("Processing already complete");
         }
 
+        ByteBuf source;
         if (accumulator == null) {
-            accumulator = allocator.buffer(ProxyV2Parser.V2_MAX_HEADER_SIZE);
-            logger.trace("Allocated accumulator buffer for {}", originalRemoteAddress);
-        }
-
-        try {
-            accumulator.writeBytes(data);
-        } catch (IndexOutOfBoundsException e) {
-            logger.warn("PROXY header buffer write failed (likely exceeded max size {}) from {}. Closing connection.",
-                    ProxyV2Parser.V2_MAX_HEADER_SIZE, originalRemoteAddress);
-            processingComplete = true;
-            return ProcessingResult.failure("Header buffer write failed");
+            source = data; // Fast path, try to parse straight out of the read buffer
+        } else {
+            try {
+                accumulator.writeBytes(data);
+            } catch (IndexOutOfBoundsException e) {
+                logger.warn("PROXY header buffer write failed (likely exceeded max size {}) from {}. Closing connection.",
+                        ProxyV2Parser.V2_MAX_HEADER_SIZE, originalRemoteAddress);
+                processingComplete = true;
+                return fail("Header buffer write failed");
+            }
+            source = accumulator;
         }
 
-        ProxyParseResult parseResult = ProxyV2Parser.parse(accumulator);
+        ProxyParseResult parseResult = PARSE_RESULT.get();
+        // v1 starts with "PROXY ", v2 with a binary signature; anything else is rejected by the v2 parser
+        int parseStatus = ProxyV1Parser.looksLikeV1(source)
+                ? ProxyV1Parser.parse(source, parseResult)
+                : ProxyV2Parser.parse(source, parseResult);
 
-        switch (parseResult.getStatus()) {
-            case SUCCESS:
+        switch (parseStatus) {
+            case ProxyParseResult.SUCCESS:
                 processingComplete = true;
-                SocketAddress realAddress = parseResult.getRealAddress();
-                if (realAddress == null) {
-                    logger.error("PROXY header parsed successfully but real address is null from {}.", originalRemoteAddress);
-                    return ProcessingResult.failure("Parsed successfully but address is null");
+                try {
+                    realAddress = parseResult.toSourceSocketAddress();
+                } catch (UnknownHostException e) {
+                    logger.error("PROXY header parsed successfully but real address is invalid from {}.", originalRemoteAddress);
+                    return fail("Parsed successfully but address is invalid");
                 }
+                // TLV values are only copied out when the header carried ones we expose
+                tlvs = parseResult.readTlvs(source);
 
-                ByteBuf remainingData = null;
-                if (accumulator.isReadable()) {
-                    remainingData = accumulator.readRetainedSlice(accumulator.readableBytes());
-                    logger.trace("Passing {} bytes of remaining data after PROXY header for {}.", remainingData.readableBytes(), originalRemoteAddress);
-                } else {
-                    logger.trace("No remaining data after PROXY header for {}.", originalRemoteAddress);
-                }
-                return ProcessingResult.success(realAddress, remainingData);
+                takeRemainingData(source, data);
+                return SUCCESS;
+
+            case ProxyParseResult.UNIX_SOURCE:
+                // A real client all the same, but without an ip: never judged on the proxy's, which all its clients share
+                processingComplete = true;
+                realAddress = parseResult.toUnixSourceSocketAddress(source);
+                tlvs = parseResult.readTlvs(source);
+                logger.trace("PROXY header from {} relays unix socket client {}.", originalRemoteAddress, realAddress);
+                takeRemainingData(source, data);
+                return SUCCESS;
+
+            case ProxyParseResult.LOCAL:
+                processingComplete = true;
+                realAddress = originalRemoteAddress;
+                logger.trace("PROXY LOCAL header from {}.", originalRemoteAddress);
+                takeRemainingData(source, data);
+                return LOCAL;
 
-            case INCOMPLETE:
-                if (accumulator.readableBytes() > ProxyV2Parser.V2_MAX_HEADER_SIZE) {
+            case ProxyParseResult.INCOMPLETE:
+                if (source.readableBytes() > ProxyV2Parser.V2_MAX_HEADER_SIZE) {
                     logger.warn("PROXY header buffer exceeded max size ({}) from {}. Closing connection.",
                             ProxyV2Parser.V2_MAX_HEADER_SIZE, originalRemoteAddress);
                     processingComplete = true;
-                    return ProcessingResult.failure("Header too large");
+                    return fail("Header too large");
+                }
+                if (accumulator == null) {
+                    accumulator = allocator.buffer(ProxyV2Parser.V2_MAX_HEADER_SIZE);
+                    accumulator.writeBytes(data);
+                    logger.trace("Allocated accumulator buffer for {}", originalRemoteAddress);
                 }
                 logger.trace("PROXY header incomplete for {}, waiting for more data ({} bytes received).", originalRemoteAddress, accumulator.readableBytes());
-                return ProcessingResult.incomplete();
+                return INCOMPLETE;
 
             default: // INVALID or NOT_PROXY
-                logger.warn("Invalid or non-PROXY protocol header detected from {}. Status: {}",
-                        originalRemoteAddress, parseResult.getStatus());
+                logger.warn("Invalid or non-PROXY protocol header detected from {}. Status: {} ({})",
+                        originalRemoteAddress, ProxyParseResult.statusName(parseStatus), parseResult.getFailureReason());
                 processingComplete = true;
-                return ProcessingResult.failure("Invalid/Unsupported header (" + parseResult.getStatus() + ")");
+                return fail(parseStatus == ProxyParseResult.NOT_PROXY
+                        ? "Invalid/Unsupported header (NOT_PROXY)"
+                        : "Invalid/Unsupported header (INVALID)");
+        }
+    }
+
+    private void takeRemainingData(ByteBuf source, ByteBuf data) {
+        if (source.isReadable()) {
+            // Hand the read buffer itself over when we parsed in place, otherwise slice the accumulator
+            remainingData = source == data ? data : source.readRetainedSlice(source.readableBytes());
+            logger.trace("Passing {} bytes of remaining data after PROXY header for {}.", remainingData.readableBytes(), originalRemoteAddress);
+        } else {
+            logger.trace("No remaining data after PROXY header for {}.", originalRemoteAddress);
         }
     }
 
+    private int fail(String reason) {
+        this.failureReason = reason;
+        return FAILURE;
+    }
+
+    /**
+     * @return The real client address, only set after {@link #SUCCESS} (a {@code DomainSocketAddress} for a client
+     *         of the proxy's unix socket) or {@link #LOCAL} (the socket's own address).
+     */
+    public SocketAddress getRealAddress() {
+        return realAddress;
+    }
+
+    /**
+     * @return Bytes that followed the header, or null. Ownership passes to the caller on {@link #SUCCESS} and {@link #LOCAL};
+     *         this may be the very buffer given to {@link #processData}.
+     */
+    public ByteBuf getRemainingData() {
+        return remainingData;
+    }
+
+    /**
+     * @return The selected TLVs sent with the header, or null if there were none. Only set after {@link #SUCCESS}.
+     */
+    public ProxyTlvs getTlvs() {
+        return tlvs;
+    }
+
+    public String getFailureReason() {
+        return failureReason;
+    }
 
     public void releaseResources() {
         if (accumulator != null) {
@@ -150,12 +196,13 @@ public class ProxyProtocolProcessor {
             accumulator = null;
             logger.trace("Released accumulator buffer for {}", originalRemoteAddress);
         }
+        remainingData = null; // Owned by the caller once returned
         processingComplete = true; // Ensure no further processing attempts
     }
 
     public boolean isProcessingComplete() {
         return processingComplete;
     }
-    
-    
-}
\ No newline at end of file
+
+
+}
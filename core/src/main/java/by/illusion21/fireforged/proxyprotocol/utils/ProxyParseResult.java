@@ -1,53 +1,236 @@
 package by.illusion21.fireforged.proxyprotocol.utils;
 
-import java.net.SocketAddress;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.unix.DomainSocketAddress;
 
-public class ProxyParseResult {
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
 
-    public enum Status {
-        SUCCESS,      // Header parsed successfully
-        INCOMPLETE,   // Need more data
-        NOT_PROXY,    // Data doesn't start with PROXY signature/command
-        INVALID       // Header started but is malformed
+/// Reusable holder the parser writes the decoded header into.
+/// Addresses and ports are kept as raw bytes / primitives so a parse does not allocate;
+/// only [#toSourceSocketAddress()] materialises an address object, and only when asked.
+/// NOTE: Instances are NOT thread-safe, keep one per event loop (or per caller).
+public final class ProxyParseResult {
+
+    // Status codes returned by the parsers
+    public static final int SUCCESS = 0;     // Header parsed successfully
+    public static final int INCOMPLETE = 1;  // Need more data
+    public static final int NOT_PROXY = 2;   // Data doesn't start with PROXY signature/command
+    public static final int INVALID = 3;     // Header started but is malformed
+    public static final int LOCAL = 4;       // Complete header sent by the proxy for itself (v2 LOCAL, v1 UNKNOWN), no client address
+    public static final int UNIX_SOURCE = 5; // Complete header relaying a client of the proxy's unix socket, no ip to use
+
+    public static final int IPV4_LENGTH = 4;
+    public static final int IPV6_LENGTH = 16;
+    public static final int UNIX_PATH_LENGTH = 108; // sun_path, NUL padded
+
+    private final byte[] sourceAddress = new byte[IPV6_LENGTH];
+    private final byte[] destinationAddress = new byte[IPV6_LENGTH];
+    private int addressLength; // 4 or 16, 0 if nothing has been parsed
+    private int sourcePort;
+    private int destinationPort;
+    private int unixPathsOffset; // Absolute index of the AF_UNIX source path, the destination path follows. -1 if none
+    private String failureReason; // Only constant strings are stored here, never built per call
+
+    // TLV positions, absolute indexes into the parsed buffer. Values are only read on demand by readTlvs
+    private int authorityOffset, authorityLength;
+    private int uniqueIdOffset, uniqueIdLength;
+    private final int[] customOffsets = new int[ProxyTlvParser.CUSTOM_TYPE_COUNT];
+    private final int[] customLengths = new int[ProxyTlvParser.CUSTOM_TYPE_COUNT];
+    private int customMask; // bit n set = custom type (PP2_TYPE_MIN_CUSTOM + n) present
+
+    private final CRC32C crc32c = new CRC32C(); // recycled together with the holder
+
+    public void reset() {
+        addressLength = 0;
+        sourcePort = 0;
+        destinationPort = 0;
+        unixPathsOffset = -1;
+        failureReason = null;
+        authorityOffset = -1;
+        uniqueIdOffset = -1;
+        customMask = 0;
+    }
+
+    /**
+     * Copies an address block straight from the header into the holder.
+     * Called by the parsers only.
+     */
+    void setAddresses(ByteBuf buffer, int offset, int length) {
+        this.addressLength = length;
+        buffer.getBytes(offset, sourceAddress, 0, length);
+        buffer.getBytes(offset + length, destinationAddress, 0, length);
+    }
+
+    /**
+     * Lets text parsers decode addresses directly into the holder. Called by the parsers only.
+     */
+    byte[] sourceAddressBytes() {
+        return sourceAddress;
     }
 
-    private final Status status;
-    private final SocketAddress realAddress; // Only valid if status is SUCCESS
+    byte[] destinationAddressBytes() {
+        return destinationAddress;
+    }
 
-    // Private constructors, use static factory methods
-    private ProxyParseResult(Status status, SocketAddress realAddress, String ignoredErrorReason) {
-        this.status = status;
-        this.realAddress = realAddress;
-        // Optional reason for INVALID
+    void setAddressLength(int length) {
+        this.addressLength = length;
     }
 
-    public static ProxyParseResult success(SocketAddress realAddress) {
-        return new ProxyParseResult(Status.SUCCESS, realAddress, null);
+    void setUnixPaths(int offset) {
+        this.unixPathsOffset = offset;
     }
 
-    public static ProxyParseResult incomplete() {
-        return new ProxyParseResult(Status.INCOMPLETE, null, null);
+    void setPorts(int sourcePort, int destinationPort) {
+        this.sourcePort = sourcePort;
+        this.destinationPort = destinationPort;
     }
 
-    public static ProxyParseResult notProxy() {
-        return new ProxyParseResult(Status.NOT_PROXY, null, null);
+    void setAuthority(int offset, int length) {
+        this.authorityOffset = offset;
+        this.authorityLength = length;
     }
 
-    public static ProxyParseResult notProxy(String reason) {
-        return new ProxyParseResult(Status.NOT_PROXY, null, reason);
+    void setUniqueId(int offset, int length) {
+        this.uniqueIdOffset = offset;
+        this.uniqueIdLength = length;
     }
 
-    public static ProxyParseResult invalid(String reason) {
-        return new ProxyParseResult(Status.INVALID, null, reason);
+    void setCustom(int index, int offset, int length) {
+        this.customOffsets[index] = offset;
+        this.customLengths[index] = length;
+        this.customMask |= 1 << index;
     }
 
-    public Status getStatus() {
+    CRC32C crc32c() {
+        return crc32c;
+    }
+
+    /**
+     * Records why a parse failed and returns the given status, so parsers can {@code return fail(...)}.
+     */
+    int fail(int status, String reason) {
+        this.failureReason = reason;
         return status;
     }
 
-    public SocketAddress getRealAddress() {
-        // Consider adding check: if (status != Status.SUCCESS) throw new IllegalStateException();
-        return realAddress;
+    /**
+     * @return 4 for IPv4, 16 for IPv6, 0 if no address has been parsed.
+     */
+    public int getAddressLength() {
+        return addressLength;
+    }
+
+    /**
+     * @param index byte index, must be below {@link #getAddressLength()}
+     * @return the source address byte at index
+     */
+    public byte getSourceAddressByte(int index) {
+        return sourceAddress[index];
+    }
+
+    /**
+     * @param index byte index, must be below {@link #getAddressLength()}
+     * @return the destination address byte at index
+     */
+    public byte getDestinationAddressByte(int index) {
+        return destinationAddress[index];
+    }
+
+    public int getSourcePort() {
+        return sourcePort;
+    }
+
+    public int getDestinationPort() {
+        return destinationPort;
+    }
+
+    public String getFailureReason() {
+        return failureReason;
+    }
+
+    /**
+     * Materialises the source address. This is the only allocation done on the success path.
+     *
+     * @return The real client address carried by the header.
+     * @throws UnknownHostException if no address has been parsed.
+     */
+    public InetSocketAddress toSourceSocketAddress() throws UnknownHostException {
+        if (addressLength == 0) {
+            throw new UnknownHostException("No address parsed");
+        }
+        return new InetSocketAddress(InetAddress.getByAddress(Arrays.copyOf(sourceAddress, addressLength)), sourcePort);
+    }
+
+    /**
+     * Materialises the source of an AF_UNIX header. The address is deliberately not an ip one: the client has no ip,
+     * and the proxy's own must not stand in for it, so limits and bans skip it like unix socket peers.
+     *
+     * @param buffer The buffer given to the parser.
+     * @return The client's socket path, or the proxy's frontend socket path when the client's socket is unnamed.
+     */
+    public DomainSocketAddress toUnixSourceSocketAddress(ByteBuf buffer) {
+        String path = readUnixPath(buffer, unixPathsOffset);
+        return new DomainSocketAddress(path.isEmpty() ? readUnixPath(buffer, unixPathsOffset + UNIX_PATH_LENGTH) : path);
     }
 
-}
\ No newline at end of file
+    private static String readUnixPath(ByteBuf buffer, int offset) {
+        int end = buffer.indexOf(offset, offset + UNIX_PATH_LENGTH, (byte) 0);
+        return buffer.toString(offset, (end < 0 ? offset + UNIX_PATH_LENGTH : end) - offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return true if the header carried any TLV that {@link #readTlvs} would expose.
+     */
+    public boolean hasSelectedTlvs() {
+        return authorityOffset >= 0 || uniqueIdOffset >= 0 || customMask != 0;
+    }
+
+    /**
+     * Materialises the selected TLVs. Must be called with the buffer that was just parsed,
+     * before it is released or its bytes are discarded.
+     *
+     * @param buffer The buffer given to the parser.
+     * @return The selected TLVs, or null when the header carried none.
+     */
+    public ProxyTlvs readTlvs(ByteBuf buffer) {
+        if (!hasSelectedTlvs()) {
+            return null;
+        }
+        String authority = authorityOffset < 0 ? null
+                : buffer.toString(authorityOffset, authorityLength, StandardCharsets.UTF_8);
+        byte[] uniqueId = uniqueIdOffset < 0 ? null : readBytes(buffer, uniqueIdOffset, uniqueIdLength);
+        byte[][] custom = null;
+        if (customMask != 0) {
+            custom = new byte[ProxyTlvParser.CUSTOM_TYPE_COUNT][];
+            for (int i = 0; i < ProxyTlvParser.CUSTOM_TYPE_COUNT; i++) {
+                if ((customMask & (1 << i)) != 0) {
+                    custom[i] = readBytes(buffer, customOffsets[i], customLengths[i]);
+                }
+            }
+        }
+        return new ProxyTlvs(authority, uniqueId, custom);
+    }
+
+    private static byte[] readBytes(ByteBuf buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.getBytes(offset, bytes);
+        return bytes;
+    }
+
+    public static String statusName(int status) {
+        return switch (status) {
+            case SUCCESS -> "SUCCESS";
+            case INCOMPLETE -> "INCOMPLETE";
+            case NOT_PROXY -> "NOT_PROXY";
+            case INVALID -> "INVALID";
+            case LOCAL -> "LOCAL";
+            case UNIX_SOURCE -> "UNIX_SOURCE";
+            default -> "UNKNOWN(" + status + ")";
+        };
+    }
+}
@@ -0,0 +1,104 @@
+package by.illusion21.fireforged.proxyprotocol.utils;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.zip.CRC32C;
+
+import static by.illusion21.fireforged.proxyprotocol.utils.ProxyParseResult.*;
+
+/// Walks the TLV vectors that follow the address block of a PROXY v2 header.
+/// Nothing is copied here: only the positions of the TLVs we care about are recorded
+/// in the [ProxyParseResult], the values are read later through [ProxyParseResult#readTlvs].
+/// A PP2_TYPE_CRC32C TLV, when present, is verified against the whole header.
+public class ProxyTlvParser {
+    // TLV types, see section 2.2 of the PROXY protocol spec
+    public static final int PP2_TYPE_ALPN = 0x01;
+    public static final int PP2_TYPE_AUTHORITY = 0x02;
+    public static final int PP2_TYPE_CRC32C = 0x03;
+    public static final int PP2_TYPE_NOOP = 0x04;
+    public static final int PP2_TYPE_UNIQUE_ID = 0x05;
+    public static final int PP2_TYPE_SSL = 0x20;
+    public static final int PP2_TYPE_NETNS = 0x30;
+    public static final int PP2_TYPE_MIN_CUSTOM = 0xE0;
+    public static final int PP2_TYPE_MAX_CUSTOM = 0xEF;
+    public static final int CUSTOM_TYPE_COUNT = PP2_TYPE_MAX_CUSTOM - PP2_TYPE_MIN_CUSTOM + 1;
+
+    private static final int TLV_HEADER_SIZE = 3; // type (1) + length (2)
+    private static final int UNIQUE_ID_MAX_LENGTH = 128; // Spec limit
+    private static final byte[] ZERO_CRC = new byte[4];
+
+    /**
+     * Parses the TLV area of a PROXY v2 header.
+     *
+     * @param buffer      The buffer holding the complete header.
+     * @param headerStart Index of the first signature byte.
+     * @param tlvStart    Index of the first TLV, right after the address block.
+     * @param headerEnd   Index right after the last header byte.
+     * @param result      The holder to record TLV positions into.
+     * @return {@link ProxyParseResult#SUCCESS} or {@link ProxyParseResult#INVALID}.
+     */
+    static int parse(ByteBuf buffer, int headerStart, int tlvStart, int headerEnd, ProxyParseResult result) {
+        int crcValueOffset = -1;
+        int offset = tlvStart;
+
+        while (offset < headerEnd) {
+            if (offset + TLV_HEADER_SIZE > headerEnd) {
+                return result.fail(INVALID, "Truncated TLV header");
+            }
+            int type = buffer.getUnsignedByte(offset);
+            int length = buffer.getUnsignedShort(offset + 1);
+            int valueOffset = offset + TLV_HEADER_SIZE;
+            if (valueOffset + length > headerEnd) {
+                return result.fail(INVALID, "TLV value exceeds header length");
+            }
+
+            switch (type) {
+                case PP2_TYPE_CRC32C:
+                    if (length != 4) return result.fail(INVALID, "Bad CRC32C TLV length");
+                    crcValueOffset = valueOffset;
+                    break;
+                case PP2_TYPE_AUTHORITY:
+                    result.setAuthority(valueOffset, length);
+                    break;
+                case PP2_TYPE_UNIQUE_ID:
+                    if (length > UNIQUE_ID_MAX_LENGTH) return result.fail(INVALID, "UNIQUE_ID TLV too long");
+                    result.setUniqueId(valueOffset, length);
+                    break;
+                default:
+                    if (type >= PP2_TYPE_MIN_CUSTOM && type <= PP2_TYPE_MAX_CUSTOM) {
+                        result.setCustom(type - PP2_TYPE_MIN_CUSTOM, valueOffset, length);
+                    }
+                    // ALPN, NOOP, SSL, NETNS and the rest are skipped without being looked at
+                    break;
+            }
+            offset = valueOffset + length;
+        }
+
+        if (crcValueOffset >= 0 && !checksumMatches(buffer, headerStart, crcValueOffset, headerEnd, result.crc32c())) {
+            return result.fail(INVALID, "CRC32C mismatch");
+        }
+        return SUCCESS;
+    }
+
+    /**
+     * The checksum covers the whole header with the CRC32C value itself replaced by zeroes.
+     */
+    private static boolean checksumMatches(ByteBuf buffer, int headerStart, int crcValueOffset, int headerEnd, CRC32C crc) {
+        crc.reset();
+        update(crc, buffer, headerStart, crcValueOffset - headerStart);
+        crc.update(ZERO_CRC, 0, ZERO_CRC.length);
+        update(crc, buffer, crcValueOffset + 4, headerEnd - crcValueOffset - 4);
+        return (int) crc.getValue() == buffer.getInt(crcValueOffset);
+    }
+
+    private static void update(CRC32C crc, ByteBuf buffer, int index, int length) {
+        if (length == 0) {
+            return;
+        }
+        if (buffer.hasArray()) {
+            crc.update(buffer.array(), buffer.arrayOffset() + index, length);
+        } else {
+            crc.update(buffer.nioBuffer(index, length));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package by.illusion21.fireforged.proxyprotocol.utils;
+
+import java.util.HexFormat;
+
+/// The PROXY v2 TLVs we keep for a connection after the header has been consumed.
+/// Only built when the header actually carried one of them, see [ProxyParseResult#readTlvs].
+public final class ProxyTlvs {
+    private final String authority;
+    private final byte[] uniqueId;
+    private final byte[][] custom; // indexed by type - PP2_TYPE_MIN_CUSTOM, null if no custom TLV was sent
+
+    ProxyTlvs(String authority, byte[] uniqueId, byte[][] custom) {
+        this.authority = authority;
+        this.uniqueId = uniqueId;
+        this.custom = custom;
+    }
+
+    /**
+     * @return The host name the client asked the proxy for (PP2_TYPE_AUTHORITY), or null.
+     */
+    public String getAuthority() {
+        return authority;
+    }
+
+    /**
+     * @return The proxy's connection id (PP2_TYPE_UNIQUE_ID) as hex, or null.
+     */
+    public String getUniqueIdHex() {
+        return uniqueId == null ? null : HexFormat.of().formatHex(uniqueId);
+    }
+
+    /**
+     * @param type A custom TLV type between PP2_TYPE_MIN_CUSTOM and PP2_TYPE_MAX_CUSTOM.
+     * @return true if the proxy sent this custom TLV.
+     */
+    public boolean hasCustom(int type) {
+        return getCustomValue(type) != null;
+    }
+
+    /**
+     * Reads a custom TLV used as a flag by our frontends, e.g. "client was already rate-limited".
+     *
+     * @param type A custom TLV type between PP2_TYPE_MIN_CUSTOM and PP2_TYPE_MAX_CUSTOM.
+     * @return true if the TLV is present and its first byte is non-zero.
+     */
+    public boolean isCustomFlagSet(int type) {
+        byte[] value = getCustomValue(type);
+        return value != null && value.length > 0 && value[0] != 0;
+    }
+
+    private byte[] getCustomValue(int type) {
+        if (custom == null || type < ProxyTlvParser.PP2_TYPE_MIN_CUSTOM || type > ProxyTlvParser.PP2_TYPE_MAX_CUSTOM) {
+            return null;
+        }
+        return custom[type - ProxyTlvParser.PP2_TYPE_MIN_CUSTOM];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ProxyTlvs{");
+        if (authority != null) sb.append("authority=").append(authority).append(' ');
+        if (uniqueId != null) sb.append("uniqueId=").append(getUniqueIdHex()).append(' ');
+        if (custom != null) {
+            for (int i = 0; i < custom.length; i++) {
+                if (custom[i] != null) {
+                    sb.append(String.format("0x%02X", ProxyTlvParser.PP2_TYPE_MIN_CUSTOM + i))
+                            .append('=').append(HexFormat.of().formatHex(custom[i])).append(' ');
+                }
+            }
+        }
+        if (sb.charAt(sb.length() - 1) == ' ') sb.setLength(sb.length() - 1);
+        return sb.append('}').toString();
+    }
+}
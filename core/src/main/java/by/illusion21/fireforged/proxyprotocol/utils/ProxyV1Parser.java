@@ -0,0 +1,241 @@
+package by.illusion21.fireforged.proxyprotocol.utils;
+
+import io.netty.buffer.ByteBuf;
+
+import static by.illusion21.fireforged.proxyprotocol.utils.ProxyParseResult.*;
+
+/// Parser for the human-readable PROXY protocol v1 header, e.g.
+/// `PROXY TCP4 192.168.0.1 192.168.0.11 56324 443\r\n`.
+/// The line is scanned byte by byte straight from the buffer and the addresses are decoded
+/// into the [ProxyParseResult] holder, no String is ever built.
+public class ProxyV1Parser {
+    private static final byte[] V1_PREFIX = {'P', 'R', 'O', 'X', 'Y', ' '};
+    public static final int V1_MAX_HEADER_SIZE = 107; // Worst case line length including CRLF, per spec
+
+    private static final byte[] PROTO_TCP4 = {'T', 'C', 'P', '4'};
+    private static final byte[] PROTO_TCP6 = {'T', 'C', 'P', '6'};
+    private static final byte[] PROTO_UNKNOWN = {'U', 'N', 'K', 'N', 'O', 'W', 'N'};
+
+    /**
+     * @return true if the readable bytes could be the start of a v1 header.
+     */
+    public static boolean looksLikeV1(ByteBuf buffer) {
+        return buffer.isReadable() && buffer.getByte(buffer.readerIndex()) == V1_PREFIX[0];
+    }
+
+    /**
+     * Attempts to parse a v1 header from the buffer into a caller-owned holder.
+     * IMPORTANT: This method advances the readerIndex of the buffer ONLY if a
+     * complete and valid header is found and consumed.
+     *
+     * @param buffer The buffer containing potential header data.
+     * @param result The holder to write addresses and ports into, reset by this call.
+     * @return One of the {@link ProxyParseResult} status codes.
+     */
+    public static int parse(ByteBuf buffer, ProxyParseResult result) {
+        result.reset();
+        int start = buffer.readerIndex();
+        int readable = buffer.readableBytes();
+
+        // 1. Check the "PROXY " prefix, as far as we have it
+        int prefixCheck = Math.min(readable, V1_PREFIX.length);
+        for (int i = 0; i < prefixCheck; i++) {
+            if (buffer.getByte(start + i) != V1_PREFIX[i]) {
+                return result.fail(NOT_PROXY, "Bad signature");
+            }
+        }
+
+        // 2. Find the terminating LF within the maximum line length
+        int scanEnd = start + Math.min(readable, V1_MAX_HEADER_SIZE);
+        int lf = buffer.indexOf(start, scanEnd, (byte) '\n');
+        if (lf < 0) {
+            return readable >= V1_MAX_HEADER_SIZE ? result.fail(INVALID, "v1 header too long") : INCOMPLETE;
+        }
+        if (lf == start || buffer.getByte(lf - 1) != '\r') {
+            return result.fail(INVALID, "v1 header not terminated by CRLF");
+        }
+        int lineEnd = lf - 1; // Index of CR
+
+        // 3. Protocol token
+        int tokenStart = start + V1_PREFIX.length;
+        int tokenEnd = nextSpace(buffer, tokenStart, lineEnd);
+        int addressLength;
+        if (tokenMatches(buffer, tokenStart, tokenEnd, PROTO_TCP4)) {
+            addressLength = IPV4_LENGTH;
+        } else if (tokenMatches(buffer, tokenStart, tokenEnd, PROTO_TCP6)) {
+            addressLength = IPV6_LENGTH;
+        } else if (tokenMatches(buffer, tokenStart, tokenEnd, PROTO_UNKNOWN)) {
+            // Proxy could not tell us the client (or it is checking on us), whatever follows must be ignored
+            buffer.readerIndex(lf + 1);
+            return LOCAL;
+        } else {
+            return result.fail(INVALID, "Unsupported v1 protocol");
+        }
+
+        // 4. Source and destination addresses
+        tokenStart = tokenEnd + 1;
+        tokenEnd = nextSpace(buffer, tokenStart, lineEnd);
+        if (tokenEnd >= lineEnd || !parseAddress(buffer, tokenStart, tokenEnd, addressLength, result.sourceAddressBytes())) {
+            return result.fail(INVALID, "Bad v1 source address");
+        }
+        tokenStart = tokenEnd + 1;
+        tokenEnd = nextSpace(buffer, tokenStart, lineEnd);
+        if (tokenEnd >= lineEnd || !parseAddress(buffer, tokenStart, tokenEnd, addressLength, result.destinationAddressBytes())) {
+            return result.fail(INVALID, "Bad v1 destination address");
+        }
+
+        // 5. Ports, the destination port ends the line
+        tokenStart = tokenEnd + 1;
+        tokenEnd = nextSpace(buffer, tokenStart, lineEnd);
+        if (tokenEnd >= lineEnd) {
+            return result.fail(INVALID, "Missing v1 destination port");
+        }
+        int sourcePort = parsePort(buffer, tokenStart, tokenEnd);
+        int destinationPort = parsePort(buffer, tokenEnd + 1, lineEnd);
+        if (sourcePort < 0 || destinationPort < 0) {
+            return result.fail(INVALID, "Bad v1 port");
+        }
+
+        result.setAddressLength(addressLength);
+        result.setPorts(sourcePort, destinationPort);
+
+        // CRITICAL: Advance the reader index past the consumed line
+        buffer.readerIndex(lf + 1);
+        return SUCCESS;
+    }
+
+    private static int nextSpace(ByteBuf buffer, int from, int lineEnd) {
+        int space = buffer.indexOf(from, lineEnd, (byte) ' ');
+        return space < 0 ? lineEnd : space;
+    }
+
+    private static boolean tokenMatches(ByteBuf buffer, int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer.getByte(start + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean parseAddress(ByteBuf buffer, int start, int end, int addressLength, byte[] out) {
+        return addressLength == IPV4_LENGTH
+                ? parseIpv4(buffer, start, end, out, 0)
+                : parseIpv6(buffer, start, end, out);
+    }
+
+    /**
+     * Parses a dotted quad into out[offset..offset + 4).
+     */
+    private static boolean parseIpv4(ByteBuf buffer, int start, int end, byte[] out, int offset) {
+        int i = start;
+        for (int octet = 0; octet < 4; octet++) {
+            if (octet > 0) {
+                if (i >= end || buffer.getByte(i) != '.') return false;
+                i++;
+            }
+            int value = 0;
+            int digits = 0;
+            while (i < end && digits < 4) {
+                int digit = buffer.getByte(i) - '0';
+                if (digit < 0 || digit > 9) break;
+                value = value * 10 + digit;
+                digits++;
+                i++;
+            }
+            if (digits == 0 || digits > 3 || value > 255) return false;
+            out[offset + octet] = (byte) value;
+        }
+        return i == end;
+    }
+
+    /**
+     * Parses an RFC 4291 text address (with "::" compression and an optional dotted quad tail) into out[0..16).
+     */
+    private static boolean parseIpv6(ByteBuf buffer, int start, int end, byte[] out) {
+        int groups = 0;
+        int compressAt = -1;
+        int i = start;
+
+        if (i < end && buffer.getByte(i) == ':') {
+            if (i + 1 >= end || buffer.getByte(i + 1) != ':') return false;
+            compressAt = 0;
+            i += 2;
+        }
+
+        while (i < end) {
+            int groupStart = i;
+            int value = 0;
+            int digits = 0;
+            while (i < end && digits <= 4) {
+                int hex = hexValue(buffer.getByte(i));
+                if (hex < 0) break;
+                value = (value << 4) | hex;
+                digits++;
+                i++;
+            }
+            if (i < end && buffer.getByte(i) == '.') {
+                // Embedded IPv4 takes the last two groups
+                if (groups > 6 || !parseIpv4(buffer, groupStart, end, out, groups * 2)) return false;
+                groups += 2;
+                break;
+            }
+            if (digits == 0 || digits > 4 || groups >= 8) return false;
+            out[groups * 2] = (byte) (value >>> 8);
+            out[groups * 2 + 1] = (byte) value;
+            groups++;
+
+            if (i == end) break;
+            if (buffer.getByte(i) != ':') return false;
+            i++;
+            if (i < end && buffer.getByte(i) == ':') {
+                if (compressAt >= 0) return false; // Only one "::" allowed
+                compressAt = groups;
+                i++;
+            } else if (i == end) {
+                return false; // Trailing single colon
+            }
+        }
+
+        if (compressAt < 0) {
+            return groups == 8;
+        }
+        if (groups > 7) {
+            return false;
+        }
+        // Move the groups after "::" to the end and zero the gap
+        int tailBytes = (groups - compressAt) * 2;
+        System.arraycopy(out, compressAt * 2, out, IPV6_LENGTH - tailBytes, tailBytes);
+        for (int b = compressAt * 2; b < IPV6_LENGTH - tailBytes; b++) {
+            out[b] = 0;
+        }
+        return true;
+    }
+
+    private static int hexValue(byte b) {
+        if (b >= '0' && b <= '9') return b - '0';
+        if (b >= 'a' && b <= 'f') return b - 'a' + 10;
+        if (b >= 'A' && b <= 'F') return b - 'A' + 10;
+        return -1;
+    }
+
+    /**
+     * @return the port, or -1 if the token is not a decimal number in 0..65535.
+     */
+    private static int parsePort(ByteBuf buffer, int start, int end) {
+        int length = end - start;
+        if (length < 1 || length > 5) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buffer.getByte(i) - '0';
+            if (digit < 0 || digit > 9) return -1;
+            value = value * 10 + digit;
+        }
+        return value > 65535 ? -1 : value;
+    }
+}
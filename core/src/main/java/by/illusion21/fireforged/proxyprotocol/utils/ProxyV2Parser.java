@@ -2,12 +2,8 @@ package by.illusion21.fireforged.proxyprotocol.utils;
 
 import io.netty.buffer.ByteBuf;
 
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.SocketAddress;
-import java.net.UnknownHostException;
+import static by.illusion21.fireforged.proxyprotocol.utils.ProxyParseResult.*;
 
-@SuppressWarnings("ReassignedVariable")
 public class ProxyV2Parser {
     // HAProxy v2 constants
     private static final byte[] V2_SIGNATURE = {
@@ -17,47 +13,59 @@ public class ProxyV2Parser {
     };
     private static final int V2_SIGNATURE_LENGTH = V2_SIGNATURE.length; // 12
     private static final int V2_HEADER_MIN_SIZE = 16; // Signature + version/cmd + family/proto + length
-    public static final int V2_MAX_HEADER_SIZE = 216 + V2_HEADER_MIN_SIZE; // Max addr info len = 216
+    private static final int V2_MAX_ADDRESS_SIZE = 216; // Max addr info len = 216 (AF_UNIX)
+    private static final int V2_MAX_TLV_SIZE = 1024; // We don't expect proxies to send more than a few small TLVs
+    public static final int V2_MAX_HEADER_SIZE = V2_HEADER_MIN_SIZE + V2_MAX_ADDRESS_SIZE + V2_MAX_TLV_SIZE;
+    private static final int INET_ADDRESS_BLOCK_SIZE = 12;
+    private static final int INET6_ADDRESS_BLOCK_SIZE = 36;
+    private static final int UNIX_ADDRESS_BLOCK_SIZE = 216; // Two 108 byte sun_path fields
+
+    private static final int CMD_LOCAL = 0x00; // Sent by the proxy for its own connections, e.g. health checks
+    private static final int CMD_PROXY = 0x01;
 
     // Version 2, PROXY command
     private static final byte AF_INET = 0x10;
     private static final byte AF_INET6 = 0x20;
+    private static final byte AF_UNIX = 0x30;
     private static final byte AF_UNSPEC = 0x00; // LOCAL command often uses UNSPEC
     private static final byte PROTO_TCP = 0x01;
     private static final byte PROTO_UNSPEC = 0x00;
 
     /**
-     * Attempts to parse a HAProxy v2 header from the buffer.
+     * Attempts to parse a HAProxy v2 header from the buffer into a caller-owned holder.
      * IMPORTANT: This method advances the readerIndex of the buffer ONLY if a
      * complete and valid header is found and consumed.
+     * Nothing is allocated; the addresses are copied into the holder's fixed arrays.
      *
      * @param buffer The buffer containing potential header data.
-     * @return A ProxyParseResult indicating success, failure, or incomplete data.
+     * @param result The holder to write addresses and ports into, reset by this call.
+     * @return One of the {@link ProxyParseResult} status codes.
      */
-    public static ProxyParseResult parse(ByteBuf buffer) {
+    public static int parse(ByteBuf buffer, ProxyParseResult result) {
+        result.reset();
         int initialReaderIndex = buffer.readerIndex();
 
         // 1. Check minimum length for signature + basic fields
         if (buffer.readableBytes() < V2_HEADER_MIN_SIZE) {
-            return ProxyParseResult.incomplete();
+            return INCOMPLETE;
         }
 
         // 2. Check signature
         for (int i = 0; i < V2_SIGNATURE_LENGTH; i++) {
             if (buffer.getByte(initialReaderIndex + i) != V2_SIGNATURE[i]) {
                 // Doesn't match the required signature
-                return ProxyParseResult.notProxy();
+                return result.fail(NOT_PROXY, "Bad signature");
             }
         }
 
         // 3. Check Version and Command byte
         byte versionAndCommand = buffer.getByte(initialReaderIndex + V2_SIGNATURE_LENGTH);
         if ((versionAndCommand & 0xF0) != 0x20) { // Check version bits (must be 2)
-            return ProxyParseResult.invalid("Invalid PROXY v2 version");
+            return result.fail(INVALID, "Invalid PROXY v2 version");
         }
-        if ((versionAndCommand & 0x0F) != 0x01) { // Check command bits (must be 0x01 for PROXY)
-            // Could be 0x00 for LOCAL command, handle if needed, otherwise treat as invalid/not proxy
-            return ProxyParseResult.notProxy("Not PROXY command"); // Or invalid
+        int command = versionAndCommand & 0x0F;
+        if (command != CMD_PROXY && command != CMD_LOCAL) {
+            return result.fail(NOT_PROXY, "Not PROXY command");
         }
 
         // 4. Read Address Family and Protocol
@@ -67,7 +75,7 @@ public class ProxyV2Parser {
 
         // We primarily care about TCP for Minecraft
         if (proto != PROTO_TCP && proto != PROTO_UNSPEC) {
-            return ProxyParseResult.invalid("Unsupported PROXY protocol (expected TCP)");
+            return result.fail(INVALID, "Unsupported PROXY protocol (expected TCP)");
         }
 
         // 5. Read Address Info Length
@@ -76,60 +84,69 @@ public class ProxyV2Parser {
         // 6. Check if we have enough data for the full header including address info
         int totalHeaderSize = V2_HEADER_MIN_SIZE + addressInfoLength;
         if (buffer.readableBytes() < totalHeaderSize) {
-            return ProxyParseResult.incomplete();
+            return INCOMPLETE;
         }
 
         // --- We have the full header data ---
 
+        if (command == CMD_LOCAL) {
+            // Address info and TLVs must be ignored, the socket's own address applies
+            buffer.readerIndex(initialReaderIndex + totalHeaderSize);
+            return LOCAL;
+        }
+
         // 7. Parse Address Info based on family
-        SocketAddress sourceAddress;
-        // might not need destination
         int addressInfoOffset = initialReaderIndex + V2_HEADER_MIN_SIZE;
+        int addressBlockSize;
+
+        switch (family) {
+            case AF_INET: // IPv4
+                // Expected structure: src_addr (4), dst_addr (4), src_port (2), dst_port (2) = 12 bytes
+                if (addressInfoLength < INET_ADDRESS_BLOCK_SIZE) return result.fail(INVALID, "INET address info too short");
+                result.setAddresses(buffer, addressInfoOffset, IPV4_LENGTH);
+                result.setPorts(buffer.getUnsignedShort(addressInfoOffset + 8), buffer.getUnsignedShort(addressInfoOffset + 10));
+                addressBlockSize = INET_ADDRESS_BLOCK_SIZE;
+                break;
+
+            case AF_INET6: // IPv6, unlikely from frpc
+                // Expected structure: src_addr (16), dst_addr (16), src_port (2), dst_port (2) = 36 bytes
+                if (addressInfoLength < INET6_ADDRESS_BLOCK_SIZE) return result.fail(INVALID, "INET6 address info too short");
+                result.setAddresses(buffer, addressInfoOffset, IPV6_LENGTH);
+                result.setPorts(buffer.getUnsignedShort(addressInfoOffset + 32), buffer.getUnsignedShort(addressInfoOffset + 34));
+                addressBlockSize = INET6_ADDRESS_BLOCK_SIZE;
+                break;
+
+            case AF_UNIX:
+                // The client reached the proxy through a unix socket of its own, there is no ip to judge.
+                // Per spec the receiver falls back to the real connection endpoints, but those are the proxy's
+                if (addressInfoLength < UNIX_ADDRESS_BLOCK_SIZE) return result.fail(INVALID, "UNIX address info too short");
+                result.setUnixPaths(addressInfoOffset);
+                addressBlockSize = UNIX_ADDRESS_BLOCK_SIZE;
+                break;
+
+            case AF_UNSPEC: // Usually for LOCAL command, no address info expected? Or Unix socket path?
+                // For PROXY command with UNSPEC, behavior might vary. Assume no useful IP.
+                // If frpc sends this, will need to know what data follows.
+                // Treat as invalid or (handle specifically if frpc uses it meaningfully - no waaaaaaaay) .
+                return result.fail(INVALID, "UNSPEC address family not handled");
+
+            default:
+                return result.fail(INVALID, "Unknown address family");
+        }
 
-        try {
-            switch (family) {
-                case AF_INET: // IPv4
-                    // Expected structure: src_addr (4), dst_addr (4), src_port (2), dst_port (2) = 12 bytes
-                    if (addressInfoLength < 12) return ProxyParseResult.invalid("INET address info too short");
-                    byte[] srcIp4 = new byte[4];
-                    byte[] dstIp4 = new byte[4];
-                    buffer.getBytes(addressInfoOffset, srcIp4);
-                    buffer.getBytes(addressInfoOffset + 4, dstIp4);
-                    int srcPort4 = buffer.getUnsignedShort(addressInfoOffset + 8);
-                    sourceAddress = new InetSocketAddress(InetAddress.getByAddress(srcIp4), srcPort4);
-                    break;
-
-                case AF_INET6: // IPv6, unlikely from frpc
-                    // Expected structure: src_addr (16), dst_addr (16), src_port (2), dst_port (2) = 36 bytes
-                    if (addressInfoLength < 36) return ProxyParseResult.invalid("INET6 address info too short");
-                    byte[] srcIp6 = new byte[16];
-                    byte[] dstIp6 = new byte[16];
-                    buffer.getBytes(addressInfoOffset, srcIp6);
-                    buffer.getBytes(addressInfoOffset + 16, dstIp6);
-                    int srcPort6 = buffer.getUnsignedShort(addressInfoOffset + 32);
-                    sourceAddress = new InetSocketAddress(InetAddress.getByAddress(srcIp6), srcPort6);
-                    break;
-
-                case AF_UNSPEC: // Usually for LOCAL command, no address info expected? Or Unix socket path?
-                    // For PROXY command with UNSPEC, behavior might vary. Assume no useful IP.
-                    // If frpc sends this, will need to know what data follows.
-                    // Treat as invalid or (handle specifically if frpc uses it meaningfully - no waaaaaaaay) .
-                    return ProxyParseResult.invalid("UNSPEC address family not handled");
-
-                default:
-                    return ProxyParseResult.invalid("Unknown address family");
+        // 8. Anything after the address block is TLVs
+        if (addressInfoLength > addressBlockSize) {
+            int tlvStatus = ProxyTlvParser.parse(buffer, initialReaderIndex,
+                    addressInfoOffset + addressBlockSize, initialReaderIndex + totalHeaderSize, result);
+            if (tlvStatus != SUCCESS) {
+                return tlvStatus;
             }
-        } catch (UnknownHostException e) {
-            return ProxyParseResult.invalid("Failed to resolve IP address from PROXY header");
-        } catch (Exception e) {
-            return ProxyParseResult.invalid("Exception during address parsing");
         }
 
         // If we got here, parsing was successful!
         // CRITICAL: Advance the reader index past the consumed header
         buffer.readerIndex(initialReaderIndex + totalHeaderSize);
 
-        // Return success with the crucial source address
-        return ProxyParseResult.success(sourceAddress);
+        return family == AF_UNIX ? UNIX_SOURCE : SUCCESS;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,118 @@
+package by.illusion21.fireforged.status;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/// The last status response the server encoded and the legacy ping answers, shared by every connection.
+/// Legacy pings come in two forms with answers of their own: `motd§players§max` for clients before 1.4,
+/// the `§1` kick for 1.4 to 1.6.
+///
+/// Both are kept as complete frames in unreleasable heap buffers that are never written to again, so each
+/// connection writes its own duplicate: no copy, no encoding and no reference count to get wrong.
+/// An entry is replaced whole, a reader sees the old frame or the new one, never a mix.
+///
+/// Refreshing is claimed by one connection at a time, which then lets the server answer it as usual
+/// and hands the encoded response back through [#store(ByteBuf)].
+public final class StatusCache {
+    private static final long CLAIM_NANOS = TimeUnit.SECONDS.toNanos(5); // A refresh that never came back stops blocking after this
+
+    private static final AtomicLong REFRESH_CLAIMED_AT = new AtomicLong(0); // System.nanoTime(), 0 = unclaimed
+    private static volatile long maxAgeNanos = 0; // 0 = off
+    private static volatile Entry response = null;
+    private static volatile Entry legacyResponse = null;
+    private static volatile Entry legacyV0Response = null;
+
+    private StatusCache() {
+    }
+
+    /**
+     * Turns the cache on or off and forgets what it held, safe to call again on every server start.
+     *
+     * @param seconds How long an encoded response is reused, 0 turns the cache off.
+     */
+    public static void configure(int seconds) {
+        maxAgeNanos = TimeUnit.SECONDS.toNanos(seconds);
+        response = null;
+        legacyResponse = null;
+        legacyV0Response = null;
+        REFRESH_CLAIMED_AT.set(0);
+    }
+
+    public static boolean isEnabled() {
+        return maxAgeNanos > 0;
+    }
+
+    /**
+     * @return true if the response is younger than the configured age.
+     */
+    public static boolean isFresh() {
+        return isFresh(response);
+    }
+
+    /**
+     * @return A duplicate of the cached response frame however old it is, or null if there is none.
+     */
+    public static ByteBuf response() {
+        Entry entry = response;
+        return entry != null ? entry.frame.duplicate() : null;
+    }
+
+    /**
+     * @return true if the caller is now the one to refresh the response, it must {@link #store} or {@link #releaseRefresh()}.
+     */
+    public static boolean claimRefresh() {
+        long now = System.nanoTime();
+        long claimedAt = REFRESH_CLAIMED_AT.get();
+        return (claimedAt == 0 || now - claimedAt > CLAIM_NANOS) && REFRESH_CLAIMED_AT.compareAndSet(claimedAt, now | 1); // Never 0
+    }
+
+    public static void releaseRefresh() {
+        REFRESH_CLAIMED_AT.set(0);
+    }
+
+    /**
+     * Keeps a copy of a freshly encoded response frame and ends the refresh.
+     */
+    public static void store(ByteBuf frame) {
+        response = new Entry(frame);
+        releaseRefresh();
+    }
+
+    /**
+     * @param version0 Whether the answer is for a lone 0xFE, the ping of clients before 1.4.
+     * @return A duplicate of the legacy ping answer, or null if there is none or it is too old.
+     */
+    public static ByteBuf legacyResponse(boolean version0) {
+        Entry entry = version0 ? legacyV0Response : legacyResponse;
+        return isFresh(entry) ? entry.frame.duplicate() : null;
+    }
+
+    /**
+     * Keeps a copy of a freshly built legacy ping answer.
+     *
+     * @param version0 Whether the answer is for a lone 0xFE, the ping of clients before 1.4.
+     */
+    public static void storeLegacy(boolean version0, ByteBuf frame) {
+        if (version0) {
+            legacyV0Response = new Entry(frame);
+        } else {
+            legacyResponse = new Entry(frame);
+        }
+    }
+
+    private static boolean isFresh(Entry entry) {
+        return entry != null && System.nanoTime() - entry.storedAt < maxAgeNanos;
+    }
+
+    private static final class Entry {
+        private final ByteBuf frame;
+        private final long storedAt = System.nanoTime();
+
+        private Entry(ByteBuf frame) {
+            this.frame = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer(frame));
+        }
+    }
+}
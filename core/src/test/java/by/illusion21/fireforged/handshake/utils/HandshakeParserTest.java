@@ -0,0 +1,143 @@
+package by.illusion21.fireforged.handshake.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static by.illusion21.fireforged.handshake.utils.HandshakeParseResult.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+class HandshakeParserTest {
+
+    static Stream<Arguments> validHandshakes() {
+        return Stream.of(
+                arguments(763, "mc.example.org", 25565, INTENT_LOGIN),
+                arguments(47, "", 0, INTENT_STATUS),
+                arguments(767, "mc.example.org\0FML3\0", 65535, INTENT_TRANSFER),
+                arguments(-1, "snapshot", 25565, INTENT_LOGIN),
+                arguments(763, "h".repeat(300), 25565, INTENT_LOGIN),
+                arguments(763, "h".repeat(246), 25565, INTENT_LOGIN) // Frame length 254 starts with 0xFE 0x01
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("validHandshakes")
+    void parsesValidHandshakes(int protocolVersion, String host, int port, int intent) {
+        byte[] frame = handshake(protocolVersion, host, port, intent);
+        ByteBuf buffer = Unpooled.wrappedBuffer(concat(frame, new byte[]{0x05, 0x00}));
+        HandshakeParseResult result = new HandshakeParseResult();
+
+        assertEquals(SUCCESS, HandshakeParser.parse(buffer, result), result.getFailureReason());
+        assertEquals(protocolVersion, result.getProtocolVersion());
+        assertEquals(host, result.readHost(buffer));
+        assertEquals(port, result.getPort());
+        assertEquals(intent, result.getIntent());
+        assertEquals(frame.length, result.getFrameEnd());
+        assertEquals(0, buffer.readerIndex());
+    }
+
+    @Test
+    void frameOf254BytesIsNoLegacyPing() {
+        byte[] frame = handshake(763, "h".repeat(246), 25565, INTENT_LOGIN);
+
+        assertEquals((byte) 0xFE, frame[0]);
+        assertEquals(0x01, frame[1]);
+        assertEquals(INCOMPLETE, HandshakeParser.parse(Unpooled.wrappedBuffer(Arrays.copyOf(frame, 3)), new HandshakeParseResult()));
+    }
+
+    @ParameterizedTest
+    @MethodSource("validHandshakes")
+    void truncatedIsIncomplete(int protocolVersion, String host, int port, int intent) {
+        byte[] frame = handshake(protocolVersion, host, port, intent);
+        for (int length = frame[0] == (byte) 0xFE ? 3 : 0; length < frame.length; length++) {
+            ByteBuf buffer = Unpooled.wrappedBuffer(Arrays.copyOf(frame, length));
+
+            assertEquals(INCOMPLETE, HandshakeParser.parse(buffer, new HandshakeParseResult()), "length " + length);
+        }
+    }
+
+    static Stream<Arguments> legacyPings() {
+        return Stream.of(
+                arguments(new byte[]{(byte) 0xFE}, LEGACY_V0),
+                arguments(new byte[]{(byte) 0xFE, 0x01}, LEGACY),
+                arguments(new byte[]{(byte) 0xFE, 0x01, (byte) 0xFA}, LEGACY),
+                arguments(new byte[]{(byte) 0xFE, 0x01, (byte) 0xFA, 0x00, 0x0B, 0x00, 'M'}, LEGACY)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("legacyPings")
+    void tellsLegacyPings(byte[] bytes, int status) {
+        assertEquals(status, HandshakeParser.parse(Unpooled.wrappedBuffer(bytes), new HandshakeParseResult()));
+    }
+
+    static Stream<Arguments> malformedFrames() {
+        byte[] valid = handshake(763, "mc.example.org", 25565, INTENT_LOGIN);
+        byte[] wrongId = valid.clone();
+        wrongId[1] = 0x01;
+        byte[] hostPastFrame = valid.clone();
+        hostPastFrame[4] = 0x7F;
+        byte[] trailingByte = frame(concat(Arrays.copyOfRange(valid, 1, valid.length), new byte[]{0x00}));
+        byte[] noIntent = frame(Arrays.copyOfRange(valid, 1, valid.length - 1));
+        byte[] negativeHost = frame(new byte[]{0x00, 0x01, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F, 0x63, (byte) 0xDD, 0x02});
+        return Stream.of(
+                arguments((Object) new byte[]{0x00}),                                         // Empty frame
+                arguments((Object) new byte[]{(byte) 0x81, 0x20}),                            // 4097 bytes, past any handshake
+                arguments((Object) new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01}),
+                arguments((Object) wrongId),
+                arguments((Object) hostPastFrame),
+                arguments((Object) trailingByte),
+                arguments((Object) noIntent),
+                arguments((Object) negativeHost),
+                arguments((Object) frame(new byte[]{0x00, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80}))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("malformedFrames")
+    void rejectsMalformedFrames(byte[] bytes) {
+        assertEquals(INVALID, HandshakeParser.parse(Unpooled.wrappedBuffer(bytes), new HandshakeParseResult()));
+    }
+
+    @Test
+    void emptyIsIncomplete() {
+        assertEquals(INCOMPLETE, HandshakeParser.parse(Unpooled.wrappedBuffer(new byte[0]), new HandshakeParseResult()));
+    }
+
+    private static byte[] handshake(int protocolVersion, String host, int port, int intent) {
+        byte[] hostBytes = host.getBytes(StandardCharsets.UTF_8);
+        ByteBuf body = Unpooled.buffer();
+        VarInts.write(body, 0x00);
+        VarInts.write(body, protocolVersion);
+        VarInts.write(body, hostBytes.length);
+        body.writeBytes(hostBytes);
+        body.writeShort(port);
+        VarInts.write(body, intent);
+        byte[] bytes = new byte[body.readableBytes()];
+        body.getBytes(0, bytes);
+        return frame(bytes);
+    }
+
+    private static byte[] frame(byte[] body) {
+        ByteBuf frame = Unpooled.buffer();
+        VarInts.write(frame, body.length);
+        frame.writeBytes(body);
+        byte[] bytes = new byte[frame.readableBytes()];
+        frame.getBytes(0, bytes);
+        return bytes;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] all = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, all, first.length, second.length);
+        return all;
+    }
+}
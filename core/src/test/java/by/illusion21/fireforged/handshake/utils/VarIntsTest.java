@@ -0,0 +1,76 @@
+package by.illusion21.fireforged.handshake.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+class VarIntsTest {
+
+    static Stream<Arguments> encodings() {
+        return Stream.of(
+                arguments(0, new byte[]{0x00}),
+                arguments(1, new byte[]{0x01}),
+                arguments(127, new byte[]{0x7F}),
+                arguments(128, new byte[]{(byte) 0x80, 0x01}),
+                arguments(255, new byte[]{(byte) 0xFF, 0x01}),
+                arguments(25565, new byte[]{(byte) 0xDD, (byte) 0xC7, 0x01}),
+                arguments(2097151, new byte[]{(byte) 0xFF, (byte) 0xFF, 0x7F}),
+                arguments(Integer.MAX_VALUE, new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07}),
+                arguments(-1, new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F}),
+                arguments(Integer.MIN_VALUE, new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x08})
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("encodings")
+    void writesAndReadsBack(int value, byte[] encoded) {
+        ByteBuf buffer = Unpooled.buffer();
+        VarInts.write(buffer, value);
+        byte[] written = new byte[buffer.readableBytes()];
+        buffer.getBytes(0, written);
+
+        assertArrayEquals(encoded, written);
+        assertEquals(encoded.length, VarInts.size(value));
+        long packed = VarInts.get(Unpooled.wrappedBuffer(encoded), 0, encoded.length);
+        assertEquals(value, VarInts.value(packed));
+        assertEquals(encoded.length, VarInts.length(packed));
+    }
+
+    @ParameterizedTest
+    @MethodSource("encodings")
+    void truncatedIsIncomplete(int value, byte[] encoded) {
+        for (int length = 0; length < encoded.length; length++) {
+            ByteBuf buffer = Unpooled.wrappedBuffer(encoded);
+
+            assertEquals(VarInts.INCOMPLETE, VarInts.get(buffer, 0, length), "length " + length);
+        }
+    }
+
+    @Test
+    void readsAtAnIndexWithoutMovingTheReader() {
+        ByteBuf buffer = Unpooled.wrappedBuffer(new byte[]{0x55, (byte) 0xDD, (byte) 0xC7, 0x01, 0x55});
+
+        long packed = VarInts.get(buffer, 1, 5);
+        assertEquals(25565, VarInts.value(packed));
+        assertEquals(3, VarInts.length(packed));
+        assertEquals(0, buffer.readerIndex());
+    }
+
+    @Test
+    void moreThanFiveBytesIsTooLong() {
+        byte[] sixBytes = new byte[6];
+        Arrays.fill(sixBytes, (byte) 0x80);
+
+        assertEquals(VarInts.TOO_LONG, VarInts.get(Unpooled.wrappedBuffer(sixBytes), 0, sixBytes.length));
+    }
+}
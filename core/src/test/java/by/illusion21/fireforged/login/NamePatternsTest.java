@@ -0,0 +1,57 @@
+package by.illusion21.fireforged.login;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+class NamePatternsTest {
+
+    static Stream<Arguments> names() {
+        return Stream.of(
+                arguments("", "Steve", false),
+                arguments("bot", "", false),
+                arguments("bot", "MyBot123", true),
+                arguments("bot", "BOT", true),
+                arguments("bot", "bo", false),
+                arguments("bot", "b_o_t", false),
+                arguments("he,she,his,hers", "ushers", true),
+                arguments("he,she,his,hers", "Steve", false),
+                arguments("abcd,bcx", "abcx", true),   // Falls from "abc" to "bc" on the mismatch
+                arguments("abcd,bcx", "abcbcd", false),
+                arguments("aab", "aaab", true),        // Falls from "aa" back to "a" and on
+                arguments("abab", "abaabab", true),
+                arguments("xyz,y", "axa", false),
+                arguments("xyz,y", "aya", true),       // A shorter fragment inside a longer one's path
+                arguments("1234,_mc_", "Alex_MC_", true),
+                arguments("1234,_mc_", "Alex12345", true),
+                arguments("1234,_mc_", "Alex123", false),
+                arguments("bot", "Ébot", true),        // Characters outside ASCII restart the search
+                arguments("bot", "boÉt", false),
+                arguments(" bot , ,  ", "robot", true)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("names")
+    void matchesFragmentsAnywhereIgnoringCase(String fragments, String name, boolean expected) {
+        assertEquals(expected, new NamePatterns(fragments).matches(name));
+    }
+
+    @Test
+    void countsUsableFragments() {
+        assertTrue(new NamePatterns("").isEmpty());
+        assertTrue(new NamePatterns(null).isEmpty());
+        assertTrue(new NamePatterns(" , ,").isEmpty());
+        assertTrue(new NamePatterns("é").isEmpty());
+        assertEquals(2, new NamePatterns("bot, é, Cat").size());
+        assertFalse(new NamePatterns("bot").isEmpty());
+    }
+}
@@ -0,0 +1,105 @@
+package by.illusion21.fireforged.metrics;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+class SpaceSavingTest {
+
+    @Test
+    void countsExactlyBelowCapacity() {
+        SpaceSaving summary = new SpaceSaving(4);
+        summary.offer(1, 5);
+        summary.offer(2, 1);
+        summary.offer(1, 2);
+
+        Map<Long, long[]> tracked = tracked(summary);
+        assertEquals(2, tracked.size());
+        assertEquals(7, tracked.get(1L)[0]);
+        assertEquals(1, tracked.get(2L)[0]);
+        assertEquals(0, tracked.get(1L)[1]);
+        assertEquals(0, summary.untrackedBound());
+    }
+
+    @Test
+    void newcomerReplacesTheLightest() {
+        SpaceSaving summary = new SpaceSaving(2);
+        summary.offer(1, 10);
+        summary.offer(2, 3);
+        summary.offer(3, 1);
+
+        Map<Long, long[]> tracked = tracked(summary);
+        assertNull(tracked.get(2L));
+        assertEquals(4, tracked.get(3L)[0]);
+        assertEquals(3, tracked.get(3L)[1]);
+        assertEquals(4, summary.untrackedBound());
+    }
+
+    static Stream<Arguments> streams() {
+        return Stream.of(
+                arguments(1L, 4, 50),
+                arguments(2L, 16, 1_000),
+                arguments(3L, 16, 40),     // Few distinct keys, tracked ones come back often
+                arguments(4L, 64, 100_000),
+                arguments(5L, 3, 1_000_000)
+        );
+    }
+
+    /**
+     * Many evictions with random keys move entries around the index, a key lost by a backward shift
+     * would show up twice, with a count that no longer adds up, or leave the probing looping forever.
+     */
+    @ParameterizedTest
+    @Timeout(10)
+    @MethodSource("streams")
+    void keepsItsGuaranteesUnderChurn(long seed, int capacity, int distinctKeys) {
+        SpaceSaving summary = new SpaceSaving(capacity);
+        Map<Long, Long> truth = new HashMap<>();
+        Random random = new Random(seed);
+        long total = 0;
+        for (int i = 0; i < 20_000; i++) {
+            // Every fourth offer goes to one of three heavy keys
+            long key = i % 4 == 0 ? -1 - random.nextInt(3) : random.nextInt(distinctKeys);
+            long weight = 1 + random.nextInt(3);
+            summary.offer(key, weight);
+            truth.merge(key, weight, Long::sum);
+            total += weight;
+        }
+
+        Map<Long, long[]> tracked = tracked(summary);
+        assertEquals(Math.min(capacity, truth.size()), tracked.size());
+        assertEquals(total, tracked.values().stream().mapToLong(counts -> counts[0]).sum());
+        for (Map.Entry<Long, long[]> entry : tracked.entrySet()) {
+            long weight = truth.get(entry.getKey());
+            long count = entry.getValue()[0];
+            long error = entry.getValue()[1];
+            assertTrue(count - error <= weight && weight <= count, "key " + entry.getKey());
+        }
+        for (Map.Entry<Long, Long> entry : truth.entrySet()) {
+            if (entry.getValue() > total / capacity) {
+                assertTrue(tracked.containsKey(entry.getKey()), "heavy key " + entry.getKey());
+            }
+            if (!tracked.containsKey(entry.getKey())) {
+                assertTrue(entry.getValue() <= summary.untrackedBound(), "untracked key " + entry.getKey());
+            }
+        }
+    }
+
+    private static Map<Long, long[]> tracked(SpaceSaving summary) {
+        Map<Long, long[]> tracked = new HashMap<>();
+        summary.forEach((key, count, error) -> assertNull(tracked.put(key, new long[]{count, error}), "key tracked twice"));
+        return tracked;
+    }
+}
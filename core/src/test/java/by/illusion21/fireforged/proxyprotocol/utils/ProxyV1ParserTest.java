@@ -0,0 +1,134 @@
+package by.illusion21.fireforged.proxyprotocol.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Stream;
+
+import static by.illusion21.fireforged.proxyprotocol.utils.ProxyParseResult.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+class ProxyV1ParserTest {
+
+    static Stream<Arguments> validHeaders() {
+        return Stream.of(
+                arguments("PROXY TCP4 192.168.0.1 192.168.0.11 56324 25565\r\n", "192.168.0.1", 56324, 25565),
+                arguments("PROXY TCP4 0.0.0.0 255.255.255.255 0 65535\r\n", "0.0.0.0", 0, 65535),
+                arguments("PROXY TCP6 2001:db8::1 2001:db8::2 1 2\r\n", "2001:db8::1", 1, 2),
+                arguments("PROXY TCP6 1:2:3:4:5:6:7:8 ::1 1 2\r\n", "1:2:3:4:5:6:7:8", 1, 2),
+                arguments("PROXY TCP6 :: ::1 1 2\r\n", "::", 1, 2),
+                arguments("PROXY TCP6 1:: ::1 1 2\r\n", "1::", 1, 2),
+                arguments("PROXY TCP6 ::1:2:3:4:5:6:7 ::1 1 2\r\n", "0:1:2:3:4:5:6:7", 1, 2),
+                arguments("PROXY TCP6 1:2:3:4:5:6:7:: ::1 1 2\r\n", "1:2:3:4:5:6:7:0", 1, 2),
+                arguments("PROXY TCP6 FE80::aBcD ::1 1 2\r\n", "fe80::abcd", 1, 2),
+                arguments("PROXY TCP6 ::ffff:1.2.3.4 ::1 1 2\r\n", "::ffff:1.2.3.4", 1, 2),
+                arguments("PROXY TCP6 ::1.2.3.4 ::1 1 2\r\n", "::1.2.3.4", 1, 2),
+                arguments("PROXY TCP6 1:2:3:4:5:6:10.0.0.1 ::1 1 2\r\n", "1:2:3:4:5:6:a00:1", 1, 2)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("validHeaders")
+    void parsesValidHeaders(String header, String source, int sourcePort, int destinationPort) throws Exception {
+        ByteBuf buffer = buffer(header + "rest");
+        ProxyParseResult result = new ProxyParseResult();
+
+        assertEquals(SUCCESS, ProxyV1Parser.parse(buffer, result), result.getFailureReason());
+        assertEquals(new InetSocketAddress(InetAddress.getByName(source), sourcePort), result.toSourceSocketAddress());
+        assertEquals(destinationPort, result.getDestinationPort());
+        assertEquals("rest", buffer.toString(StandardCharsets.US_ASCII));
+    }
+
+    static Stream<Arguments> incompleteHeaders() {
+        return Stream.of(
+                arguments(""),
+                arguments("P"),
+                arguments("PROXY"),
+                arguments("PROXY TCP4 1.2.3.4"),
+                arguments("PROXY TCP4 1.2.3.4 5.6.7.8 1 2"),
+                arguments("PROXY TCP4 1.2.3.4 5.6.7.8 1 2\r")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("incompleteHeaders")
+    void waitsForTheRestOfTheLine(String header) {
+        ByteBuf buffer = buffer(header);
+
+        assertEquals(INCOMPLETE, ProxyV1Parser.parse(buffer, new ProxyParseResult()));
+        assertEquals(0, buffer.readerIndex());
+    }
+
+    static Stream<Arguments> malformedHeaders() {
+        return Stream.of(
+                arguments("GET / HTTP/1.1\r\n", NOT_PROXY),
+                arguments("PROXX TCP4 1.2.3.4 5.6.7.8 1 2\r\n", NOT_PROXY),
+                arguments("PROXY TCP4 1.2.3.4 5.6.7.8 1 2\n", INVALID),
+                arguments("PROXY TCP5 1.2.3.4 5.6.7.8 1 2\r\n", INVALID),
+                arguments("PROXY tcp4 1.2.3.4 5.6.7.8 1 2\r\n", INVALID),
+                arguments("PROXY TCP4 1.2.3.256 5.6.7.8 1 2\r\n", INVALID),
+                arguments("PROXY TCP4 1.2.3 5.6.7.8 1 2\r\n", INVALID),
+                arguments("PROXY TCP4 1.2.3.4.5 5.6.7.8 1 2\r\n", INVALID),
+                arguments("PROXY TCP4 1..3.4 5.6.7.8 1 2\r\n", INVALID),
+                arguments("PROXY TCP4 0001.2.3.4 5.6.7.8 1 2\r\n", INVALID),
+                arguments("PROXY TCP4 ::1 5.6.7.8 1 2\r\n", INVALID),
+                arguments("PROXY TCP6 1.2.3.4 ::1 1 2\r\n", INVALID),
+                arguments("PROXY TCP6 1::2::3 ::1 1 2\r\n", INVALID),
+                arguments("PROXY TCP6 1:2:3:4:5:6:7:8:9 ::1 1 2\r\n", INVALID),
+                arguments("PROXY TCP6 1:2:3:4:5:6:7 ::1 1 2\r\n", INVALID),
+                arguments("PROXY TCP6 ::1:2:3:4:5:6:7:8 ::1 1 2\r\n", INVALID),
+                arguments("PROXY TCP6 :1::2 ::1 1 2\r\n", INVALID),
+                arguments("PROXY TCP6 1::2: ::1 1 2\r\n", INVALID),
+                arguments("PROXY TCP6 1:::2 ::1 1 2\r\n", INVALID),
+                arguments("PROXY TCP6 12345::1 ::1 1 2\r\n", INVALID),
+                arguments("PROXY TCP6 ::g ::1 1 2\r\n", INVALID),
+                arguments("PROXY TCP6 1:2:3:4:5:6:7:1.2.3.4 ::1 1 2\r\n", INVALID),
+                arguments("PROXY TCP6 ::1.2.3 ::1 1 2\r\n", INVALID),
+                arguments("PROXY TCP4 1.2.3.4 5.6.7.8 1 65536\r\n", INVALID),
+                arguments("PROXY TCP4 1.2.3.4 5.6.7.8 -1 2\r\n", INVALID),
+                arguments("PROXY TCP4 1.2.3.4 5.6.7.8 123456 2\r\n", INVALID),
+                arguments("PROXY TCP4 1.2.3.4 5.6.7.8 1\r\n", INVALID),
+                arguments("PROXY TCP4 1.2.3.4 5.6.7.8 1 \r\n", INVALID),
+                arguments("PROXY TCP4 1.2.3.4 5.6.7.8\r\n", INVALID),
+                arguments("PROXY TCP4 " + "1".repeat(ProxyV1Parser.V1_MAX_HEADER_SIZE), INVALID)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("malformedHeaders")
+    void rejectsMalformedHeaders(String header, int status) {
+        ByteBuf buffer = buffer(header);
+
+        assertEquals(status, ProxyV1Parser.parse(buffer, new ProxyParseResult()));
+        assertEquals(0, buffer.readerIndex());
+    }
+
+    @Test
+    void unknownProtocolConsumesTheLine() {
+        ByteBuf buffer = buffer("PROXY UNKNOWN ff::1 ff::2 1 2\r\nrest");
+
+        assertEquals(LOCAL, ProxyV1Parser.parse(buffer, new ProxyParseResult()));
+        assertEquals("rest", buffer.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void onlyTheFirstByteDecidesTheVersion() {
+        assertTrue(ProxyV1Parser.looksLikeV1(buffer("P")));
+        assertFalse(ProxyV1Parser.looksLikeV1(buffer("\r\n\r\n")));
+        assertFalse(ProxyV1Parser.looksLikeV1(buffer("")));
+    }
+
+    private static ByteBuf buffer(String text) {
+        return Unpooled.wrappedBuffer(text.getBytes(StandardCharsets.US_ASCII));
+    }
+}
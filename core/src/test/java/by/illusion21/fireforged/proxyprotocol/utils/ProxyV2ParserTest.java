@@ -0,0 +1,231 @@
+package by.illusion21.fireforged.proxyprotocol.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import static by.illusion21.fireforged.proxyprotocol.utils.ProxyParseResult.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+class ProxyV2ParserTest {
+    private static final byte[] SIGNATURE = {0x0D, 0x0A, 0x0D, 0x0A, 0x00, 0x0D, 0x0A, 0x51, 0x55, 0x49, 0x54, 0x0A};
+    private static final int PROXY_TCP4 = 0x11;
+    private static final int PROXY_TCP6 = 0x21;
+    private static final int PROXY_UNIX = 0x31;
+
+    private static final byte[] INET_BLOCK = {1, 2, 3, 4, 5, 6, 7, 8, 0x30, 0x39, 0x63, (byte) 0xDD}; // 1.2.3.4:12345 -> 5.6.7.8:25565
+
+    @Test
+    void parsesIpv4() throws Exception {
+        ByteBuf buffer = header(0x21, PROXY_TCP4, INET_BLOCK, "rest");
+        ProxyParseResult result = new ProxyParseResult();
+
+        assertEquals(SUCCESS, ProxyV2Parser.parse(buffer, result));
+        assertEquals(new InetSocketAddress(InetAddress.getByName("1.2.3.4"), 12345), result.toSourceSocketAddress());
+        assertEquals(25565, result.getDestinationPort());
+        assertEquals("rest", buffer.toString(StandardCharsets.US_ASCII));
+        assertNull(result.readTlvs(buffer));
+    }
+
+    @Test
+    void parsesIpv6() throws Exception {
+        byte[] block = new byte[36];
+        block[0] = 0x20;
+        block[1] = 0x01;
+        block[15] = 1;
+        block[31] = 2;
+        block[32] = 0x30;
+        block[33] = 0x39;
+        ByteBuf buffer = header(0x21, PROXY_TCP6, block, "");
+        ProxyParseResult result = new ProxyParseResult();
+
+        assertEquals(SUCCESS, ProxyV2Parser.parse(buffer, result));
+        assertEquals(new InetSocketAddress(InetAddress.getByName("2001::1"), 12345), result.toSourceSocketAddress());
+        assertFalse(buffer.isReadable());
+    }
+
+    @Test
+    void localCommandSkipsTheAddresses() {
+        ByteBuf buffer = header(0x20, 0x00, new byte[]{9, 9, 9}, "rest");
+
+        assertEquals(LOCAL, ProxyV2Parser.parse(buffer, new ProxyParseResult()));
+        assertEquals("rest", buffer.toString(StandardCharsets.US_ASCII));
+    }
+
+    static Stream<Arguments> unixSources() {
+        return Stream.of(
+                arguments("/tmp/client.sock", "/run/proxy.sock", "/tmp/client.sock"),
+                arguments("", "/run/proxy.sock", "/run/proxy.sock"),
+                arguments("x".repeat(108), "/run/proxy.sock", "x".repeat(108))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("unixSources")
+    void unixSourceHasNoIp(String source, String destination, String expected) {
+        byte[] block = new byte[216];
+        System.arraycopy(source.getBytes(StandardCharsets.US_ASCII), 0, block, 0, source.length());
+        System.arraycopy(destination.getBytes(StandardCharsets.US_ASCII), 0, block, 108, destination.length());
+        ByteBuf buffer = header(0x21, PROXY_UNIX, block, "rest");
+        ProxyParseResult result = new ProxyParseResult();
+
+        assertEquals(UNIX_SOURCE, ProxyV2Parser.parse(buffer, result));
+        assertEquals(expected, result.toUnixSourceSocketAddress(buffer).path());
+        assertEquals("rest", buffer.toString(StandardCharsets.US_ASCII));
+    }
+
+    static Stream<Arguments> malformedHeaders() {
+        byte[] badSignature = bytes(header(0x21, PROXY_TCP4, INET_BLOCK, ""));
+        badSignature[11] = 0x0B;
+        return Stream.of(
+                arguments(badSignature, NOT_PROXY),
+                arguments("GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII), NOT_PROXY),
+                arguments(bytes(header(0x11, PROXY_TCP4, INET_BLOCK, "")), INVALID),   // Version 1
+                arguments(bytes(header(0x22, PROXY_TCP4, INET_BLOCK, "")), NOT_PROXY), // Command 2
+                arguments(bytes(header(0x21, 0x12, INET_BLOCK, "")), INVALID),         // UDP
+                arguments(bytes(header(0x21, 0x01, INET_BLOCK, "")), INVALID),         // UNSPEC family
+                arguments(bytes(header(0x21, 0x41, INET_BLOCK, "")), INVALID),         // No such family
+                arguments(bytes(header(0x21, PROXY_TCP4, Arrays.copyOf(INET_BLOCK, 8), "")), INVALID),
+                arguments(bytes(header(0x21, PROXY_TCP6, INET_BLOCK, "")), INVALID),
+                arguments(bytes(header(0x21, PROXY_UNIX, new byte[215], "")), INVALID)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("malformedHeaders")
+    void rejectsMalformedHeaders(byte[] header, int status) {
+        ByteBuf buffer = Unpooled.wrappedBuffer(header);
+
+        assertEquals(status, ProxyV2Parser.parse(buffer, new ProxyParseResult()));
+        assertEquals(0, buffer.readerIndex());
+    }
+
+    @Test
+    void waitsForEveryByteOfTheHeader() {
+        byte[] header = bytes(header(0x21, PROXY_TCP4, INET_BLOCK, ""));
+        for (int length = 0; length < header.length; length++) {
+            ByteBuf buffer = Unpooled.wrappedBuffer(Arrays.copyOf(header, length));
+
+            assertEquals(INCOMPLETE, ProxyV2Parser.parse(buffer, new ProxyParseResult()), "length " + length);
+            assertEquals(0, buffer.readerIndex());
+        }
+    }
+
+    @Test
+    void readsSelectedTlvs() {
+        byte[] tlvs = concat(
+                tlv(ProxyTlvParser.PP2_TYPE_ALPN, "h2".getBytes(StandardCharsets.US_ASCII)),
+                tlv(ProxyTlvParser.PP2_TYPE_AUTHORITY, "mc.example.org".getBytes(StandardCharsets.US_ASCII)),
+                tlv(ProxyTlvParser.PP2_TYPE_UNIQUE_ID, new byte[]{(byte) 0xAB, (byte) 0xCD}),
+                tlv(0xE1, new byte[]{1}),
+                tlv(0xE2, new byte[]{0}),
+                tlv(ProxyTlvParser.PP2_TYPE_NOOP, new byte[0]));
+        ByteBuf buffer = header(0x21, PROXY_TCP4, concat(INET_BLOCK, tlvs), "rest");
+        ProxyParseResult result = new ProxyParseResult();
+
+        assertEquals(SUCCESS, ProxyV2Parser.parse(buffer, result));
+        ProxyTlvs read = result.readTlvs(buffer);
+        assertEquals("mc.example.org", read.getAuthority());
+        assertEquals("abcd", read.getUniqueIdHex());
+        assertTrue(read.isCustomFlagSet(0xE1));
+        assertTrue(read.hasCustom(0xE2));
+        assertFalse(read.isCustomFlagSet(0xE2));
+        assertFalse(read.hasCustom(0xE3));
+        assertEquals("rest", buffer.toString(StandardCharsets.US_ASCII));
+    }
+
+    static Stream<Arguments> checksums() {
+        return Stream.of(
+                arguments(0, SUCCESS),
+                arguments(1, INVALID),
+                arguments(0x8000_0000, INVALID)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("checksums")
+    void verifiesCrc32c(int corruption, int status) {
+        byte[] tlvs = concat(
+                tlv(ProxyTlvParser.PP2_TYPE_AUTHORITY, "mc.example.org".getBytes(StandardCharsets.US_ASCII)),
+                tlv(ProxyTlvParser.PP2_TYPE_CRC32C, new byte[4]));
+        byte[] header = bytes(header(0x21, PROXY_TCP4, concat(INET_BLOCK, tlvs), ""));
+        CRC32C crc = new CRC32C();
+        crc.update(header);
+        int value = (int) crc.getValue() ^ corruption;
+        int at = header.length - 4;
+        header[at] = (byte) (value >>> 24);
+        header[at + 1] = (byte) (value >>> 16);
+        header[at + 2] = (byte) (value >>> 8);
+        header[at + 3] = (byte) value;
+
+        assertEquals(status, ProxyV2Parser.parse(Unpooled.wrappedBuffer(header), new ProxyParseResult()));
+    }
+
+    static Stream<Arguments> malformedTlvs() {
+        return Stream.of(
+                arguments((Object) new byte[]{0x04, 0x00}),                                       // Truncated TLV header
+                arguments((Object) new byte[]{0x02, 0x00, 0x05, 'a', 'b'}),                       // Value past the header
+                arguments((Object) tlv(ProxyTlvParser.PP2_TYPE_CRC32C, new byte[3])),             // CRC32C of 3 bytes
+                arguments((Object) tlv(ProxyTlvParser.PP2_TYPE_UNIQUE_ID, new byte[129]))         // Over the spec's limit
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("malformedTlvs")
+    void rejectsMalformedTlvs(byte[] tlvs) {
+        ByteBuf buffer = header(0x21, PROXY_TCP4, concat(INET_BLOCK, tlvs), "");
+
+        assertEquals(INVALID, ProxyV2Parser.parse(buffer, new ProxyParseResult()));
+        assertEquals(0, buffer.readerIndex());
+    }
+
+    private static ByteBuf header(int versionAndCommand, int familyAndProtocol, byte[] addressInfo, String rest) {
+        ByteBuf buffer = Unpooled.buffer();
+        buffer.writeBytes(SIGNATURE);
+        buffer.writeByte(versionAndCommand);
+        buffer.writeByte(familyAndProtocol);
+        buffer.writeShort(addressInfo.length);
+        buffer.writeBytes(addressInfo);
+        buffer.writeBytes(rest.getBytes(StandardCharsets.US_ASCII));
+        return buffer;
+    }
+
+    private static byte[] tlv(int type, byte[] value) {
+        byte[] tlv = new byte[3 + value.length];
+        tlv[0] = (byte) type;
+        tlv[1] = (byte) (value.length >>> 8);
+        tlv[2] = (byte) value.length;
+        System.arraycopy(value, 0, tlv, 3, value.length);
+        return tlv;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        byte[] all = new byte[Arrays.stream(parts).mapToInt(part -> part.length).sum()];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, all, offset, part.length);
+            offset += part.length;
+        }
+        return all;
+    }
+
+    private static byte[] bytes(ByteBuf buffer) {
+        byte[] bytes = new byte[buffer.readableBytes()];
+        buffer.getBytes(buffer.readerIndex(), bytes);
+        return bytes;
+    }
+}
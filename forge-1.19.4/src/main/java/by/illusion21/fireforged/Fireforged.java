@@ -1,9 +1,27 @@
 package by.illusion21.fireforged;
 
+import by.illusion21.fireforged.command.FireforgedCommand;
 import by.illusion21.fireforged.config.FirewallConfig;
+import by.illusion21.fireforged.config.ListenerConfig;
+import by.illusion21.fireforged.config.entity.FirewallRules;
+import by.illusion21.fireforged.firewall.limit.AdmissionController;
+import by.illusion21.fireforged.firewall.limit.AttackMode;
+import by.illusion21.fireforged.firewall.limit.BanScores;
+import by.illusion21.fireforged.firewall.limit.ConnectionCaps;
+import by.illusion21.fireforged.firewall.limit.ConnectionRateLimiter;
+import by.illusion21.fireforged.firewall.limit.Greylist;
+import by.illusion21.fireforged.firewall.limit.KnownAddresses;
+import by.illusion21.fireforged.firewall.utils.CidrMatcher;
 import by.illusion21.fireforged.firewall.utils.RuleManager;
-import by.illusion21.fireforged.listener.ConnectionRealIpUpdater;
+import by.illusion21.fireforged.firewall.utils.Tarpit;
+import by.illusion21.fireforged.handshake.HandshakeFilter;
+import by.illusion21.fireforged.login.LoginGate;
+import by.illusion21.fireforged.status.StatusCache;
 import net.minecraftforge.common.MinecraftForge;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.server.players.PlayerList;
+import net.minecraftforge.event.RegisterCommandsEvent;
+import net.minecraftforge.event.entity.player.PlayerEvent;
 import net.minecraftforge.eventbus.api.IEventBus;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.ModLoadingContext;
@@ -11,10 +29,17 @@ import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.config.ModConfig;
 import net.minecraftforge.fml.event.lifecycle.FMLCommonSetupEvent;
 import net.minecraftforge.event.server.ServerStartingEvent;
+import net.minecraftforge.event.server.ServerStoppingEvent;
+import net.minecraftforge.fml.loading.FMLPaths;
 import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 
 @Mod(Fireforged.MODID)
 public class Fireforged {
@@ -24,10 +49,22 @@ public class Fireforged {
     private static final Logger LOGGER = LoggerFactory.getLogger("\033[1;33mFireForged\033[0;32m");
 
     private static RuleManager RULE_MANAGER = null;
+    private static CidrMatcher TRUSTED_PROXIES = null; // null = every peer is trusted
+    private static ConnectionRateLimiter CONNECTION_RATE_LIMITER = null; // null = no rate limit
+    private static ConnectionRateLimiter STATUS_RATE_LIMITER = null; // null = no status rate limit
+    private static HandshakeFilter HANDSHAKE_FILTER = null; // null = any host and version
+    private static ConnectionCaps CONNECTION_CAPS = null; // null = no caps
+    private static final int CONNECTION_CAP_SOURCES = 65536; // Distinct addresses/subnets with open connections tracked at once
+    private static BanScores BAN_SCORES = null; // null = no automatic bans
+    private static final int BAN_SCORE_SOURCES = 65536; // Addresses with a misbehaviour score tracked at once
+    private static final int STATUS_RATE_LIMIT_SOURCES = 65536; // Addresses with a status rate limit tracked at once
+    private static final int LOGIN_RATE_LIMIT_SOURCES = 65536; // Addresses and names with a login rate limit tracked at once
+    private static final String KNOWN_PLAYERS_FILE = "fireforged-known-players.bin";
 
     public Fireforged(FMLJavaModLoadingContext context) {
         IEventBus modEventBus = context.getModEventBus();
         ModLoadingContext.get().registerConfig(ModConfig.Type.SERVER, FirewallConfig.SERVER_CONFIG);
+        ModLoadingContext.get().registerConfig(ModConfig.Type.COMMON, ListenerConfig.COMMON_CONFIG);
         modEventBus.addListener(this::commonSetup);
 
         MinecraftForge.EVENT_BUS.register(this);
@@ -37,18 +74,192 @@ public class Fireforged {
         return RULE_MANAGER;
     }
 
+    public static ConnectionRateLimiter getConnectionRateLimiter() {
+        return CONNECTION_RATE_LIMITER;
+    }
+
+    public static ConnectionRateLimiter getStatusRateLimiter() {
+        return STATUS_RATE_LIMITER;
+    }
+
+    public static HandshakeFilter getHandshakeFilter() {
+        return HANDSHAKE_FILTER;
+    }
+
+    public static ConnectionCaps getConnectionCaps() {
+        return CONNECTION_CAPS;
+    }
+
+    public static BanScores getBanScores() {
+        return BAN_SCORES;
+    }
+
+    /**
+     * Scores an offence against the address, and logs the ban if it got one. Does nothing when bans are off.
+     */
+    public static void penalize(SocketAddress address, BanScores.Offence offence) {
+        BanScores banScores = BAN_SCORES;
+        if (banScores != null && banScores.offend(address, offence)) {
+            LOGGER.info("Temporarily banned {} for {}s, last offence: {}", address, FirewallConfig.banSeconds.get(), offence);
+        }
+    }
+
+    /**
+     * Scores an offence against the socket peer, for when the real address is not known yet.
+     * A proxy on the TrustedProxies list is never scored, it only relays whoever misbehaved.
+     */
+    public static void penalizePeer(SocketAddress peerAddress, BanScores.Offence offence) {
+        if (!isListedProxy(peerAddress)) {
+            penalize(peerAddress, offence);
+        }
+    }
+
+    /**
+     * @return true only if a TrustedProxies list is configured and the peer is on it.
+     */
+    public static boolean isListedProxy(SocketAddress peerAddress) {
+        CidrMatcher trustedProxies = TRUSTED_PROXIES;
+        return trustedProxies != null && trustedProxies.matches(peerAddress);
+    }
+
+    /**
+     * @param peerAddress The socket's remote address.
+     * @return true if this peer may send a PROXY header. Every peer is trusted when no list is configured.
+     */
+    public static boolean isTrustedProxy(SocketAddress peerAddress) {
+        CidrMatcher trustedProxies = TRUSTED_PROXIES;
+        return trustedProxies == null || trustedProxies.matches(peerAddress);
+    }
+
+    /**
+     * Hands the LoginGate the names on the whitelist and the ops list. Only to be called on the server thread,
+     * the one that changes those lists, at start and whenever they change.
+     */
+    public static void refreshWhitelistedNames(PlayerList players) {
+        List<String> names = new ArrayList<>(Arrays.asList(players.getWhiteList().getUserList()));
+        names.addAll(Arrays.asList(players.getOps().getUserList()));
+        LoginGate.setWhitelistedNames(names);
+    }
+
     private void commonSetup(final FMLCommonSetupEvent event) {
         LOGGER.info("\033[1;34m\033[5mThe \033[36mFireForged\033[32m initializating. \033[0m");
-        event.enqueueWork(ConnectionRealIpUpdater::register);
-        LOGGER.info("\033[1;34mInitialized Proxy Protocol ip updater\033[0m");
     }
 
     @SubscribeEvent
     public void onServerStarting(ServerStartingEvent event) {
-        RULE_MANAGER = new RuleManager(FirewallConfig.rules.get());
+        RULE_MANAGER = new RuleManager(FirewallConfig.rules.get(), FirewallConfig.attackModeRules.get(),
+                FirewallConfig.attackModeAcceptKnown.get());
         LOGGER.info("\033[1;34mInitialized firewall rule manager\033[0m");
         LOGGER.info("\033[1;34mLoaded rules:\033[0m");
-        RULE_MANAGER.getFirewallRules().getSortedRules().forEach(rule -> {
+        logRules(RULE_MANAGER.getFirewallRules());
+        if (RULE_MANAGER.hasAttackPolicy()) {
+            LOGGER.info("\033[1;34mLoaded attack mode rules{}:\033[0m", FirewallConfig.attackModeAcceptKnown.get() ? " (known players first)" : "");
+            logRules(RULE_MANAGER.getAttackRules());
+        }
+        AttackMode.configure(RULE_MANAGER, FirewallConfig.attackModeFactor.get(), FirewallConfig.attackModeMinRate.get(),
+                FirewallConfig.attackModeCalmSeconds.get(), LOGGER);
+        Greylist.configure(FirewallConfig.greylistMode.get(), FirewallConfig.greylistPingSeconds.get(),
+                FirewallConfig.greylistRetrySeconds.get(), FirewallConfig.greylistCapacity.get(), RULE_MANAGER);
+        if (FirewallConfig.greylistMode.get() != Greylist.Mode.OFF) {
+            LOGGER.info("\033[1;34mGreylisting logins of unknown addresses ({}) unless they pinged within {}s or retry within {}s\033[0m",
+                    FirewallConfig.greylistMode.get(), FirewallConfig.greylistPingSeconds.get(), FirewallConfig.greylistRetrySeconds.get());
+        }
+        LoginGate.configure(FirewallConfig.loginBannedNames.get(), FirewallConfig.loginRateLimitPerSecond.get(),
+                FirewallConfig.loginRateLimitBurst.get(), LOGIN_RATE_LIMIT_SOURCES, FirewallConfig.loginRateLimitByName.get(),
+                FirewallConfig.loginWhitelistByName.get(), FirewallConfig.loginRefusedMessage.get());
+        refreshWhitelistedNames(event.getServer().getPlayerList());
+        if (LoginGate.isEnabled()) {
+            LOGGER.info("\033[1;34mGating logins before encryption: {} banned name fragment(s), {}/s (burst {}) per address{}, whitelist by name {}\033[0m",
+                    LoginGate.getBannedNameCount(), FirewallConfig.loginRateLimitPerSecond.get(), FirewallConfig.loginRateLimitBurst.get(),
+                    FirewallConfig.loginRateLimitByName.get() ? " and name" : "", FirewallConfig.loginWhitelistByName.get() ? "on" : "off");
+        }
+
+        Tarpit.configure(FirewallConfig.tarpitMaxSockets.get(), FirewallConfig.tarpitSeconds.get());
+
+        double perSecond = FirewallConfig.rateLimitPerSecond.get();
+        CONNECTION_RATE_LIMITER = perSecond > 0
+                ? new ConnectionRateLimiter(perSecond, FirewallConfig.rateLimitBurst.get(), FirewallConfig.rateLimitIpv4Prefix.get(),
+                        FirewallConfig.rateLimitIpv6Prefix.get(), FirewallConfig.rateLimitTableSize.get())
+                : null;
+        if (CONNECTION_RATE_LIMITER != null) {
+            LOGGER.info("\033[1;34mRate limiting new connections to {}/s (burst {}) per /{} IPv4, /{} IPv6 source\033[0m", perSecond,
+                    FirewallConfig.rateLimitBurst.get(), FirewallConfig.rateLimitIpv4Prefix.get(), FirewallConfig.rateLimitIpv6Prefix.get());
+        }
+
+        double statusPerSecond = FirewallConfig.statusRateLimitPerSecond.get();
+        STATUS_RATE_LIMITER = statusPerSecond > 0
+                ? new ConnectionRateLimiter(statusPerSecond, FirewallConfig.statusRateLimitBurst.get(), 32, 64, STATUS_RATE_LIMIT_SOURCES)
+                : null;
+        if (STATUS_RATE_LIMITER != null) {
+            LOGGER.info("\033[1;34mRate limiting server list pings to {}/s (burst {}) per address\033[0m", statusPerSecond,
+                    FirewallConfig.statusRateLimitBurst.get());
+        }
+        StatusCache.configure(FirewallConfig.statusCacheSeconds.get());
+        if (StatusCache.isEnabled()) {
+            LOGGER.info("\033[1;34mAnswering server list pings from a status response refreshed every {}s\033[0m",
+                    FirewallConfig.statusCacheSeconds.get());
+        }
+
+        HandshakeFilter handshakeFilter = new HandshakeFilter(FirewallConfig.handshakeHosts.get(), FirewallConfig.handshakeVersions.get());
+        HANDSHAKE_FILTER = handshakeFilter.isEmpty() ? null : handshakeFilter;
+        if (HANDSHAKE_FILTER != null) {
+            LOGGER.info("\033[1;34mFiltering handshakes on {} host(s) and {} protocol version range(s) (0 = any)\033[0m",
+                    HANDSHAKE_FILTER.getHostCount(), HANDSHAKE_FILTER.getVersionRangeCount());
+        }
+
+        int perAddress = FirewallConfig.maxConnectionsPerAddress.get();
+        int perSubnet = FirewallConfig.maxConnectionsPerSubnet.get();
+        CONNECTION_CAPS = perAddress > 0 || perSubnet > 0
+                ? new ConnectionCaps(perAddress, perSubnet, FirewallConfig.connectionCapIpv4Prefix.get(),
+                        FirewallConfig.connectionCapIpv6Prefix.get(), CONNECTION_CAP_SOURCES)
+                : null;
+        if (CONNECTION_CAPS != null) {
+            LOGGER.info("\033[1;34mCapping open connections to {} per address, {} per subnet\033[0m", perAddress, perSubnet);
+        }
+
+        int banThreshold = FirewallConfig.banThreshold.get();
+        BAN_SCORES = banThreshold > 0
+                ? new BanScores(banThreshold, FirewallConfig.banHalfLifeSeconds.get(), FirewallConfig.banSeconds.get(), BAN_SCORE_SOURCES)
+                : null;
+        if (BAN_SCORES != null) {
+            LOGGER.info("\033[1;34mBanning addresses for {}s once their misbehaviour score reaches {} (half-life {}s)\033[0m",
+                    FirewallConfig.banSeconds.get(), banThreshold, FirewallConfig.banHalfLifeSeconds.get());
+        }
+
+        int maxLagMillis = FirewallConfig.admissionMaxLagMillis.get();
+        int maxUndecided = FirewallConfig.admissionMaxUndecided.get();
+        AdmissionController.configure(maxLagMillis, maxUndecided, LOGGER);
+        if (maxLagMillis > 0 || maxUndecided > 0) {
+            LOGGER.info("\033[1;34mShedding unknown connections past {}ms event loop lag or {} undecided connections (0 = off)\033[0m",
+                    maxLagMillis, maxUndecided);
+        }
+
+        // Only recorded when load shedding lets known addresses through, attack mode only trusts logins
+        KnownAddresses.configure(AdmissionController.isEnabled(), FirewallConfig.knownAddressMinutes.get());
+        KnownAddresses.configurePlayers(FirewallConfig.knownPlayerDays.get(), FMLPaths.GAMEDIR.get().resolve(KNOWN_PLAYERS_FILE), LOGGER);
+
+        CidrMatcher trustedProxies = new CidrMatcher(FirewallConfig.trustedProxies.get());
+        TRUSTED_PROXIES = trustedProxies.isEmpty() ? null : trustedProxies;
+        if (TRUSTED_PROXIES != null) {
+            LOGGER.info("\033[1;34mLoaded {} trusted proxy range(s), other peers are treated as direct connections\033[0m", TRUSTED_PROXIES.size());
+        }
+    }
+
+    @SubscribeEvent
+    public void onServerStopping(ServerStoppingEvent event) {
+        KnownAddresses.savePlayers();
+    }
+
+    // Reaching the play state is the best evidence a connection was a player, the address is already the real one here
+    @SubscribeEvent
+    public void onPlayerLoggedIn(PlayerEvent.PlayerLoggedInEvent event) {
+        if (event.getEntity() instanceof ServerPlayer player) {
+            KnownAddresses.recordLogin(player.connection.connection.getRemoteAddress());
+        }
+    }
+
+    private static void logRules(FirewallRules rules) {
+        rules.getSortedRules().forEach(rule -> {
             String logMessage = String.format(
                     // {Priority}  {CIDR}          /{Prefix}  {Action}
                     "\033[0m%-5s  \033[1;34m%-22s \033[32m/%-3s  \033[0m%-7s",
@@ -61,6 +272,10 @@ public class Fireforged {
         });
     }
 
+    @SubscribeEvent
+    public void onRegisterCommands(RegisterCommandsEvent event) {
+        FireforgedCommand.register(event.getDispatcher());
+    }
 
     public static Logger getLogger(){
         return LOGGER;
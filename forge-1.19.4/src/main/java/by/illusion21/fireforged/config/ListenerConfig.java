@@ -0,0 +1,68 @@
+package by.illusion21.fireforged.config;
+
+import net.minecraftforge.common.ForgeConfigSpec;
+
+/**
+ * Listener settings are read while Minecraft binds its port, before server configs exist,
+ * so they live in the common config (config/fireforged-common.toml) and need a restart to apply.
+ */
+public class ListenerConfig {
+    public static ForgeConfigSpec COMMON_CONFIG;
+    public static ForgeConfigSpec.BooleanValue useIoUring;
+    public static ForgeConfigSpec.ConfigValue<String> unixSocketPath;
+    public static ForgeConfigSpec.IntValue reusePortAcceptors;
+    public static ForgeConfigSpec.IntValue deferAcceptSeconds;
+    public static ForgeConfigSpec.IntValue tcpFastOpenQueue;
+
+    static {
+        ForgeConfigSpec.Builder common_builder = new ForgeConfigSpec.Builder();
+        common_builder.push("listener");
+        useIoUring = common_builder.comment("""
+                
+                Run the server listener and all connections on Netty's io_uring transport instead of epoll/nio
+                Fewer syscalls per connection on Linux 5.x/6.x kernels, which shows during connection floods
+                \t- needs netty-incubator-transport-native-io_uring (linux-x86_64 or linux-aarch_64 classifier)
+                \t  built for the Netty version your Minecraft ships, on the server classpath
+                \t- falls back to epoll/nio with a warning when it cannot be loaded or the kernel refuses it
+                \t- ReusePortAcceptors, DeferAcceptSeconds, TcpFastOpenQueue and UnixSocketPath are epoll only
+                \t  and are skipped while io_uring is in use""").define("UseIoUring", false);
+
+        unixSocketPath = common_builder.comment("""
+                
+                Path of an extra unix domain socket listener, e.g. /run/minecraft/server.sock, empty to disable
+                For frpc/HAProxy running on the same machine: point them at this path instead of 127.0.0.1
+                and they skip the loopback tcp stack on both ends
+                \t- Linux with the epoll transport only (use-native-transport=true in server.properties)
+                \t- every connection on it MUST start with a PROXY header (v2 preferred), whatever ProxyProtocol says,
+                \t  since a unix socket has no peer ip to judge
+                \t- make sure the proxy's user can write to the socket""").define("UnixSocketPath", "");
+
+        reusePortAcceptors = common_builder.comment("""
+                
+                Number of acceptor sockets bound to the server port with SO_REUSEPORT, 1 disables
+                Minecraft accepts every connection on a single thread, which is the bottleneck during join floods;
+                with more acceptors the kernel spreads new connections across that many event loop threads
+                \t- Linux with the epoll transport only (use-native-transport=true in server.properties)
+                \t- capped to the number of Minecraft's network threads
+                \t- do not run a second server on the same port, the kernel would happily share it too""").defineInRange("ReusePortAcceptors", 1, 1, 64);
+
+        deferAcceptSeconds = common_builder.comment("""
+                
+                TCP_DEFER_ACCEPT seconds, 0 disables
+                The kernel finishes accepting a connection only once it sent data, so port scanners and
+                bots that connect and say nothing never reach Minecraft or the firewall at all.
+                Players and proxies always send first, they are not affected
+                \t- Linux with the epoll transport only (use-native-transport=true in server.properties)
+                \t- connections silent for longer are still handed over (and then closed by DecisionTimeoutMillis)""").defineInRange("DeferAcceptSeconds", 0, 0, 30);
+
+        tcpFastOpenQueue = common_builder.comment("""
+                
+                TCP_FASTOPEN queue length for the listener, 0 disables
+                Lets clients that support it (mostly proxies) send their first bytes with the SYN,
+                saving a round trip per connection. Also needs net.ipv4.tcp_fastopen to allow server side use
+                \t- Linux with the epoll transport only""").defineInRange("TcpFastOpenQueue", 0, 0, 65535);
+
+        common_builder.pop();
+        COMMON_CONFIG = common_builder.build();
+    }
+}
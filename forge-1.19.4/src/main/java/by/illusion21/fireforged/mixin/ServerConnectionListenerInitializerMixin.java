@@ -1,7 +1,10 @@
 package by.illusion21.fireforged.mixin;
 
 import by.illusion21.fireforged.Fireforged;
+import by.illusion21.fireforged.firewall.TrafficCounter;
+import by.illusion21.fireforged.handshake.HandshakeHandler;
 import by.illusion21.fireforged.proxyprotocol.ProxyHandler;
+import by.illusion21.fireforged.status.StatusCache;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelPipeline;
 import org.slf4j.Logger;
@@ -28,7 +31,11 @@ public abstract class ServerConnectionListenerInitializerMixin {
 
         if (pipeline.get("fireforged_firewall_handler") == null) { // safety check
             pipeline.addFirst("fireforged_proxy_handler", new ProxyHandler());
+            pipeline.addFirst("fireforged_traffic_counter", new TrafficCounter());
             pipeline.addLast("fireforged_firewall_handler", new FirewallHandler());
+            if (StatusCache.isEnabled() || Fireforged.getStatusRateLimiter() != null || Fireforged.getHandshakeFilter() != null) {
+                pipeline.addLast(HandshakeHandler.NAME, new HandshakeHandler()); // Still ahead of every vanilla handler
+            }
             fireforged$LOGGER.debug("Added FirewallHandler for channel: {}", channel.id());
         }
     }
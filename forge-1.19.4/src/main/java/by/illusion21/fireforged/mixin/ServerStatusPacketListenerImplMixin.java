@@ -2,6 +2,9 @@ package by.illusion21.fireforged.mixin;
 
 import by.illusion21.fireforged.Fireforged;
 import by.illusion21.fireforged.config.FirewallConfig;
+import by.illusion21.fireforged.firewall.FirewallHandler;
+import by.illusion21.fireforged.firewall.limit.BanScores;
+import by.illusion21.fireforged.firewall.limit.Greylist;
 import io.netty.channel.ChannelOption;
 import net.minecraft.network.Connection;
 import net.minecraft.network.protocol.status.ServerboundPingRequestPacket;
@@ -31,8 +34,9 @@ public abstract class ServerStatusPacketListenerImplMixin {
 
     @Inject(method = "handleStatusRequest", at = @At("HEAD"), cancellable = true)
     private void preventStatusResponse(ServerboundStatusRequestPacket p_10095_, CallbackInfo ci) {
-        if (FirewallConfig.hideMotd.get()) {
-            // If hiding is enabled, simply cancel the method.
+        Fireforged.penalize(this.connection.getRemoteAddress(), BanScores.Offence.STATUS_PROBE);
+        if (!FirewallHandler.isStatusAllowed(this.connection.channel())) {
+            // If the verdict (or hideMotd) took status away, simply cancel the method.
             // No response packet will be sent, and the connection remains open
             // until potentially timed out by the client or server.
             // This avoids sending any data back for the status request.
@@ -45,8 +49,10 @@ public abstract class ServerStatusPacketListenerImplMixin {
 
     @Inject(method = "handlePingRequest", at = @At("HEAD"), cancellable = true)
     private void preventPingResponse(ServerboundPingRequestPacket p_10093_, CallbackInfo ci) {
-        if (FirewallConfig.hideMotd.get()) {
-            // If hiding is enabled, disconnect the client immediately
+        // A finished server list ping vouches for a login from the same address
+        Greylist.recordPing(this.connection.getRemoteAddress());
+        if (!FirewallHandler.isStatusAllowed(this.connection.channel())) {
+            // If status is not allowed, disconnect the client immediately
             // without sending the pong packet.
             // Use the same disconnect reason the original method uses after sending pong.
             fireforged$logger.info("Initial ping [{}], dropping", this.connection.getRemoteAddress());
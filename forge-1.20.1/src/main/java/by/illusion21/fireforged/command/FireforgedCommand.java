@@ -0,0 +1,103 @@
+package by.illusion21.fireforged.command;
+
+import by.illusion21.fireforged.Fireforged;
+import by.illusion21.fireforged.firewall.limit.Greylist;
+import by.illusion21.fireforged.metrics.FirewallMetrics;
+import by.illusion21.fireforged.metrics.TopSources;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/// `/fireforged top [connections|bytes] [count]` lists the heaviest sources,
+/// `/fireforged metrics` dumps every counter and gauge,
+/// `/fireforged greylist [off|always|attack_mode]` shows or switches greylisting until the next restart. Operators only.
+public final class FireforgedCommand {
+    private static final int DEFAULT_COUNT = 10;
+
+    private FireforgedCommand() {
+    }
+
+    public static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
+        dispatcher.register(Commands.literal(Fireforged.MODID)
+                .requires(source -> source.hasPermission(3))
+                .then(Commands.literal("top")
+                        .executes(ctx -> showTop(ctx.getSource(), false, DEFAULT_COUNT))
+                        .then(Commands.literal("connections")
+                                .executes(ctx -> showTop(ctx.getSource(), false, DEFAULT_COUNT))
+                                .then(Commands.argument("count", IntegerArgumentType.integer(1, 100))
+                                        .executes(ctx -> showTop(ctx.getSource(), false, IntegerArgumentType.getInteger(ctx, "count")))))
+                        .then(Commands.literal("bytes")
+                                .executes(ctx -> showTop(ctx.getSource(), true, DEFAULT_COUNT))
+                                .then(Commands.argument("count", IntegerArgumentType.integer(1, 100))
+                                        .executes(ctx -> showTop(ctx.getSource(), true, IntegerArgumentType.getInteger(ctx, "count"))))))
+                .then(Commands.literal("metrics")
+                        .executes(ctx -> showMetrics(ctx.getSource())))
+                .then(greylist()));
+    }
+
+    private static LiteralArgumentBuilder<CommandSourceStack> greylist() {
+        LiteralArgumentBuilder<CommandSourceStack> greylist = Commands.literal("greylist")
+                .executes(ctx -> showGreylist(ctx.getSource()));
+        for (Greylist.Mode mode : Greylist.Mode.values()) {
+            greylist.then(Commands.literal(mode.name().toLowerCase(Locale.ROOT))
+                    .executes(ctx -> setGreylist(ctx.getSource(), mode)));
+        }
+        return greylist;
+    }
+
+    private static int showGreylist(CommandSourceStack source) {
+        source.sendSystemMessage(Component.literal("Greylist mode: " + Greylist.getMode() + (Greylist.isActive() ? " (active)" : " (inactive)")));
+        return 1;
+    }
+
+    private static int setGreylist(CommandSourceStack source, Greylist.Mode mode) {
+        Greylist.setMode(mode);
+        Fireforged.getLogger().info("{} set the greylist mode to {}", source.getTextName(), mode);
+        return showGreylist(source);
+    }
+
+    private static int showTop(CommandSourceStack source, boolean bytes, int count) {
+        String unit = bytes ? "bytes" : "connections";
+        source.sendSystemMessage(Component.literal("Top sources by " + unit + " since startup (estimate, ± most it may be over by):"));
+        showRanking(source, "Addresses", TopSources.top(bytes ? TopSources.Ranking.ADDRESS_BYTES : TopSources.Ranking.ADDRESS_CONNECTIONS, count), bytes);
+        showRanking(source, "Subnets", TopSources.top(bytes ? TopSources.Ranking.SUBNET_BYTES : TopSources.Ranking.SUBNET_CONNECTIONS, count), bytes);
+        return 1;
+    }
+
+    private static void showRanking(CommandSourceStack source, String title, List<TopSources.Source> sources, boolean bytes) {
+        source.sendSystemMessage(Component.literal(title + ":"));
+        if (sources.isEmpty()) {
+            source.sendSystemMessage(Component.literal("  (none yet)"));
+        }
+        for (int i = 0; i < sources.size(); i++) {
+            TopSources.Source entry = sources.get(i);
+            source.sendSystemMessage(Component.literal(String.format("  %2d. %-24s %s ± %s", i + 1, entry.getAddress(),
+                    format(entry.getCount(), bytes), format(entry.getError(), bytes))));
+        }
+    }
+
+    private static int showMetrics(CommandSourceStack source) {
+        for (Map.Entry<FirewallMetrics.Counter, Long> counter : FirewallMetrics.snapshot().entrySet()) {
+            source.sendSystemMessage(Component.literal(counter.getKey() + ": " + counter.getValue()));
+        }
+        for (Map.Entry<FirewallMetrics.Gauge, Long> gauge : FirewallMetrics.gauges().entrySet()) {
+            source.sendSystemMessage(Component.literal(gauge.getKey() + ": " + gauge.getValue()));
+        }
+        return 1;
+    }
+
+    private static String format(long value, boolean bytes) {
+        if (!bytes || value < 1024) {
+            return Long.toString(value);
+        }
+        int unit = (63 - Long.numberOfLeadingZeros(value)) / 10; // 1 = KiB, 2 = MiB, ...
+        return String.format("%.1f %siB", value / (double) (1L << (unit * 10)), "KMGTPE".charAt(unit - 1));
+    }
+}
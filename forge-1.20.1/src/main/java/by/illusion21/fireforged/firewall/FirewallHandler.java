@@ -1,26 +1,70 @@
 package by.illusion21.fireforged.firewall;
 
 import by.illusion21.fireforged.Fireforged;
+import by.illusion21.fireforged.config.FirewallConfig;
 import by.illusion21.fireforged.config.entity.Action;
+import by.illusion21.fireforged.event.FirewallListeners;
 import by.illusion21.fireforged.event.RealIpResolvedEvent;
+import by.illusion21.fireforged.firewall.limit.AddressKeys;
+import by.illusion21.fireforged.firewall.limit.AdmissionController;
+import by.illusion21.fireforged.firewall.limit.BanScores;
+import by.illusion21.fireforged.firewall.limit.ConnectionCaps;
+import by.illusion21.fireforged.firewall.limit.ConnectionRateLimiter;
+import by.illusion21.fireforged.firewall.limit.KnownAddresses;
+import by.illusion21.fireforged.firewall.utils.FirewallTimer;
 import by.illusion21.fireforged.firewall.utils.FirewallUtils;
-import by.illusion21.fireforged.firewall.utils.RuleManager;
+import by.illusion21.fireforged.handshake.HandshakeHandler;
+import by.illusion21.fireforged.proxyprotocol.ProxyHandler;
+import by.illusion21.fireforged.metrics.FirewallMetrics;
+import by.illusion21.fireforged.metrics.TopSources;
+import by.illusion21.fireforged.proxyprotocol.utils.ProxyTlvs;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.AttributeKey;
 import io.netty.util.ReferenceCountUtil;
-import net.minecraftforge.common.MinecraftForge;
-import net.minecraftforge.eventbus.api.SubscribeEvent;
+import io.netty.util.Timeout;
 import org.slf4j.Logger;
 
+import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayDeque;
 import java.util.Queue;
+import java.util.concurrent.TimeUnit;
 
 public class FirewallHandler extends ChannelInboundHandlerAdapter {
 
     private static final Logger LOGGER = Fireforged.getLogger();
-    private static final RuleManager RULE_MANAGER = Fireforged.getRuleManager();
+    // What an admitted connection may do, resolved once at verdict time so the status and login handlers only read a flag
+    public static final AttributeKey<Phases> PHASES = AttributeKey.newInstance("fireforgedPhases");
+
+    public enum Phases {
+        ALL(true, true),
+        STATUS_ONLY(true, false),
+        LOGIN_ONLY(false, true),
+        NONE(false, false);
+
+        private final boolean status;
+        private final boolean login;
+
+        Phases(boolean status, boolean login) {
+            this.status = status;
+            this.login = login;
+        }
+
+        public boolean allowsStatus() {
+            return status;
+        }
+
+        public boolean allowsLogin() {
+            return login;
+        }
+
+        static Phases of(boolean status, boolean login) {
+            return status ? (login ? ALL : STATUS_ONLY) : (login ? LOGIN_ONLY : NONE);
+        }
+    }
 
     // Buffer to hold messages received before the firewall decision
     private final Queue<Object> messageBuffer = new ArrayDeque<>();
@@ -30,23 +74,29 @@ public class FirewallHandler extends ChannelInboundHandlerAdapter {
     private SocketAddress resolvedAddress = null;
     private boolean decided = false;
     private boolean firewallAllowed = false;
+    private Timeout decisionDeadline;
 
     @Override
     public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
         this.handlerContext = ctx;
-        MinecraftForge.EVENT_BUS.register(this);
+        AdmissionController.decisionPending();
+        int timeoutMillis = FirewallConfig.decisionTimeoutMillis.get();
+        if (timeoutMillis > 0) {
+            this.decisionDeadline = FirewallTimer.schedule(
+                    timeout -> ctx.executor().execute(() -> onDecisionDeadline(ctx)), timeoutMillis, TimeUnit.MILLISECONDS);
+        }
         super.handlerAdded(ctx);
     }
 
     @Override
     public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
-        if (this.handlerContext != null) {
-            MinecraftForge.EVENT_BUS.unregister(this);
-            FirewallUtils.releaseBufferedMessages(this.messageBuffer, LOGGER, "handlerRemoved");
-            this.handlerContext = null;
-        } else {
-            FirewallUtils.releaseBufferedMessages(this.messageBuffer, LOGGER, "handlerRemoved (context null)");
+        AdmissionController.decisionSettled();
+        if (this.decisionDeadline != null) {
+            this.decisionDeadline.cancel();
+            this.decisionDeadline = null;
         }
+        FirewallUtils.releaseBufferedMessages(this.messageBuffer, LOGGER, "handlerRemoved");
+        this.handlerContext = null;
         super.handlerRemoved(ctx);
     }
 
@@ -55,77 +105,187 @@ public class FirewallHandler extends ChannelInboundHandlerAdapter {
         ctx.fireChannelActive();
     }
 
-    @SubscribeEvent
-    public void onRealIpResolved(RealIpResolvedEvent event) {
-        if (this.handlerContext == null || event.getChannel() != this.handlerContext.channel()) {
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof RealIpResolvedEvent event) {
+            onRealIpResolved(ctx, event); // Ours alone, nothing further down cares
             return;
         }
+        super.userEventTriggered(ctx, evt);
+    }
 
-        this.handlerContext.executor().execute(() -> {
-            if (decided || this.handlerContext == null || !this.handlerContext.channel().isOpen()) {
-                if (this.handlerContext == null || !this.handlerContext.channel().isOpen() || !firewallAllowed) {
-                    FirewallUtils.releaseBufferedMessages(this.messageBuffer, LOGGER, "onRealIpResolved - skipped/closed/denied");
-                }
-                return;
-            }
-
-            checkPerformed = true;
-            this.resolvedAddress = event.getRealAddress();
-            LOGGER.debug("Firewall checking connection for channel {} with resolved address: {}", event.getChannel().id(), this.resolvedAddress);
-            final Action action;
-            try {
-                action = RULE_MANAGER.getActionForIp(this.resolvedAddress);
-            } catch (UnknownHostException e) {
-                LOGGER.error("Failed to resolve IP for rule checking: {}", this.resolvedAddress, e);
-                decided = true;
-                firewallAllowed = false;
-                FirewallUtils.releaseBufferedMessages(this.messageBuffer, LOGGER, "onRealIpResolved - UnknownHostException");
-                FirewallUtils.closeConnection(this.handlerContext, Action.DROP); // Drop on error
-                return; // Stop processing
-            } catch (Exception e) { // Catch potential runtime exceptions from RuleManager
-                LOGGER.error("Unexpected error during rule lookup for IP {}: {}", this.resolvedAddress, e.getMessage(), e);
-                // Decide before releasing/closing
-                decided = true;
-                firewallAllowed = false;
-                FirewallUtils.releaseBufferedMessages(this.messageBuffer, LOGGER, "onRealIpResolved - RuleManager Exception");
-                FirewallUtils.closeConnection(this.handlerContext, Action.DROP); // Drop on error
-                return; // Stop processing
+    /**
+     * Decides right away on the event loop, ProxyHandler fires the event from there.
+     */
+    private void onRealIpResolved(ChannelHandlerContext ctx, RealIpResolvedEvent event) {
+        if (decided || this.handlerContext == null || !ctx.channel().isOpen()) {
+            if (this.handlerContext == null || !ctx.channel().isOpen() || !firewallAllowed) {
+                FirewallUtils.releaseBufferedMessages(this.messageBuffer, LOGGER, "onRealIpResolved - skipped/closed/denied");
             }
+            return;
+        }
 
-            if (this.handlerContext.pipeline().context(this) == null) {
-                LOGGER.warn("FirewallHandler context is gone before action could be taken for channel {}. Releasing buffer.", event.getChannel().id());
-                decided = true;
-                firewallAllowed = false;
-                FirewallUtils.releaseBufferedMessages(this.messageBuffer, LOGGER, "onRealIpResolved - context gone before action");
-                return;
-            }
+        checkPerformed = true;
+        this.resolvedAddress = event.getRealAddress();
+        TopSources.connection(this.resolvedAddress);
+        LOGGER.debug("Firewall checking connection for channel {} with resolved address: {}", ctx.channel().id(), this.resolvedAddress);
+        final Action ruleAction;
+        try {
+            // A unix socket peer that stayed local (LOCAL header, LocalCommandAction ACCEPT) has no ip,
+            // the socket's file permissions already decided who may connect. A client of a tcp proxy's unix socket
+            // has none either, the rules of the proxy that relays it apply then (limits and bans never do)
+            SocketAddress ruleAddress = this.resolvedAddress instanceof InetSocketAddress
+                    ? this.resolvedAddress
+                    : ctx.channel().remoteAddress();
+            ruleAction = ruleAddress instanceof InetSocketAddress
+                    ? Fireforged.getRuleManager().getActionForIp(ruleAddress)
+                    : Action.ACCEPT;
+        } catch (UnknownHostException e) {
+            LOGGER.error("Failed to resolve IP for rule checking: {}", this.resolvedAddress, e);
+            decided = true;
+            firewallAllowed = false;
+            FirewallUtils.releaseBufferedMessages(this.messageBuffer, LOGGER, "onRealIpResolved - UnknownHostException");
+            FirewallUtils.closeConnection(ctx, Action.DROP); // Drop on error
+            return; // Stop processing
+        } catch (Exception e) { // Catch potential runtime exceptions from RuleManager
+            LOGGER.error("Unexpected error during rule lookup for IP {}: {}", this.resolvedAddress, e.getMessage(), e);
+            // Decide before releasing/closing
             decided = true;
+            firewallAllowed = false;
+            FirewallUtils.releaseBufferedMessages(this.messageBuffer, LOGGER, "onRealIpResolved - RuleManager Exception");
+            FirewallUtils.closeConnection(ctx, Action.DROP); // Drop on error
+            return; // Stop processing
+        }
 
-            if (action != Action.ACCEPT) {
-                firewallAllowed = false;
-                LOGGER.info("Firewall denied connection from {} (Channel: {}) Action: {}", this.resolvedAddress, event.getChannel().id(), action);
-                FirewallUtils.releaseBufferedMessages(this.messageBuffer, LOGGER, "onRealIpResolved - denied");
-                FirewallUtils.closeConnection(this.handlerContext, action);
+        // Limits only ever narrow an admitting action, a denied source needs no bookkeeping
+        final Action action = ruleAction.admits() ? applyLimits(ctx.channel(), ruleAction) : ruleAction;
+        decided = true;
+        FirewallListeners.fireVerdict(ctx.channel(), this.resolvedAddress, action);
+
+        if (!action.admits()) {
+            firewallAllowed = false;
+            if (!ruleAction.admits()) {
+                Fireforged.penalize(this.resolvedAddress, BanScores.Offence.DENIED);
+            }
+            ProxyTlvs tlvs = ProxyHandler.getProxyTlvs(ctx.channel());
+            if (ruleAction.admits()) {
+                // Over a limit; these come in floods, so keep them out of the info log
+                LOGGER.debug("Firewall limited connection from {} (Channel: {}) Action: {}", this.resolvedAddress, ctx.channel().id(), action);
+            } else if (tlvs != null) {
+                LOGGER.info("Firewall denied connection from {} (Channel: {}) Action: {} {}", this.resolvedAddress, ctx.channel().id(), action, tlvs);
             } else {
-                firewallAllowed = true;
-                LOGGER.debug("Firewall allowed connection from {} (Channel: {})", this.resolvedAddress, event.getChannel().id());
-
-                // Drain the buffer BEFORE removing the handler
-                drainAndForwardMessages(event.getChannel().id());
-
-                if (this.handlerContext != null && this.handlerContext.pipeline().context(this) != null && this.handlerContext.channel().isOpen()) {
-                    try {
-                        this.handlerContext.pipeline().remove(this);
-                    } catch (Exception e) {
-                        LOGGER.error("Error removing FirewallHandler for channel {}: {}", event.getChannel().id(), e.getMessage(), e);
-                        FirewallUtils.releaseBufferedMessages(this.messageBuffer, LOGGER, "onRealIpResolved - removal failed");
-                    }
-                } else {
-                    LOGGER.warn("Context became invalid before handler removal could be attempted for channel {}. Buffer should be clear.", event.getChannel().id());
-                    FirewallUtils.releaseBufferedMessages(this.messageBuffer, LOGGER, "onRealIpResolved - context invalid pre-removal");
+                LOGGER.info("Firewall denied connection from {} (Channel: {}) Action: {}", this.resolvedAddress, ctx.channel().id(), action);
+            }
+            FirewallUtils.releaseBufferedMessages(this.messageBuffer, LOGGER, "onRealIpResolved - denied");
+            FirewallUtils.closeConnection(ctx, action);
+        } else {
+            firewallAllowed = true;
+            LOGGER.debug("Firewall allowed connection from {} (Channel: {}) Action: {}", this.resolvedAddress, ctx.channel().id(), action);
+            restrictPhases(ctx, action);
+
+            // Drain the buffer BEFORE removing the handler
+            drainAndForwardMessages(ctx.channel().id());
+
+            if (ctx.pipeline().context(this) != null && ctx.channel().isOpen()) {
+                try {
+                    ctx.pipeline().remove(this);
+                } catch (Exception e) {
+                    LOGGER.error("Error removing FirewallHandler for channel {}: {}", ctx.channel().id(), e.getMessage(), e);
+                    FirewallUtils.releaseBufferedMessages(this.messageBuffer, LOGGER, "onRealIpResolved - removal failed");
                 }
+            } else {
+                LOGGER.warn("Context became invalid before handler removal could be attempted for channel {}. Buffer should be clear.", ctx.channel().id());
+                FirewallUtils.releaseBufferedMessages(this.messageBuffer, LOGGER, "onRealIpResolved - context invalid pre-removal");
+            }
+        }
+    }
+
+    /**
+     * Per-source limits, only consulted for connections the rules accept.
+     * Going over one counts towards a ban, being shed does not: the overload is not this source's doing.
+     *
+     * @return The rules' action, or the configured action of the first limit the source is over.
+     */
+    private Action applyLimits(Channel channel, Action ruleAction) {
+        BanScores banScores = Fireforged.getBanScores();
+        if (banScores != null && banScores.isBanned(this.resolvedAddress)) {
+            FirewallMetrics.increment(FirewallMetrics.Counter.BANNED_REFUSED);
+            Fireforged.penalize(this.resolvedAddress, BanScores.Offence.DENIED);
+            return FirewallConfig.banAction.get();
+        }
+        // Then shedding, a shed connection should not use up its source's rate or cap either
+        if (AdmissionController.shouldShed(this.resolvedAddress)) {
+            FirewallMetrics.increment(FirewallMetrics.Counter.ADMISSION_SHED);
+            return FirewallConfig.admissionShedAction.get();
+        }
+        ConnectionRateLimiter rateLimiter = Fireforged.getConnectionRateLimiter();
+        if (rateLimiter != null) {
+            long key = AddressKeys.of(this.resolvedAddress, rateLimiter.getIpv4Prefix(), rateLimiter.getIpv6Prefix());
+            if (key != AddressKeys.NO_KEY && !rateLimiter.tryAcquire(key)) {
+                FirewallMetrics.increment(FirewallMetrics.Counter.RATE_LIMITED);
+                Fireforged.penalize(this.resolvedAddress, BanScores.Offence.DENIED);
+                return FirewallConfig.rateLimitAction.get();
             }
-        });
+        }
+        // Last, since an admitted connection holds its slot until the channel closes
+        ConnectionCaps connectionCaps = Fireforged.getConnectionCaps();
+        if (connectionCaps != null && !connectionCaps.tryAdmit(channel, this.resolvedAddress)) {
+            FirewallMetrics.increment(FirewallMetrics.Counter.CONNECTION_CAPPED);
+            Fireforged.penalize(this.resolvedAddress, BanScores.Offence.DENIED);
+            return FirewallConfig.connectionCapAction.get();
+        }
+        KnownAddresses.record(this.resolvedAddress);
+        return ruleAction;
+    }
+
+    /**
+     * Stores what the connection may do, with hideMotd folded in. A connection that may not do everything
+     * gets a HandshakeHandler if it has none, so a legacy ping cannot go around the restriction.
+     */
+    private static void restrictPhases(ChannelHandlerContext ctx, Action action) {
+        Phases phases = Phases.of(action.allowsStatus() && !FirewallConfig.hideMotd.get(), action.allowsLogin());
+        ctx.channel().attr(PHASES).set(phases);
+        if (phases != Phases.ALL && ctx.pipeline().get(HandshakeHandler.NAME) == null) {
+            ctx.pipeline().addAfter(ctx.name(), HandshakeHandler.NAME, new HandshakeHandler());
+        }
+    }
+
+    /**
+     * @return true unless the verdict took server list pings away from the connection.
+     */
+    public static boolean isStatusAllowed(Channel channel) {
+        Phases phases = channel.attr(PHASES).get();
+        return phases == null || phases.allowsStatus(); // null = never went through a firewall, e.g. the integrated server
+    }
+
+    /**
+     * @return true unless the verdict took logging in away from the connection.
+     */
+    public static boolean isLoginAllowed(Channel channel) {
+        Phases phases = channel.attr(PHASES).get();
+        return phases == null || phases.allowsLogin();
+    }
+
+    /**
+     * Runs on the event loop once the deadline passed. Closes the connection if it is still waiting
+     * for its PROXY header or its verdict, which is what slowloris-style holders look like.
+     */
+    private void onDecisionDeadline(ChannelHandlerContext ctx) {
+        if (decided || !ctx.channel().isOpen()) {
+            return;
+        }
+        decided = true;
+        firewallAllowed = false;
+
+        boolean headerReceived = ProxyHandler.getRealRemoteAddress(ctx.channel()) != null;
+        FirewallMetrics.increment(headerReceived
+                ? FirewallMetrics.Counter.DECISION_TIMEOUTS
+                : FirewallMetrics.Counter.PROXY_HEADER_TIMEOUTS);
+        LOGGER.debug("Firewall deadline passed for channel {} from {} ({}). Closing.", ctx.channel().id(), ctx.channel().remoteAddress(),
+                headerReceived ? "no verdict" : "no PROXY header");
+
+        FirewallUtils.releaseBufferedMessages(this.messageBuffer, LOGGER, "decision deadline");
+        FirewallUtils.closeConnection(ctx, Action.DROP);
     }
 
     private void drainAndForwardMessages(Object channelId) {
@@ -185,32 +345,21 @@ public class FirewallHandler extends ChannelInboundHandlerAdapter {
                 cause.getMessage(), cause);
 
         FirewallUtils.releaseBufferedMessages(this.messageBuffer, LOGGER, "exceptionCaught");
+        if (ctx != null && this.resolvedAddress != null) {
+            Fireforged.penalize(this.resolvedAddress, BanScores.Offence.PIPELINE_EXCEPTION);
+        } else if (ctx != null) {
+            Fireforged.penalizePeer(ctx.channel().remoteAddress(), BanScores.Offence.PIPELINE_EXCEPTION); // Before a PROXY header
+        }
 
         if (!decided) {
             decided = true;
             firewallAllowed = false;
-            safeUnregisterFromEventBus();
             if (ctx != null && ctx.channel().isOpen()) {
                 FirewallUtils.closeConnection(ctx, Action.DROP);
             }
         } else if (ctx != null && ctx.pipeline().context(this) != null) {
             LOGGER.trace("Forwarding exception caught after firewall decision for channel {}", ctx.channel().id());
             ctx.fireExceptionCaught(cause);
-            safeUnregisterFromEventBus();
-        } else {
-            safeUnregisterFromEventBus();
-        }
-    }
-
-    private void safeUnregisterFromEventBus() {
-        Object channelId = (this.handlerContext != null && this.handlerContext.channel() != null)
-                ? this.handlerContext.channel().id()
-                : "unknown";
-        try {
-            MinecraftForge.EVENT_BUS.unregister(this);
-            LOGGER.trace("Attempted safe unregister from event bus for channel {}", channelId);
-        } catch (Exception e) {
-            LOGGER.error("Exception during safe unregister from event bus for channel {}: {}", channelId, e.getMessage(), e);
         }
     }
 
@@ -0,0 +1,43 @@
+package by.illusion21.fireforged.firewall;
+
+import by.illusion21.fireforged.metrics.TopSources;
+import by.illusion21.fireforged.proxyprotocol.ProxyHandler;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+import java.net.SocketAddress;
+
+/// First in the pipeline for the connection's whole life, counts received bytes for [TopSources].
+/// Bytes are summed locally and handed over every [#FLUSH_BYTES] and once more when the handler goes away.
+public class TrafficCounter extends ChannelInboundHandlerAdapter {
+    private static final long FLUSH_BYTES = 64 * 1024;
+
+    private long unreported = 0;
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof ByteBuf buf) {
+            unreported += buf.readableBytes();
+            if (unreported >= FLUSH_BYTES) {
+                report(ctx);
+            }
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        report(ctx); // Channel closed, or the tarpit cleared the pipeline
+    }
+
+    private void report(ChannelHandlerContext ctx) {
+        if (unreported == 0) {
+            return;
+        }
+        // Before a PROXY header arrives the bytes are the peer's own
+        SocketAddress address = ProxyHandler.getRealRemoteAddress(ctx.channel());
+        TopSources.bytes(address != null ? address : ctx.channel().remoteAddress(), unreported);
+        unreported = 0;
+    }
+}
@@ -0,0 +1,29 @@
+package by.illusion21.fireforged.mixin;
+
+import by.illusion21.fireforged.Fireforged;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.players.ServerOpList;
+import net.minecraft.server.players.StoredUserList;
+import net.minecraft.server.players.UserWhiteList;
+import net.minecraftforge.server.ServerLifecycleHooks;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+
+@Mixin(StoredUserList.class)
+public abstract class StoredUserListMixin {
+
+    // /whitelist, /op and their reloads all run on the server thread, the snapshot is taken there
+    @Inject(method = {"add", "remove(Ljava/lang/Object;)V", "load"}, at = @At("TAIL"))
+    private void refreshWhitelistedNames(CallbackInfo ci) {
+        if (!((Object) this instanceof UserWhiteList) && !((Object) this instanceof ServerOpList)) {
+            return;
+        }
+        MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        if (server != null && server.getPlayerList() != null) { // Not while the lists are first loaded, the server start takes it then
+            Fireforged.refreshWhitelistedNames(server.getPlayerList());
+        }
+    }
+}
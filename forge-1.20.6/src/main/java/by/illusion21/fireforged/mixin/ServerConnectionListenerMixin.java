@@ -0,0 +1,77 @@
+package by.illusion21.fireforged.mixin;
+
+import by.illusion21.fireforged.Fireforged;
+import by.illusion21.fireforged.config.ListenerConfig;
+import by.illusion21.fireforged.firewall.limit.AdmissionController;
+import by.illusion21.fireforged.network.ServerListeners;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelFuture;
+import net.minecraft.server.network.ServerConnectionListener;
+import org.slf4j.Logger;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Redirect;
+
+import java.util.List;
+
+
+@Mixin(ServerConnectionListener.class)
+public abstract class ServerConnectionListenerMixin {
+    @Unique
+    private static final Logger fireforged$LOGGER = Fireforged.getLogger();
+
+    @Shadow
+    @Final
+    private List<ChannelFuture> channels;
+
+    // Minecraft's fully configured bootstrap is the template for our extra listeners,
+    // they end up in the same channel list, so Minecraft closes them on stop like its own
+    @Redirect(method = "startTcpServerListener",
+            at = @At(value = "INVOKE", target = "Lio/netty/bootstrap/ServerBootstrap;bind()Lio/netty/channel/ChannelFuture;", remap = false))
+    private ChannelFuture onBindServerListener(ServerBootstrap bootstrap) {
+        if (ListenerConfig.useIoUring.get()) {
+            bootstrap = ServerListeners.useIoUring(bootstrap, fireforged$LOGGER);
+        }
+        ServerListeners.applyAcceptOptions(bootstrap, ListenerConfig.deferAcceptSeconds.get(),
+                ListenerConfig.tcpFastOpenQueue.get(), fireforged$LOGGER);
+        int acceptors = ListenerConfig.reusePortAcceptors.get();
+        if (acceptors > 1) {
+            acceptors = ServerListeners.enableReusePort(bootstrap, acceptors, fireforged$LOGGER);
+        }
+        ChannelFuture mainChannel = bootstrap.bind();
+        AdmissionController.watchEventLoops(bootstrap.config().childGroup());
+        AdmissionController.watchListener(mainChannel.channel());
+
+        if (acceptors > 1) {
+            // The extra acceptors need the port, which Minecraft's own listener only holds once bound
+            if (mainChannel.awaitUninterruptibly().isSuccess()) {
+                for (ChannelFuture acceptor : ServerListeners.bindReusePortAcceptors(bootstrap, acceptors - 1, fireforged$LOGGER)) {
+                    fireforged$addExtraChannel(acceptor, "SO_REUSEPORT acceptor");
+                }
+            }
+        }
+
+        String unixSocketPath = ListenerConfig.unixSocketPath.get().trim();
+        if (!unixSocketPath.isEmpty()) {
+            ChannelFuture unixChannel = ServerListeners.bindDomainSocket(bootstrap, unixSocketPath, fireforged$LOGGER);
+            if (unixChannel != null) {
+                fireforged$addExtraChannel(unixChannel, "unix socket listener at " + unixSocketPath);
+            }
+        }
+        return mainChannel;
+    }
+
+    // Extra listeners are optional, a failed bind is logged instead of failing the server start
+    @Unique
+    private void fireforged$addExtraChannel(ChannelFuture channel, String description) {
+        if (channel.awaitUninterruptibly().isSuccess()) {
+            this.channels.add(channel);
+            AdmissionController.watchListener(channel.channel());
+        } else {
+            fireforged$LOGGER.error("Failed to bind {}", description, channel.cause());
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package by.illusion21.fireforged.mixin;
+
+import by.illusion21.fireforged.Fireforged;
+import by.illusion21.fireforged.config.FirewallConfig;
+import by.illusion21.fireforged.firewall.FirewallHandler;
+import by.illusion21.fireforged.firewall.limit.BanScores;
+import by.illusion21.fireforged.firewall.limit.Greylist;
+import by.illusion21.fireforged.login.LoginGate;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import net.minecraft.network.Connection;
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.protocol.login.ServerboundHelloPacket;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerLoginPacketListenerImpl;
+import org.slf4j.Logger;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import java.net.SocketAddress;
+
+
+@Mixin(ServerLoginPacketListenerImpl.class)
+public abstract class ServerLoginPacketListenerImplMixin {
+
+    @Unique
+    private static final Logger fireforged$logger = Fireforged.getLogger();
+
+    @Shadow @Final Connection connection;
+
+    @Shadow @Final MinecraftServer server;
+
+    @Shadow public abstract void disconnect(Component reason);
+
+    // Before the name is looked at, so a refused login costs no profile lookup, encryption request or session server call
+    @Inject(method = "handleHello", at = @At("HEAD"), cancellable = true)
+    private void checkLogin(ServerboundHelloPacket packet, CallbackInfo ci) {
+        if (!FirewallHandler.isLoginAllowed(this.connection.channel())) {
+            // The verdict only allowed a server list ping, usually caught at the handshake already
+            fireforged$logger.debug("Login not allowed [{}], dropping", this.connection.getRemoteAddress());
+            this.connection.channel().config().setOption(ChannelOption.SO_LINGER, 0);
+            this.connection.channel().close();
+            ci.cancel();
+            return;
+        }
+        if (fireforged$gate(packet.name())) {
+            ci.cancel();
+            return;
+        }
+        if (!Greylist.admitLogin(this.connection.getRemoteAddress())) {
+            fireforged$logger.debug("Greylisted login [{}], asking to reconnect", this.connection.getRemoteAddress());
+            this.disconnect(Component.literal(FirewallConfig.greylistMessage.get()));
+            ci.cancel();
+        }
+    }
+
+    /**
+     * @return true if the LoginGate refused the login, it is then being disconnected.
+     */
+    @Unique
+    private boolean fireforged$gate(String name) {
+        // Only network connections have one, the frame is written from there so no encoder of the server touches it
+        ChannelHandlerContext first = this.connection.channel().pipeline().context("fireforged_traffic_counter");
+        if (first == null || !LoginGate.isEnabled()) {
+            return false;
+        }
+        SocketAddress address = this.connection.getRemoteAddress();
+        LoginGate.Verdict verdict = LoginGate.check(name, address, this.server.getPlayerList().isUsingWhitelist());
+        if (verdict == LoginGate.Verdict.ADMIT) {
+            return false;
+        }
+        Fireforged.penalize(address, BanScores.Offence.DENIED);
+        fireforged$logger.debug("Login of {} refused before encryption [{}]: {}", name, address, verdict);
+        first.writeAndFlush(LoginGate.disconnectFrame()).addListener(ChannelFutureListener.CLOSE);
+        return true;
+    }
+}
@@ -4,14 +4,21 @@ package by.illusion21.fireforged.proxyprotocol;
 
 import by.illusion21.fireforged.Fireforged;
 import by.illusion21.fireforged.config.FirewallConfig;
+import by.illusion21.fireforged.config.entity.Action;
+import by.illusion21.fireforged.event.FirewallListeners;
 import by.illusion21.fireforged.event.RealIpResolvedEvent;
+import by.illusion21.fireforged.firewall.limit.BanScores;
+import by.illusion21.fireforged.firewall.utils.FirewallUtils;
+import by.illusion21.fireforged.metrics.FirewallMetrics;
+import by.illusion21.fireforged.mixin.ConnectionAccessor;
+import by.illusion21.fireforged.proxyprotocol.utils.ProxyTlvs;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.util.AttributeKey;
 import io.netty.util.ReferenceCountUtil;
-import net.minecraftforge.common.MinecraftForge;
+import net.minecraft.network.Connection;
 import org.slf4j.Logger;
 
 import java.net.InetSocketAddress;
@@ -21,24 +28,65 @@ public class ProxyHandler extends ChannelInboundHandlerAdapter {
     private static final Logger LOGGER = Fireforged.getLogger();
 
     public static final AttributeKey<SocketAddress> REAL_REMOTE_ADDRESS = AttributeKey.newInstance("realRemoteAddress");
+    // Selected PROXY v2 TLVs (authority, unique id, custom frontend flags); only set when the proxy sent any
+    public static final AttributeKey<ProxyTlvs> PROXY_TLVS = AttributeKey.newInstance("proxyTlvs");
+    // Minecraft's Connection for this channel, set by ConnectionMixin once it is active
+    public static final AttributeKey<Connection> CONNECTION = AttributeKey.newInstance("fireforgedConnection");
 
     private ProxyProtocolProcessor protocolProcessor;
     private boolean proxyProtocolEnabled;
 
     @Override
     public void handlerAdded(ChannelHandlerContext ctx) {
-        this.proxyProtocolEnabled = FirewallConfig.isProxyProtocolEnabled.get();
+        FirewallMetrics.increment(FirewallMetrics.Counter.CONNECTIONS_ACCEPTED);
         SocketAddress originalAddress = ctx.channel().remoteAddress();
+        // Headers are only required from, and only honoured for, trusted proxies.
+        // Anything not on an ip socket came in through the unix socket listener, which always requires one.
+        this.proxyProtocolEnabled = !(originalAddress instanceof InetSocketAddress)
+                || (FirewallConfig.isProxyProtocolEnabled.get() && Fireforged.isTrustedProxy(originalAddress));
 
-        if (!proxyProtocolEnabled) {
-            ctx.channel().attr(REAL_REMOTE_ADDRESS).set(originalAddress);
-            ctx.pipeline().remove(this);
-        } else {
+        if (proxyProtocolEnabled) {
             LOGGER.debug("[{}] Proxy protocol enabled for {}. Waiting for header.", ctx.channel().id(), originalAddress);
             this.protocolProcessor = new ProxyProtocolProcessor(LOGGER, originalAddress);
         }
     }
 
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) {
+        if (!proxyProtocolEnabled) {
+            // Direct connection, the socket address is the real one. Resolve right away so the
+            // firewall can decide without waiting for data; Connection is active by then.
+            SocketAddress originalAddress = ctx.channel().remoteAddress();
+            LOGGER.trace("[{}] Treating {} as a direct connection.", ctx.channel().id(), originalAddress);
+            ctx.channel().attr(REAL_REMOTE_ADDRESS).set(originalAddress);
+            ctx.fireChannelActive();
+            fireRealIpResolvedEvent(ctx, originalAddress, false);
+            if (ctx.pipeline().context(this) != null) { // A TARPIT verdict has already emptied the pipeline
+                ctx.pipeline().remove(this);
+            }
+            return;
+        }
+        ctx.fireChannelActive();
+        refuseBannedPeer(ctx);
+    }
+
+    /**
+     * Without a TrustedProxies list any peer may send a header, so the peer itself is who sends a bad one.
+     * Bans are otherwise only checked once a header parsed, a peer banned for bad headers is turned away here.
+     */
+    private void refuseBannedPeer(ChannelHandlerContext ctx) {
+        BanScores banScores = Fireforged.getBanScores();
+        SocketAddress peerAddress = ctx.channel().remoteAddress();
+        if (banScores == null || Fireforged.isListedProxy(peerAddress) || !banScores.isBanned(peerAddress)) {
+            return;
+        }
+        FirewallMetrics.increment(FirewallMetrics.Counter.BANNED_REFUSED);
+        Fireforged.penalize(peerAddress, BanScores.Offence.DENIED);
+        LOGGER.debug("[{}] Banned peer {} refused before its PROXY header.", ctx.channel().id(), peerAddress);
+        releaseProcessorAndRemoveHandler(ctx);
+        FirewallUtils.closeConnection(ctx, FirewallConfig.banAction.get());
+    }
+
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
         if (!proxyProtocolEnabled || (protocolProcessor != null && protocolProcessor.isProcessingComplete())) {
@@ -62,18 +110,21 @@ public class ProxyHandler extends ChannelInboundHandlerAdapter {
         }
 
         // Delegate processing to the common processor
-        ProxyProtocolProcessor.ProcessingResult result = null;
+        ByteBuf remainingData = null;
         try {
-            result = protocolProcessor.processData(ctx.alloc(), data);
-
-            switch (result.getStatus()) {
-                case SUCCESS:
-                    handleProcessingSuccess(ctx, result.getRealAddress(), result.getRemainingData());
+            switch (protocolProcessor.processData(ctx.alloc(), data)) {
+                case ProxyProtocolProcessor.SUCCESS:
+                    remainingData = protocolProcessor.getRemainingData();
+                    handleProcessingSuccess(ctx, protocolProcessor.getRealAddress(), protocolProcessor.getTlvs(), remainingData);
                     break;
-                case FAILURE:
-                    handleProcessingFailure(ctx, result.getFailureReason());
+                case ProxyProtocolProcessor.LOCAL:
+                    remainingData = protocolProcessor.getRemainingData();
+                    handleLocalCommand(ctx, remainingData);
                     break;
-                case INCOMPLETE:
+                case ProxyProtocolProcessor.FAILURE:
+                    handleProcessingFailure(ctx, protocolProcessor.getFailureReason());
+                    break;
+                case ProxyProtocolProcessor.INCOMPLETE:
                     LOGGER.trace("[{}] Proxy header processing incomplete, waiting for more data.", ctx.channel().id());
                     break;
             }
@@ -81,17 +132,24 @@ public class ProxyHandler extends ChannelInboundHandlerAdapter {
             LOGGER.error("[{}] Unexpected exception during proxy processing for {}", ctx.channel().id(), ctx.channel().remoteAddress(), e);
             handleProcessingFailure(ctx, "Unexpected exception: " + e.getMessage());
         } finally {
-            if (!(result != null && result.getStatus() == ProxyProtocolProcessor.ProcessingResult.Status.SUCCESS && result.getRemainingData() == data)) {
+            // The read buffer is handed downstream as-is when the header was parsed in place
+            if (remainingData != data) {
                 ReferenceCountUtil.release(data);
             }
         }
     }
 
-    private void handleProcessingSuccess(ChannelHandlerContext ctx, SocketAddress realAddress, ByteBuf remainingData) {
-        LOGGER.info("[{}] PROXY protocol parsed successfully for {}. Real client: {}", ctx.channel().id(), ctx.channel().remoteAddress(), realAddress);
+    private void handleProcessingSuccess(ChannelHandlerContext ctx, SocketAddress realAddress, ProxyTlvs tlvs, ByteBuf remainingData) {
+        if (tlvs != null) {
+            LOGGER.info("[{}] PROXY protocol parsed successfully for {}. Real client: {} {}", ctx.channel().id(), ctx.channel().remoteAddress(), realAddress, tlvs);
+            ctx.channel().attr(PROXY_TLVS).set(tlvs);
+        } else {
+            LOGGER.info("[{}] PROXY protocol parsed successfully for {}. Real client: {}", ctx.channel().id(), ctx.channel().remoteAddress(), realAddress);
+        }
 
         ctx.channel().attr(REAL_REMOTE_ADDRESS).set(realAddress);
-        fireRealIpResolvedEvent(ctx, realAddress);
+        applyToConnection(ctx, realAddress);
+        fireRealIpResolvedEvent(ctx, realAddress, true);
 
         if (remainingData != null && remainingData.isReadable()) {
             LOGGER.trace("[{}] Forwarding {} bytes of remaining data after PROXY header.", ctx.channel().id(), remainingData.readableBytes());
@@ -105,8 +163,49 @@ public class ProxyHandler extends ChannelInboundHandlerAdapter {
         releaseProcessorAndRemoveHandler(ctx);
     }
 
+    /**
+     * LOCAL headers are the proxy talking for itself, mostly health checks every second or so.
+     * Keep them quiet and cheap: no WARN, and by default close before anything downstream sees data.
+     */
+    private void handleLocalCommand(ChannelHandlerContext ctx, ByteBuf remainingData) {
+        FirewallMetrics.increment(FirewallMetrics.Counter.PROXY_HEALTH_CHECKS);
+        Action action = FirewallConfig.localCommandAction.get();
+
+        if (!action.admits()) {
+            LOGGER.trace("[{}] PROXY LOCAL header from {}, closing ({}).", ctx.channel().id(), ctx.channel().remoteAddress(), action);
+            if (remainingData != null) ReferenceCountUtil.release(remainingData);
+            FirewallUtils.closeConnection(ctx, action);
+            releaseProcessorAndRemoveHandler(ctx);
+            return;
+        }
+
+        LOGGER.trace("[{}] PROXY LOCAL header from {}, using the socket address.", ctx.channel().id(), ctx.channel().remoteAddress());
+        SocketAddress originalAddress = ctx.channel().remoteAddress();
+        ctx.channel().attr(REAL_REMOTE_ADDRESS).set(originalAddress);
+        fireRealIpResolvedEvent(ctx, originalAddress, false);
+        if (remainingData != null) {
+            ctx.fireChannelRead(remainingData); // Pass ownership downstream
+        }
+        releaseProcessorAndRemoveHandler(ctx);
+    }
+
+    /**
+     * Points Minecraft's Connection at the real client in this same event loop turn,
+     * before any packet is decoded, so nothing downstream ever sees the proxy's address.
+     */
+    private void applyToConnection(ChannelHandlerContext ctx, SocketAddress realAddress) {
+        Connection connection = ctx.channel().attr(CONNECTION).get();
+        if (connection == null) {
+            LOGGER.warn("[{}] No Connection cached for channel, cannot apply real address {}.", ctx.channel().id(), realAddress);
+            return;
+        }
+        ((ConnectionAccessor) connection).setAddress(realAddress);
+        LOGGER.debug("[{}] Updated Connection address to {}", ctx.channel().id(), realAddress);
+    }
+
     private void handleProcessingFailure(ChannelHandlerContext ctx, String reason) {
         LOGGER.warn("[{}] Invalid PROXY header processing from {}: {}. Closing connection.", ctx.channel().id(), ctx.channel().remoteAddress(), reason);
+        Fireforged.penalizePeer(ctx.channel().remoteAddress(), BanScores.Offence.INVALID_PROXY_HEADER);
         ctx.close();
         releaseProcessorAndRemoveHandler(ctx);
     }
@@ -152,12 +251,16 @@ public class ProxyHandler extends ChannelInboundHandlerAdapter {
         return null;
     }
 
-    private void fireRealIpResolvedEvent(ChannelHandlerContext ctx, SocketAddress realAddress) {
-        try {
-            MinecraftForge.EVENT_BUS.post(new RealIpResolvedEvent(ctx.channel(), realAddress, true));
-            LOGGER.trace("[{}] Fired RealIpResolvedEvent for channel with address {}", ctx.channel().id(), realAddress);
-        } catch (Exception e) {
-            LOGGER.error("[{}] Failed to post RealIpResolvedEvent", ctx.channel().id(), e);
-        }
+    public static ProxyTlvs getProxyTlvs(Channel channel) {
+        return channel.attr(PROXY_TLVS).get();
+    }
+
+    /**
+     * Hands the address to the firewall right behind us as a pipeline user event, then to any registered listeners.
+     */
+    private void fireRealIpResolvedEvent(ChannelHandlerContext ctx, SocketAddress realAddress, boolean proxyProtocolUsed) {
+        ctx.fireUserEventTriggered(new RealIpResolvedEvent(ctx.channel(), realAddress, proxyProtocolUsed));
+        LOGGER.trace("[{}] Fired RealIpResolvedEvent for channel with address {}", ctx.channel().id(), realAddress);
+        FirewallListeners.fireAddressResolved(ctx.channel(), realAddress, proxyProtocolUsed);
     }
-}
\ No newline at end of file
+}
@@ -1,10 +1,59 @@
 package by.illusion21.fireforged.config;
 
+import by.illusion21.fireforged.config.entity.Action;
+import by.illusion21.fireforged.firewall.limit.Greylist;
 import net.minecraftforge.common.ForgeConfigSpec;
 
 public class FirewallConfig {
     public static ForgeConfigSpec SERVER_CONFIG;
     public static ForgeConfigSpec.BooleanValue isProxyProtocolEnabled;
+    public static ForgeConfigSpec.ConfigValue<String> trustedProxies;
+    public static ForgeConfigSpec.EnumValue<Action> localCommandAction;
+    public static ForgeConfigSpec.IntValue decisionTimeoutMillis;
+    public static ForgeConfigSpec.IntValue tarpitMaxSockets;
+    public static ForgeConfigSpec.IntValue tarpitSeconds;
+    public static ForgeConfigSpec.DoubleValue rateLimitPerSecond;
+    public static ForgeConfigSpec.IntValue rateLimitBurst;
+    public static ForgeConfigSpec.IntValue rateLimitIpv4Prefix;
+    public static ForgeConfigSpec.IntValue rateLimitIpv6Prefix;
+    public static ForgeConfigSpec.IntValue rateLimitTableSize;
+    public static ForgeConfigSpec.EnumValue<Action> rateLimitAction;
+    public static ForgeConfigSpec.IntValue maxConnectionsPerAddress;
+    public static ForgeConfigSpec.IntValue maxConnectionsPerSubnet;
+    public static ForgeConfigSpec.IntValue connectionCapIpv4Prefix;
+    public static ForgeConfigSpec.IntValue connectionCapIpv6Prefix;
+    public static ForgeConfigSpec.EnumValue<Action> connectionCapAction;
+    public static ForgeConfigSpec.IntValue admissionMaxLagMillis;
+    public static ForgeConfigSpec.IntValue admissionMaxUndecided;
+    public static ForgeConfigSpec.EnumValue<Action> admissionShedAction;
+    public static ForgeConfigSpec.IntValue banThreshold;
+    public static ForgeConfigSpec.IntValue banHalfLifeSeconds;
+    public static ForgeConfigSpec.IntValue banSeconds;
+    public static ForgeConfigSpec.EnumValue<Action> banAction;
+    public static ForgeConfigSpec.IntValue knownAddressMinutes;
+    public static ForgeConfigSpec.IntValue knownPlayerDays;
+    public static ForgeConfigSpec.ConfigValue<String> attackModeRules;
+    public static ForgeConfigSpec.BooleanValue attackModeAcceptKnown;
+    public static ForgeConfigSpec.DoubleValue attackModeFactor;
+    public static ForgeConfigSpec.IntValue attackModeMinRate;
+    public static ForgeConfigSpec.IntValue attackModeCalmSeconds;
+    public static ForgeConfigSpec.EnumValue<Greylist.Mode> greylistMode;
+    public static ForgeConfigSpec.IntValue greylistPingSeconds;
+    public static ForgeConfigSpec.IntValue greylistRetrySeconds;
+    public static ForgeConfigSpec.IntValue greylistCapacity;
+    public static ForgeConfigSpec.ConfigValue<String> greylistMessage;
+    public static ForgeConfigSpec.ConfigValue<String> loginBannedNames;
+    public static ForgeConfigSpec.DoubleValue loginRateLimitPerSecond;
+    public static ForgeConfigSpec.IntValue loginRateLimitBurst;
+    public static ForgeConfigSpec.BooleanValue loginRateLimitByName;
+    public static ForgeConfigSpec.BooleanValue loginWhitelistByName;
+    public static ForgeConfigSpec.ConfigValue<String> loginRefusedMessage;
+    public static ForgeConfigSpec.IntValue statusCacheSeconds;
+    public static ForgeConfigSpec.DoubleValue statusRateLimitPerSecond;
+    public static ForgeConfigSpec.IntValue statusRateLimitBurst;
+    public static ForgeConfigSpec.ConfigValue<String> handshakeHosts;
+    public static ForgeConfigSpec.ConfigValue<String> handshakeVersions;
+    public static ForgeConfigSpec.EnumValue<Action> handshakeAction;
     public static ForgeConfigSpec.BooleanValue hideMotd;
     public  static ForgeConfigSpec.ConfigValue<String> rules;
 
@@ -16,20 +65,264 @@ public class FirewallConfig {
                 If you are using a direct connect, DO NOT enable this
                 ------------------------------------
                 If you are using frp port-forwarding, enable this to make certain firewall gets the real ip of players
-                AND SET proxy_protocol_version IN FRPC TO V2!!!(MUST)
+                Both v1 (text) and v2 (binary) headers are detected automatically, V2 IS PREFERRED
+                (set proxy_protocol_version in frpc to v2, or send-proxy-v2 in HAProxy)
                 ABOUT how to set proxy_protocol_version, refer to official document""").define("ProxyProtocol", false);
 
-        hideMotd = server_builder.comment("\nhides motd to whoever attempted to scan").define("hideMotd", false);
+        trustedProxies = server_builder.comment("""
+                
+                Comma separated ip/cidr list of proxies allowed to send PROXY headers, e.g. 127.0.0.1, 10.0.0.0/8
+                Only used when ProxyProtocol is enabled
+                \t- empty: every connection must start with a PROXY header (old behavior)
+                \t- set: connections from these addresses must send a header and it is honoured,
+                \t  everyone else is treated as a direct connection and judged on their own address,
+                \t  so direct LAN players and frp-forwarded players can share the same port
+                \t  and nobody outside the list can forge their ip""").define("TrustedProxies", "");
+
+        localCommandAction = server_builder.comment("""
+                
+                What to do with PROXY v2 LOCAL (v1 UNKNOWN) headers, which load balancers send for health checks
+                \t- DROP: close quietly right after the header (cheapest, enough for tcp health checks)
+                \t- REJECT: same, but with an RST
+                \t- ACCEPT: carry on as a connection from the proxy's own address""").defineEnum("LocalCommandAction", Action.DROP);
+
+        decisionTimeoutMillis = server_builder.comment("""
+                
+                Milliseconds a new connection may take to send its PROXY header and get a firewall verdict.
+                Connections still undecided after that are closed, so idle sockets cannot be held open
+                until Minecraft's own 30 second read timeout. 0 disables the deadline""").defineInRange("DecisionTimeoutMillis", 5000, 0, 60000);
+
+        tarpitMaxSockets = server_builder.comment("""
+                
+                Most connections the TARPIT action holds open at once, further TARPIT verdicts become DROP.
+                Each held connection costs a file descriptor and 1-2 KB of heap, keep it well below your ulimit -n.
+                0 turns TARPIT into DROP""").defineInRange("TarpitMaxSockets", 1024, 0, 65536);
+
+        tarpitSeconds = server_builder.comment("""
+                
+                Seconds a TARPIT connection is held, silent and unread, before it is closed""").defineInRange("TarpitSeconds", 60, 1, 3600);
+
+        rateLimitPerSecond = server_builder.comment("""
+                
+                New connections per second one source may open once its burst is used up, 0 disables the limit
+                Only applies to connections the rules ACCEPT; sources are aggregated by the prefixes below""").defineInRange("RateLimitPerSecond", 0.0, 0.0, 1000.0);
+
+        rateLimitBurst = server_builder.comment("""
+                
+                Connections one source may open back to back before RateLimitPerSecond kicks in
+                (a player's ping + join is 2, a few more leave room for reconnects)""").defineInRange("RateLimitBurst", 8, 1, 1000);
+
+        rateLimitIpv4Prefix = server_builder.comment("""
+                
+                IPv4 sources sharing this prefix share one rate limit, 32 = per address""").defineInRange("RateLimitIpv4Prefix", 32, 0, 32);
+
+        rateLimitIpv6Prefix = server_builder.comment("""
+                
+                IPv6 sources sharing this prefix share one rate limit.
+                64 by default: a single host usually owns a whole /64 and can rotate through it freely""").defineInRange("RateLimitIpv6Prefix", 64, 0, 64);
+
+        rateLimitTableSize = server_builder.comment("""
+                
+                Number of sources tracked at once, 16 bytes each. When more sources connect the quietest ones are forgotten""").defineInRange("RateLimitTableSize", 65536, 1024, 16777216);
+
+        rateLimitAction = server_builder.comment("""
+                
+                What to do with connections over the rate limit (DROP, REJECT or TARPIT)""").defineEnum("RateLimitAction", Action.DROP);
+
+        maxConnectionsPerAddress = server_builder.comment("""
+                
+                Most connections one address (IPv4 address, IPv6 /64) may have open at the same time, 0 disables
+                Only applies to connections the rules ACCEPT""").defineInRange("MaxConnectionsPerAddress", 0, 0, 65535);
+
+        maxConnectionsPerSubnet = server_builder.comment("""
+                
+                Most connections one subnet (see the two prefixes below) may have open at the same time, 0 disables
+                e.g. 3 per address and 20 per subnet stops a handful of hosts from eating all file descriptors""").defineInRange("MaxConnectionsPerSubnet", 0, 0, 65535);
+
+        connectionCapIpv4Prefix = server_builder.comment("\nIPv4 prefix length that makes up a subnet for MaxConnectionsPerSubnet").defineInRange("ConnectionCapIpv4Prefix", 24, 0, 32);
+
+        connectionCapIpv6Prefix = server_builder.comment("\nIPv6 prefix length that makes up a subnet for MaxConnectionsPerSubnet").defineInRange("ConnectionCapIpv6Prefix", 48, 0, 64);
+
+        connectionCapAction = server_builder.comment("""
+                
+                What to do with connections over a cap (DROP, REJECT or TARPIT)""").defineEnum("ConnectionCapAction", Action.DROP);
+
+        admissionMaxLagMillis = server_builder.comment("""
+                
+                Load shedding: milliseconds a task may wait for a network thread before the server counts as overloaded, 0 disables
+                While overloaded, only addresses admitted within KnownAddressMinutes get in
+                \t- still overloaded after a second: new connections stay in the kernel's backlog for up to 2 seconds at a time
+                \t- both this and AdmissionMaxUndecided below half their value for 5 seconds: everyone is admitted again""").defineInRange("AdmissionMaxLagMillis", 0, 0, 10000);
+
+        admissionMaxUndecided = server_builder.comment("""
+                
+                Load shedding: connections waiting for their PROXY header or verdict at once before the server counts as overloaded, 0 disables""").defineInRange("AdmissionMaxUndecided", 0, 0, 1000000);
+
+        admissionShedAction = server_builder.comment("""
+                
+                What to do with unknown connections while the server is overloaded (DROP, REJECT or TARPIT)""").defineEnum("AdmissionShedAction", Action.DROP);
+
+        banThreshold = server_builder.comment("""
+                
+                Misbehaviour score at which an address is banned for BanSeconds, 0 disables automatic bans
+                Each offence adds points to the address' score, which halves every BanHalfLifeSeconds:
+                \t- invalid PROXY header: 20
+                \t- error in the firewall's handlers: 10
+                \t- connection denied by the rules or a limit: 5
+                \t- server list ping: 1
+                Proxies on TrustedProxies are never scored for a bad header, the client behind them is unknown
+                e.g. 100 bans a scanner pinging every half second, or 20 denied connections in quick succession""").defineInRange("BanThreshold", 0, 0, 100000);
+
+        banHalfLifeSeconds = server_builder.comment("\nSeconds for a misbehaviour score to halve").defineInRange("BanHalfLifeSeconds", 60, 1, 86400);
+
+        banSeconds = server_builder.comment("""
+                
+                Seconds a ban lasts. Offending while banned counts too, so whoever keeps hammering stays banned""").defineInRange("BanSeconds", 600, 1, 604800);
+
+        banAction = server_builder.comment("""
+                
+                What to do with connections from banned addresses (DROP, REJECT or TARPIT)
+                Bans never override an explicit deny of the rules, and unix socket connections are never banned,
+                neither are clients a proxy relays from its own unix socket""").defineEnum("BanAction", Action.DROP);
+
+        knownAddressMinutes = server_builder.comment("""
+                
+                Minutes an admitted address stays known, known addresses still get in while the server is overloaded""").defineInRange("KnownAddressMinutes", 60, 1, 10080);
+
+        knownPlayerDays = server_builder.comment("""
+                
+                Days the address of a player who completed login stays known, like KnownAddressMinutes but kept
+                across restarts in fireforged-known-players.bin next to the server, and trusted by AttackModeAcceptKnown. 0 disables""").defineInRange("KnownPlayerDays", 14, 0, 365);
+
+        attackModeRules = server_builder.comment("""
+                
+                Stricter rules, same syntax as FilterRules, used instead of them while the connection rate is far above normal
+                Empty disables attack mode. Both rule sets are compiled at startup, switching costs nothing
+                e.g. let your region's ranges in and tarpit everyone else:
+                203.0.113.0/24 ACCEPT 1, 0.0.0.0/0 TARPIT 65535, ::/0 TARPIT 65535""").define("AttackModeRules", "");
+
+        attackModeAcceptKnown = server_builder.comment("""
+                
+                Whether addresses of players who logged in within KnownPlayerDays are accepted in attack mode before any attack mode rule
+                Addresses merely admitted are not: a flood gets admitted for a few seconds before attack mode starts""").define("AttackModeAcceptKnown", true);
+
+        attackModeFactor = server_builder.comment("""
+                
+                Attack mode starts once new connections per second stay above this many times the usual rate for 3 seconds
+                (the usual rate is a 5 minute moving average, learned outside attack mode)""").defineInRange("AttackModeFactor", 5.0, 1.5, 1000.0);
+
+        attackModeMinRate = server_builder.comment("""
+                
+                New connections per second below which it is never an attack, whatever the usual rate""").defineInRange("AttackModeMinRate", 50, 1, 1000000);
+
+        attackModeCalmSeconds = server_builder.comment("""
+                
+                Seconds the rate must stay below the attack threshold before the normal rules are back""").defineInRange("AttackModeCalmSeconds", 60, 5, 3600);
+
+        greylistMode = server_builder.comment("""
+                
+                Turns away the first login of an address that is not a known player (see KnownPlayerDays), unless it pinged
+                the server list within GreylistPingSeconds or retries within GreylistRetrySeconds. Join bots rarely do either
+                \t- OFF: never
+                \t- ALWAYS: every login
+                \t- ATTACK_MODE: only while the attack mode rules are in force
+                Can be changed at runtime with /fireforged greylist""").defineEnum("GreylistMode", Greylist.Mode.OFF);
+
+        greylistPingSeconds = server_builder.comment("""
+                
+                Seconds a server list ping lets its address log in without being greylisted (hideMotd drops pings, leaving only retries)""").defineInRange("GreylistPingSeconds", 600, 10, 86400);
+
+        greylistRetrySeconds = server_builder.comment("""
+                
+                Seconds after a greylisted login during which the same address gets in on retry""").defineInRange("GreylistRetrySeconds", 300, 10, 86400);
+
+        greylistCapacity = server_builder.comment("""
+                
+                Addresses the greylist remembers per seventh of GreylistPingSeconds and of GreylistRetrySeconds
+                Past that a login is let in rather than greylisted, since its retry could not be recognised
+                e.g. 16384, about 4 MB, keeps up with over 300 new addresses per second trying to log in""").defineInRange("GreylistCapacity", 16384, 1024, 1048576);
+
+        greylistMessage = server_builder.comment("""
+                
+                Disconnect message shown to a greylisted player""").define("GreylistMessage", "Connection verified, please join again.");
+
+        loginBannedNames = server_builder.comment("""
+                
+                Comma separated fragments of player names to refuse, matched anywhere in the name ignoring case, e.g. bot, _mc_, 1234
+                Refused logins, like everything else in the Login* settings, never get the encryption request,
+                so they cost the server no RSA decryption and no session server call""").define("LoginBannedNames", "");
+
+        loginRateLimitPerSecond = server_builder.comment("""
+                
+                Logins per second one address (IPv4 address, IPv6 /64), and with LoginRateLimitByName one player name,
+                may each make once the burst is used up, 0 disables""").defineInRange("LoginRateLimitPerSecond", 0.0, 0.0, 1000.0);
+
+        loginRateLimitBurst = server_builder.comment("""
+                
+                Logins one address or name may make back to back before LoginRateLimitPerSecond kicks in""").defineInRange("LoginRateLimitBurst", 3, 1, 1000);
+
+        loginRateLimitByName = server_builder.comment("""
+                
+                Rate limits each player name too, against one name tried from many addresses
+                The name is not authenticated yet: anyone can use up a player's allowance by logging in as them
+                from a few addresses, and keep that player out for as long as they keep at it""").define("LoginRateLimitByName", false);
+
+        loginWhitelistByName = server_builder.comment("""
+                
+                While the whitelist is on, refuses names that are not on it or the ops list before authenticating them
+                The whitelist is normally checked by UUID after authentication: a whitelisted player who changed their name
+                is refused until the entry is updated (/whitelist remove, then add)""").define("LoginWhitelistByName", false);
+
+        loginRefusedMessage = server_builder.comment("""
+                
+                Disconnect message shown to logins refused by the Login* settings""").define("LoginRefusedMessage", "Login refused.");
+
+        statusCacheSeconds = server_builder.comment("""
+                
+                Seconds an encoded status response (MOTD, players, favicon) is reused, 0 disables
+                Server list pings, legacy 0xFE ones included, are then answered straight from the network thread,
+                only one ping per interval reaches the server to refresh it. Ignored while hideMotd is on""").defineInRange("StatusCacheSeconds", 0, 0, 300);
+
+        statusRateLimitPerSecond = server_builder.comment("""
+                
+                Server list pings per second one address (IPv4 address, IPv6 /64) may send once its burst is used up,
+                0 disables. Pings over the limit are dropped before the server sees them""").defineInRange("StatusRateLimitPerSecond", 0.0, 0.0, 1000.0);
+
+        statusRateLimitBurst = server_builder.comment("""
+                
+                Server list pings one address may send back to back before StatusRateLimitPerSecond kicks in
+                (the multiplayer screen pings once per server each time it is opened or refreshed)""").defineInRange("StatusRateLimitBurst", 4, 1, 1000);
+
+        handshakeHosts = server_builder.comment("""
+                
+                Comma separated server addresses clients may connect with, e.g. mc.example.org, *.example.org, empty allows any
+                Checked on the raw handshake before the server decodes it, bots connecting by bare ip are dropped right there.
+                Case, a trailing dot and what Forge or BungeeCord append after the name are ignored""").define("HandshakeHosts", "");
+
+        handshakeVersions = server_builder.comment("""
+                
+                Comma separated protocol versions and ranges logins may use, e.g. 763, 764-767, empty allows any
+                Server list pings are never filtered on version, clients learn the server runs another one from them.
+                While a host or version list is set, connections whose first packet is not a valid handshake are dropped too""").define("HandshakeVersions", "");
+
+        handshakeAction = server_builder.comment("""
+                
+                What to do with handshakes the lists do not allow (DROP, REJECT or TARPIT)""").defineEnum("HandshakeAction", Action.DROP);
+
+        hideMotd = server_builder.comment("\nhides motd to whoever attempted to scan, as if every ACCEPT rule were DENY_STATUS").define("hideMotd", false);
 
         rules = server_builder.comment("""
                 
                 Please edit your rules with the
                 [ip/cidr] [action] [priority]
                 syntax, separating rules with commas (,)
-                Supported actions are: REJECT, DROP, ACCEPT.
+                Supported actions are: REJECT, DROP, ACCEPT, TARPIT, ALLOW_STATUS_ONLY, DENY_STATUS.
                 \t- ACCEPT: allow the CIDR; by setting 0.0.0.0/0 ACCEPT 65535 rule, you change the default behavior of fireforged to accept CIDRs that are not in the block list
                 \t- REJECT: sends RST after the remote tries 3 packets handshake
                 \t- DROP: sends FIN after the remote tries 3 packets handshake
+                \t- TARPIT: never answers and keeps the connection open for TarpitSeconds, so bots wait instead of retrying
+                \t- ALLOW_STATUS_ONLY: like ACCEPT, but the CIDR may only ping the server list, logging in is dropped
+                \t- DENY_STATUS: like ACCEPT, but the CIDR may only log in, server list pings are dropped (hideMotd for the CIDR)
                 PRIORITY ranges from 0 (highest) to 65535 (lowest)
                 DUE TO LAYER 7 LIMITATION, WE WERE UNABLE TO INTERCEPT IN EARLY SYN HANDSHAKE STAGE
                 ------------------------------------
@@ -0,0 +1,313 @@
+package by.illusion21.fireforged.handshake;
+
+import by.illusion21.fireforged.Fireforged;
+import by.illusion21.fireforged.config.FirewallConfig;
+import by.illusion21.fireforged.config.entity.Action;
+import by.illusion21.fireforged.firewall.limit.AddressKeys;
+import by.illusion21.fireforged.firewall.limit.BanScores;
+import by.illusion21.fireforged.firewall.limit.ConnectionRateLimiter;
+import by.illusion21.fireforged.firewall.FirewallHandler;
+import by.illusion21.fireforged.firewall.limit.Greylist;
+import by.illusion21.fireforged.firewall.utils.FirewallUtils;
+import by.illusion21.fireforged.handshake.utils.HandshakeParseResult;
+import by.illusion21.fireforged.handshake.utils.HandshakeParser;
+import by.illusion21.fireforged.handshake.utils.VarInts;
+import by.illusion21.fireforged.metrics.FirewallMetrics;
+import by.illusion21.fireforged.proxyprotocol.ProxyHandler;
+import by.illusion21.fireforged.status.StatusCache;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.util.concurrent.FastThreadLocal;
+import net.minecraft.server.MinecraftServer;
+import net.minecraftforge.server.ServerLifecycleHooks;
+import org.slf4j.Logger;
+
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/// Judges the first frame of a connection from its raw bytes, before any of the server's decoders or packet
+/// listeners exist for it: the [HandshakeFilter]'s allow-lists, the protocol phases the verdict left the
+/// connection (see [FirewallHandler.Phases]), the status rate limit, and server list pings answered from the
+/// [StatusCache] right on the event loop.
+///
+/// Sits behind the FirewallHandler and looks at the first frame of every connection that got through:
+/// - a frame that is not a handshake, or a handshake the filter does not allow, is closed with HandshakeAction
+/// - a legacy `0xFE` ping gets the cached legacy answer in the form its client version expects
+/// - a handshake with the status intent is checked against the status rate limit, then its status request
+///   and ping are answered from the cache: the response frame as the server last encoded it, and the ping
+///   echoed back as the pong, which has the same id and payload
+/// - a login the connection may not make is closed right at the handshake
+/// - anything else goes on to the server untouched and this handler leaves the pipeline
+///
+/// When the cached response is stale, one status connection at a time is let through to the server instead
+/// and its response frame is copied into the cache on the way out. Status requests are never compressed
+/// or encrypted, so the frame is exactly what every other client would have been sent.
+public class HandshakeHandler extends ChannelDuplexHandler {
+
+    public static final String NAME = "fireforged_handshake_handler";
+    private static final Logger LOGGER = Fireforged.getLogger();
+    private static final int STATUS_REQUEST_ID = 0x00;
+    private static final int STATUS_RESPONSE_ID = 0x00;
+    private static final int PING_ID = 0x01;
+    private static final int PING_FRAME_LENGTH = 9; // Packet id and a long
+    private static final int LEGACY_KICK_ID = 0xFF;
+
+    // Only read within the call that parsed it, so one holder per event loop does for all its connections
+    private static final FastThreadLocal<HandshakeParseResult> HANDSHAKE = new FastThreadLocal<>() {
+        @Override
+        protected HandshakeParseResult initialValue() {
+            return new HandshakeParseResult();
+        }
+    };
+
+    private ByteBuf cumulation;
+    private boolean serving = false;       // Handshake done, answering from the cache
+    private boolean answeredStatus = false;
+    private boolean capturing = false;     // Passed on to refresh the cache, copying the response
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (capturing || !(msg instanceof ByteBuf buffer)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        cumulation = cumulation == null ? buffer : ByteToMessageDecoder.MERGE_CUMULATOR.cumulate(ctx.alloc(), cumulation, buffer);
+        if (serving) {
+            serve(ctx);
+        } else {
+            sniff(ctx);
+        }
+    }
+
+    private void sniff(ChannelHandlerContext ctx) {
+        HandshakeParseResult handshake = HANDSHAKE.get();
+        HandshakeFilter filter = Fireforged.getHandshakeFilter();
+        int status = HandshakeParser.parse(cumulation, handshake);
+        switch (status) {
+            case HandshakeParseResult.INCOMPLETE -> {
+                // Wait, the parser gives up on frames longer than a handshake can be
+            }
+            case HandshakeParseResult.LEGACY, HandshakeParseResult.LEGACY_V0 -> {
+                if (allowStatus(ctx)) {
+                    // Carries no host worth filtering on, only 1.6 clients send one
+                    answerLegacy(ctx, status == HandshakeParseResult.LEGACY_V0);
+                }
+            }
+            case HandshakeParseResult.INVALID -> {
+                if (filter != null) {
+                    reject(ctx, BanScores.Offence.INVALID_HANDSHAKE, handshake.getFailureReason());
+                } else {
+                    passOn(ctx); // Not ours to judge, the server deals with it as it always did
+                }
+            }
+            case HandshakeParseResult.SUCCESS -> {
+                if (filter != null && !filter.allows(handshake, cumulation)) {
+                    reject(ctx, BanScores.Offence.DENIED, "Host or version not allowed");
+                } else if (handshake.getIntent() == HandshakeParseResult.INTENT_STATUS) {
+                    if (allowStatus(ctx)) {
+                        startStatus(ctx, handshake.getFrameEnd());
+                    }
+                } else if (!FirewallHandler.isLoginAllowed(ctx.channel())) {
+                    LOGGER.debug("Login not allowed for {} (Channel: {}), dropping", ProxyHandler.getRealRemoteAddress(ctx.channel()), ctx.channel().id());
+                    close(ctx);
+                } else {
+                    passOn(ctx);
+                }
+            }
+            default -> passOn(ctx);
+        }
+    }
+
+    private void reject(ChannelHandlerContext ctx, BanScores.Offence offence, String reason) {
+        SocketAddress address = ProxyHandler.getRealRemoteAddress(ctx.channel());
+        FirewallMetrics.increment(FirewallMetrics.Counter.HANDSHAKE_FILTERED);
+        Fireforged.penalize(address, offence);
+        LOGGER.debug("Handshake filtered from {} (Channel: {}): {}", address, ctx.channel().id(), reason);
+        releaseCumulation();
+        FirewallUtils.closeConnection(ctx, FirewallConfig.handshakeAction.get());
+    }
+
+    /**
+     * @return false if the connection may not ping or is over the status rate limit, it is then closed.
+     */
+    private boolean allowStatus(ChannelHandlerContext ctx) {
+        SocketAddress address = ProxyHandler.getRealRemoteAddress(ctx.channel());
+        if (!FirewallHandler.isStatusAllowed(ctx.channel())) {
+            Fireforged.penalize(address, BanScores.Offence.STATUS_PROBE);
+            LOGGER.debug("Status ping not allowed for {} (Channel: {}), dropping", address, ctx.channel().id());
+            close(ctx);
+            return false;
+        }
+        ConnectionRateLimiter limiter = Fireforged.getStatusRateLimiter();
+        if (limiter == null) {
+            return true;
+        }
+        long key = AddressKeys.of(address, limiter.getIpv4Prefix(), limiter.getIpv6Prefix());
+        if (key == AddressKeys.NO_KEY || limiter.tryAcquire(key)) {
+            return true;
+        }
+        FirewallMetrics.increment(FirewallMetrics.Counter.STATUS_RATE_LIMITED);
+        Fireforged.penalize(address, BanScores.Offence.STATUS_PROBE);
+        LOGGER.debug("Status ping over the rate limit from {} (Channel: {}), dropping", address, ctx.channel().id());
+        releaseCumulation();
+        FirewallUtils.closeConnection(ctx, Action.DROP);
+        return false;
+    }
+
+    private void startStatus(ChannelHandlerContext ctx, int frameEnd) {
+        if (!StatusCache.isEnabled()) {
+            passOn(ctx);
+        } else if (!StatusCache.isFresh() && StatusCache.claimRefresh()) {
+            capturing = true;
+            passOn(ctx);
+        } else if (StatusCache.response() != null) {
+            serving = true;
+            cumulation.readerIndex(frameEnd);
+            serve(ctx);
+        } else {
+            passOn(ctx); // Nothing cached yet and someone else is refreshing it
+        }
+    }
+
+    /**
+     * Answers the frames that follow a status handshake: one status request, then the ping.
+     */
+    private void serve(ChannelHandlerContext ctx) {
+        while (cumulation != null && cumulation.isReadable()) {
+            int start = cumulation.readerIndex();
+            long packed = VarInts.get(cumulation, start, cumulation.writerIndex());
+            if (packed == VarInts.INCOMPLETE) {
+                return;
+            }
+            int length = VarInts.value(packed);
+            int bodyStart = start + VarInts.length(packed);
+            if (packed == VarInts.TOO_LONG || length < 1 || length > PING_FRAME_LENGTH) {
+                close(ctx); // Nothing a status client sends is this long
+                return;
+            }
+            if (bodyStart + length > cumulation.writerIndex()) {
+                return;
+            }
+            int id = cumulation.getByte(bodyStart);
+            if (id == STATUS_REQUEST_ID && length == 1 && !answeredStatus) {
+                ByteBuf response = StatusCache.response();
+                if (response == null) {
+                    close(ctx); // Only after the cache was reset by a restart
+                    return;
+                }
+                answeredStatus = true;
+                cumulation.readerIndex(bodyStart + length);
+                FirewallMetrics.increment(FirewallMetrics.Counter.STATUS_CACHE_HITS);
+                Fireforged.penalize(ProxyHandler.getRealRemoteAddress(ctx.channel()), BanScores.Offence.STATUS_PROBE);
+                ctx.writeAndFlush(response);
+            } else if (id == PING_ID && length == PING_FRAME_LENGTH) {
+                Greylist.recordPing(ProxyHandler.getRealRemoteAddress(ctx.channel()));
+                ByteBuf pong = cumulation.retainedSlice(start, bodyStart + length - start);
+                releaseCumulation();
+                ctx.writeAndFlush(pong).addListener(ChannelFutureListener.CLOSE);
+                return;
+            } else {
+                close(ctx);
+                return;
+            }
+        }
+    }
+
+    private void answerLegacy(ChannelHandlerContext ctx, boolean version0) {
+        if (!StatusCache.isEnabled()) {
+            passOn(ctx);
+            return;
+        }
+        ByteBuf answer = StatusCache.legacyResponse(version0);
+        if (answer == null) {
+            // Building it is a few string appends, no need to involve the server's handler for a refresh
+            MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+            if (server == null) {
+                passOn(ctx);
+                return;
+            }
+            answer = encodeLegacy(server, version0);
+            StatusCache.storeLegacy(version0, answer);
+        }
+        FirewallMetrics.increment(FirewallMetrics.Counter.STATUS_CACHE_HITS);
+        Fireforged.penalize(ProxyHandler.getRealRemoteAddress(ctx.channel()), BanScores.Offence.STATUS_PROBE);
+        releaseCumulation();
+        ctx.writeAndFlush(answer).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    /**
+     * The kick packet legacy clients read the server list from, as the server's own legacy handler builds it:
+     * `motd§players§max` for clients before 1.4, fields after a `§1` marker for 1.4 to 1.6.
+     */
+    private static ByteBuf encodeLegacy(MinecraftServer server, boolean version0) {
+        String text = version0
+                ? server.getMotd() + "§" + server.getPlayerCount() + "§" + server.getMaxPlayers()
+                : "§1\u0000127\u0000" + server.getServerVersion() + "\u0000" + server.getMotd()
+                + "\u0000" + server.getPlayerCount() + "\u0000" + server.getMaxPlayers();
+        ByteBuf frame = Unpooled.buffer(3 + text.length() * 2);
+        frame.writeByte(LEGACY_KICK_ID);
+        frame.writeShort(text.length());
+        frame.writeCharSequence(text, StandardCharsets.UTF_16BE);
+        return frame;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (capturing && msg instanceof ByteBuf frame) {
+            capturing = false;
+            if (isStatusResponse(frame)) {
+                StatusCache.store(frame);
+            } else {
+                StatusCache.releaseRefresh();
+            }
+            ctx.write(msg, promise);
+            ctx.pipeline().remove(this);
+            return;
+        }
+        super.write(ctx, msg, promise);
+    }
+
+    private static boolean isStatusResponse(ByteBuf frame) {
+        long packed = VarInts.get(frame, frame.readerIndex(), frame.writerIndex());
+        return packed >= 0 && VarInts.length(packed) + VarInts.value(packed) == frame.readableBytes()
+                && VarInts.value(packed) > 1 && frame.getByte(frame.readerIndex() + VarInts.length(packed)) == STATUS_RESPONSE_ID;
+    }
+
+    /**
+     * Hands everything read so far to the server. Stays in the pipeline only to copy a refreshed response.
+     */
+    private void passOn(ChannelHandlerContext ctx) {
+        ByteBuf buffered = cumulation;
+        cumulation = null;
+        ctx.fireChannelRead(buffered);
+        if (!capturing && ctx.pipeline().context(this) != null) {
+            ctx.pipeline().remove(this);
+        }
+    }
+
+    private void close(ChannelHandlerContext ctx) {
+        releaseCumulation();
+        FirewallUtils.closeConnection(ctx, Action.DROP);
+    }
+
+    private void releaseCumulation() {
+        if (cumulation != null) {
+            cumulation.release();
+            cumulation = null;
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        releaseCumulation();
+        if (capturing) {
+            capturing = false;
+            StatusCache.releaseRefresh(); // Closed before the server answered
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package by.illusion21.fireforged.mixin;
+
+import by.illusion21.fireforged.proxyprotocol.ProxyHandler;
+import io.netty.channel.ChannelHandlerContext;
+import net.minecraft.network.Connection;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+
+@Mixin(Connection.class)
+public abstract class ConnectionMixin {
+    // cache ourselves on the channel, so the proxy handler can set the real address without a pipeline lookup
+    @Inject(method = "channelActive(Lio/netty/channel/ChannelHandlerContext;)V", at = @At("TAIL"))
+    private void onChannelActiveCacheConnection(ChannelHandlerContext ctx, CallbackInfo ci) {
+        ctx.channel().attr(ProxyHandler.CONNECTION).set((Connection) (Object) this);
+    }
+}